@@ -11,6 +11,7 @@ import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.ActionBarActivity;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -23,11 +24,14 @@ import android.widget.ListView;
 import android.widget.Toast;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import at.jku.win.ss15.pjse.backend.Category;
 import at.jku.win.ss15.pjse.backend.Currency;
 import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.impl.AsyncDataProvider;
 import at.jku.win.ss15.pjse.backend.impl.DataProviderImpl;
+import at.jku.win.ss15.pjse.backend.impl.StorageAccessMonitor;
 
 /**
  * Fragment used for managing interactions for and presentation of a navigation drawer.
@@ -220,6 +224,16 @@ public class NavigationDrawerFragment extends Fragment {
 
     @Override
     public void onDetach() {
+        // report storage access which may cause jank, see StorageAccessMonitor. The provider
+        // is not created here, as that would access storage on the UI thread itself
+        DataProvider provider = DataProviderImpl.peekInstance();
+        if (provider instanceof StorageAccessMonitor) {
+            StorageAccessMonitor monitor = (StorageAccessMonitor) provider;
+            if (!monitor.getViolations().isEmpty()) {
+                Log.w("StorageAccessMonitor", monitor.dump());
+                monitor.clearViolations();
+            }
+        }
         super.onDetach();
         mCallbacks = null;
     }
@@ -256,18 +270,33 @@ public class NavigationDrawerFragment extends Fragment {
 
         if (item.getItemId() == R.id.action_example) {
 
-            try {
-                DataProvider db = DataProviderImpl.getInstance(getActivity());
-                if (db.getAllCategories().size() == 0) {
-                    Category c = new Category("ExampleCategory", Currency.EUR);
-                    c.setBudget(new BigDecimal(2000));
-                    db.addCategory(c);
-                    Toast.makeText(getActivity(), "Setup DB finished", Toast.LENGTH_LONG).show();
+            final AsyncDataProvider db = AsyncDataProvider.getInstance(getActivity());
+            db.getAllCategories(new AsyncDataProvider.Callback<List<Category>>() {
+                @Override
+                public void onResult(List<Category> categories) {
+                    if (categories.size() == 0) {
+                        Category c = new Category("ExampleCategory", Currency.EUR);
+                        c.setBudget(new BigDecimal(2000));
+                        db.addCategory(c, new AsyncDataProvider.Callback<Void>() {
+                            @Override
+                            public void onResult(Void result) {
+                                if (getActivity() != null)
+                                    Toast.makeText(getActivity(), "Setup DB finished", Toast.LENGTH_LONG).show();
+                            }
+
+                            @Override
+                            public void onError(DataProvider.DataProviderException e) {
+                                e.printStackTrace();
+                            }
+                        });
+                    }
                 }
 
-            } catch (DataProvider.DataProviderException e) {
-                e.printStackTrace();
-            }
+                @Override
+                public void onError(DataProvider.DataProviderException e) {
+                    e.printStackTrace();
+                }
+            });
 
             return true;
         }
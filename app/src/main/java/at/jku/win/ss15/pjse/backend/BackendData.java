@@ -1,8 +1,23 @@
 package at.jku.win.ss15.pjse.backend;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -10,6 +25,8 @@ import java.util.List;
 
 public class BackendData implements Serializable {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     public List<Entry> entries;
     public List<Category> categories;
     public List<BudgetChangedListener.LogItem> logItems;
@@ -19,21 +36,416 @@ public class BackendData implements Serializable {
     }
 
     public static String exportBackendData(BackendData backendData) {
-        Gson gson = new Gson();
-        return gson.toJson(backendData);
+        return GsonAdapters.getGson().toJson(backendData);
     }
 
     public static BackendData importBackendData(String exported) {
-        Gson gson = new Gson();
-        return gson.fromJson(exported, BackendData.class);
+        return GsonAdapters.getGson().fromJson(exported, BackendData.class);
     }
 
-    public void fillDataProvider(DataProvider provider) throws DataProvider.DataProviderException {
+    /**
+     * Writes the data of a provider in the format of {@link #exportBackendData(BackendData)}
+     * without building it in memory first. Categories are written first and entries are
+     * fetched one category at a time.
+     *
+     * @param provider the provider to be exported
+     * @param listener the listener providing the log items, may be NULL
+     * @param out      the stream the data is written to as UTF-8, which is not closed
+     * @throws IOException                        if the data could not be written
+     * @throws DataProvider.DataProviderException if the data could not be read from the provider
+     */
+    public static void exportBackendData(DataProvider provider, BudgetChangedListener listener, OutputStream out) throws IOException, DataProvider.DataProviderException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+        exportBackendData(provider, listener, writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the data of a provider in the format of {@link #exportBackendData(BackendData)}
+     * without building it in memory first. Categories are written first and entries are
+     * fetched one category at a time.
+     *
+     * @param provider the provider to be exported
+     * @param listener the listener providing the log items, may be NULL
+     * @param out      the writer the data is written to, which is not closed
+     * @throws IOException                        if the data could not be written
+     * @throws DataProvider.DataProviderException if the data could not be read from the provider
+     */
+    public static void exportBackendData(DataProvider provider, BudgetChangedListener listener, Writer out) throws IOException, DataProvider.DataProviderException {
+        JsonWriter writer = new JsonWriter(out);
+        List<Category> categories = provider.getAllCategories();
+        writer.beginObject();
+        writer.name("categories").beginArray();
+        for (Category c : categories)
+            GsonAdapters.CATEGORY.write(writer, c);
+        writer.endArray();
+        writer.name("entries").beginArray();
+        for (Category c : categories)
+            for (Entry e : provider.getAllEntries(c))
+                GsonAdapters.ENTRY.write(writer, e);
+        writer.endArray();
+        List<BudgetChangedListener.LogItem> logItems = null;
+        try {
+            if (listener != null)
+                logItems = listener.getAllChanges();
+        } catch (UnsupportedOperationException uoe) {
+            logItems = null;
+        }
+        if (logItems != null) {
+            writer.name("logItems").beginArray();
+            for (BudgetChangedListener.LogItem item : logItems)
+                GsonAdapters.LOG_ITEM.write(writer, item);
+            writer.endArray();
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Writes the data of a provider like {@link #exportBackendData(DataProvider, BudgetChangedListener, OutputStream)},
+     * using the given format.
+     *
+     * @param provider the provider to be exported
+     * @param listener the listener providing the log items, may be NULL
+     * @param out      the stream the data is written to, which is not closed
+     * @param codec    {@link RecordCodec#JSON} for the JSON format or {@link RecordCodec#BINARY}
+     *                 for a stream of {@link BinaryRecordCodec} records
+     * @throws IOException                        if the data could not be written
+     * @throws DataProvider.DataProviderException if the data could not be read from the provider
+     */
+    public static void exportBackendData(DataProvider provider, BudgetChangedListener listener, OutputStream out, RecordCodec codec) throws IOException, DataProvider.DataProviderException {
+        if (codec == RecordCodec.JSON) {
+            exportBackendData(provider, listener, out);
+            return;
+        }
+        BufferedOutputStream buffered = new BufferedOutputStream(out);
+        BinaryRecordCodec.RecordWriter writer = new BinaryRecordCodec.RecordWriter(buffered);
+        List<Category> categories = provider.getAllCategories();
+        for (Category c : categories)
+            writer.write(c);
+        for (Category c : categories)
+            for (Entry e : provider.getAllEntries(c))
+                writer.write(e);
+        try {
+            if (listener != null)
+                for (BudgetChangedListener.LogItem item : listener.getAllChanges())
+                    writer.write(item);
+        } catch (UnsupportedOperationException ignored) {
+        }
+        buffered.flush();
+    }
+
+    /**
+     * Reads data written by {@link #exportBackendData} in any of the formats or by
+     * {@link BackupArchive#export} into a provider, replacing its content.
+     * Each record is written to the provider as soon as it has been read, all within one batch.
+     * If entries precede the categories (as in the output of {@link #exportBackendData(BackendData)}),
+     * they are kept back until the categories have been added. Log items are skipped.
+     *
+     * @param in       the stream containing the data, which is not closed
+     * @param provider the provider to be filled
+     * @throws IOException                        if the data could not be read or parsed
+     * @throws DataProvider.DataProviderException if the data could not be written to the provider
+     */
+    public static void importBackendData(InputStream in, DataProvider provider) throws IOException, DataProvider.DataProviderException {
+        final BufferedInputStream buffered = new BufferedInputStream(in);
+        byte[] head = new byte[BackupArchive.MAGIC.length];
+        buffered.mark(head.length);
+        int read = 0, n;
+        while (read < head.length && (n = buffered.read(head, read, head.length - read)) > 0)
+            read += n;
+        buffered.reset();
+        if (BackupArchive.isArchive(head)) {
+            BackupArchive.importInto(buffered, provider);
+            return;
+        }
+        if (head[0] != BinaryRecordCodec.MAGIC[0]) {
+            importBackendData(new BufferedReader(new InputStreamReader(buffered, UTF8)), provider);
+            return;
+        }
+        final BinaryRecordCodec.RecordReader reader = new BinaryRecordCodec.RecordReader(buffered);
+        final IOException[] failure = new IOException[1];
+        try {
+            provider.batch(new DataProvider.Batch() {
+                @Override
+                public void run(DataProvider provider) throws DataProvider.DataProviderException {
+                    provider.reset();
+                    try {
+                        for (Object record = reader.read(); record != null; record = reader.read()) {
+                            if (record instanceof Category)
+                                provider.addCategory((Category) record);
+                            else if (record instanceof Entry)
+                                provider.addEntry((Entry) record);
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        throw new DataProvider.DataProviderException("Backup could not be read!", e);
+                    }
+                }
+            });
+        } catch (DataProvider.DataProviderException e) {
+            if (failure[0] != null)
+                throw failure[0];
+            throw e;
+        }
+    }
+
+    /**
+     * Reads data written by {@link #exportBackendData} into a provider, replacing its content.
+     * Each record is written to the provider as soon as it has been read, all within one batch.
+     * If entries precede the categories (as in the output of {@link #exportBackendData(BackendData)}),
+     * they are kept back until the categories have been added. Log items are skipped.
+     *
+     * @param in       the reader providing the data, which is not closed
+     * @param provider the provider to be filled
+     * @throws IOException                        if the data could not be read or parsed
+     * @throws DataProvider.DataProviderException if the data could not be written to the provider
+     */
+    public static void importBackendData(Reader in, DataProvider provider) throws IOException, DataProvider.DataProviderException {
+        final JsonReader reader = new JsonReader(in);
+        final IOException[] failure = new IOException[1];
+        try {
+            provider.batch(new DataProvider.Batch() {
+                @Override
+                public void run(DataProvider provider) throws DataProvider.DataProviderException {
+                    try {
+                        readInto(reader, provider);
+                    } catch (IOException | JsonParseException e) {
+                        failure[0] = e instanceof IOException ? (IOException) e : new IOException("Backup could not be parsed!", e);
+                        throw new DataProvider.DataProviderException("Backup could not be read!", failure[0]);
+                    }
+                }
+            });
+        } catch (DataProvider.DataProviderException e) {
+            if (failure[0] != null)
+                throw failure[0];
+            throw e;
+        }
+    }
+
+    private static void readInto(JsonReader reader, DataProvider provider) throws IOException, DataProvider.DataProviderException {
         provider.reset();
+        boolean categoriesAdded = false;
+        List<Entry> heldBack = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (name.equals("categories")) {
+                reader.beginArray();
+                while (reader.hasNext())
+                    provider.addCategory(GsonAdapters.CATEGORY.read(reader));
+                reader.endArray();
+                categoriesAdded = true;
+                for (Entry e : heldBack)
+                    provider.addEntry(e);
+                heldBack = null;
+            } else if (name.equals("entries")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Entry e = GsonAdapters.ENTRY.read(reader);
+                    if (categoriesAdded)
+                        provider.addEntry(e);
+                    else
+                        heldBack.add(e);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!categoriesAdded)
+            for (Entry e : heldBack)
+                provider.addEntry(e);
+    }
+
+    /**
+     * Writes the categories and entries added, updated or removed after a sequence number of a
+     * provider implementing {@link DataChanges.Source} (possibly wrapped by a
+     * {@link DataProvider.Wrapper}) as JSON, so backups only need to copy the changed records:
+     * <pre>
+     * {"since": 0, "sequence": 0, "reset": false,
+     *  "removedEntries": [id...], "removedCategories": [name...], "categories": [...], "entries": [...]}
+     * </pre>
+     * If the provider was reset after the sequence number, "reset" is true and all its data is written.
+     * The output is read by {@link #importChanges(InputStream, DataProvider)}.
+     *
+     * @param provider the provider to be exported
+     * @param sequence the sequence number returned by the previous call, 0 for all data
+     * @param out      the stream the changes are written to as UTF-8, which is not closed
+     * @return the sequence number to pass to the next call
+     * @throws IOException                        if the changes could not be written
+     * @throws DataProvider.DataProviderException if the data could not be read from the provider
+     * @throws IllegalArgumentException           if the provider does not assign change sequence numbers
+     */
+    public static long exportSince(DataProvider provider, long sequence, OutputStream out) throws IOException, DataProvider.DataProviderException {
+        DataProvider source = provider;
+        while (!(source instanceof DataChanges.Source) && source instanceof DataProvider.Wrapper)
+            source = ((DataProvider.Wrapper) source).getDelegate();
+        if (!(source instanceof DataChanges.Source))
+            throw new IllegalArgumentException("The provider does not assign change sequence numbers");
+        DataChanges changes = ((DataChanges.Source) source).changesSince(sequence);
+
+        List<Category> categories = new ArrayList<>();
+        List<String> removedCategories = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        List<Long> removedEntries = new ArrayList<>();
+        if (changes.isReset()) {
+            categories = provider.getAllCategories();
+        } else {
+            for (String name : changes.getCategoryNames()) {
+                Category c = provider.getCategory(name);
+                if (c != null)
+                    categories.add(c);
+                else
+                    removedCategories.add(name);
+            }
+            for (long id : changes.getEntryIds()) {
+                Entry e = provider.getEntry(id);
+                if (e != null)
+                    entries.add(e);
+                else
+                    removedEntries.add(id);
+            }
+        }
+
+        Writer buffered = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+        JsonWriter writer = new JsonWriter(buffered);
+        writer.beginObject();
+        writer.name("since").value(changes.getSince());
+        writer.name("sequence").value(changes.getSequence());
+        writer.name("reset").value(changes.isReset());
+        writer.name("removedEntries").beginArray();
+        for (long id : removedEntries)
+            writer.value(id);
+        writer.endArray();
+        writer.name("removedCategories").beginArray();
+        for (String name : removedCategories)
+            writer.value(name);
+        writer.endArray();
+        writer.name("categories").beginArray();
         for (Category c : categories)
-            provider.addCategory(c);
-        for (Entry e : entries)
-            provider.addEntry(e);
+            GsonAdapters.CATEGORY.write(writer, c);
+        writer.endArray();
+        writer.name("entries").beginArray();
+        if (changes.isReset()) {
+            for (Category c : categories)
+                for (Entry e : provider.getAllEntries(c))
+                    GsonAdapters.ENTRY.write(writer, e);
+        } else {
+            for (Entry e : entries)
+                GsonAdapters.ENTRY.write(writer, e);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+        buffered.flush();
+        return changes.getSequence();
+    }
+
+    /**
+     * Applies changes written by {@link #exportSince(DataProvider, long, OutputStream)} to a
+     * provider within one batch: removed records are removed, changed ones are updated or added.
+     * Entries are matched by their id.
+     *
+     * @param in       the stream containing the changes, which is not closed
+     * @param provider the provider to be updated
+     * @return the sequence number of the applied changes
+     * @throws IOException                        if the changes could not be read or parsed
+     * @throws DataProvider.DataProviderException if the changes could not be written to the provider
+     */
+    public static long importChanges(InputStream in, DataProvider provider) throws IOException, DataProvider.DataProviderException {
+        final JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, UTF8)));
+        final IOException[] failure = new IOException[1];
+        final long[] sequence = new long[1];
+        try {
+            provider.batch(new DataProvider.Batch() {
+                @Override
+                public void run(DataProvider provider) throws DataProvider.DataProviderException {
+                    try {
+                        sequence[0] = applyChanges(reader, provider);
+                    } catch (IOException | JsonParseException | IllegalStateException | NumberFormatException e) {
+                        failure[0] = e instanceof IOException ? (IOException) e : new IOException("Changes could not be parsed!", e);
+                        throw new DataProvider.DataProviderException("Changes could not be read!", failure[0]);
+                    }
+                }
+            });
+        } catch (DataProvider.DataProviderException e) {
+            if (failure[0] != null)
+                throw failure[0];
+            throw e;
+        }
+        return sequence[0];
+    }
+
+    private static long applyChanges(JsonReader reader, DataProvider provider) throws IOException, DataProvider.DataProviderException {
+        long sequence = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("sequence")) {
+                sequence = reader.nextLong();
+            } else if (name.equals("reset")) {
+                if (reader.nextBoolean())
+                    provider.reset();
+            } else if (name.equals("removedEntries")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Entry e = provider.getEntry(reader.nextLong());
+                    if (e != null)
+                        provider.removeEntry(e);
+                }
+                reader.endArray();
+            } else if (name.equals("removedCategories")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String categoryName = reader.nextString();
+                    if (provider.getCategory(categoryName) != null)
+                        provider.removeCategory(categoryName);
+                }
+                reader.endArray();
+            } else if (name.equals("categories")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Category c = GsonAdapters.CATEGORY.read(reader);
+                    if (provider.getCategory(c.getName()) != null)
+                        provider.updateCategory(c);
+                    else
+                        provider.addCategory(c);
+                }
+                reader.endArray();
+            } else if (name.equals("entries")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Entry e = GsonAdapters.ENTRY.read(reader);
+                    Entry old = e.getId() != Entry.NO_ID ? provider.getEntry(e.getId()) : null;
+                    if (old != null)
+                        provider.updateEntry(old, e);
+                    else
+                        provider.addEntry(e);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return sequence;
+    }
+
+    public void fillDataProvider(DataProvider provider) throws DataProvider.DataProviderException {
+        provider.batch(new DataProvider.Batch() {
+            @Override
+            public void run(DataProvider provider) throws DataProvider.DataProviderException {
+                provider.reset();
+                for (Category c : categories)
+                    provider.addCategory(c);
+                for (Entry e : entries)
+                    provider.addEntry(e);
+            }
+        });
     }
 
     public static BackendData fromBackend(DataProvider dataProvider, BudgetChangedListener listener) throws DataProvider.DataProviderException {
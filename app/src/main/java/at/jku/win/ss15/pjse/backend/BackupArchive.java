@@ -0,0 +1,553 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A backup container splitting the data of a provider into chunks which are compressed
+ * independently, so they can be compressed and restored in parallel: the categories, the entries
+ * of each category in chunks of at most {@link #DEFAULT_CHUNK_SIZE} records and the log items.
+ * Each chunk holds a stream of {@link BinaryRecordCodec} records compressed by a {@link Deflater}.
+ * <p>
+ * Chunks are written and read in order while up to {@link #MAX_PENDING_CHUNKS} of them are being
+ * compressed or decompressed. While reading, the chunks in flight are also limited to
+ * {@link #MAX_PENDING_LENGTH} bytes, and a chunk may announce at most {@link #DEFAULT_CHUNK_SIZE}
+ * records of {@link #MAX_RECORD_LENGTH} bytes on average, which bounds the memory used. A manifest
+ * listing the offset, sizes and checksum of every chunk follows the last one, so the chunks of a
+ * file can be located without reading it entirely (see {@link #readManifest(File)}).
+ * <p>
+ * Layout: {@code MAGIC | version (byte) | chunk... | manifest | manifest offset (long) | MAGIC},
+ * where a chunk is {@code CHUNK (byte) | name (UTF) | records (int) | length (int) | crc32 of the
+ * uncompressed data (int) | compressed length (int) | compressed data} and the manifest is
+ * {@code MANIFEST (byte) | count (int) | (name (UTF) | offset (long) | records (int) | length (int) |
+ * crc32 (int) | compressed length (int))...}.
+ */
+public final class BackupArchive {
+
+    public static final byte[] MAGIC = {'P', 'J', 'S', 'C'};
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    public static final int MAX_PENDING_CHUNKS = 2 * Runtime.getRuntime().availableProcessors();
+    /**
+     * The maximum average length of the records of a chunk. Chunks announcing a longer
+     * uncompressed length than their records allow are rejected, so a corrupted header
+     * cannot cause an arbitrarily large allocation.
+     */
+    public static final int MAX_RECORD_LENGTH = 16 * 1024;
+    /**
+     * The maximum uncompressed length of the chunks being decompressed at the same time,
+     * unless a single chunk is longer.
+     */
+    public static final int MAX_PENDING_LENGTH = 32 * 1024 * 1024;
+
+    private static final int CHUNK = 1;
+    private static final int MANIFEST = 2;
+    private static final int TRAILER_SIZE = 8 + 4;
+    private static final int MAX_MANIFEST_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Describes a chunk of an archive
+     */
+    public static class ChunkInfo {
+        private final String name;
+        private final long offset;
+        private final int records;
+        private final int length;
+        private final int crc;
+        private final int compressedLength;
+
+        ChunkInfo(String name, long offset, int records, int length, int crc, int compressedLength) {
+            this.name = name;
+            this.offset = offset;
+            this.records = records;
+            this.length = length;
+            this.crc = crc;
+            this.compressedLength = compressedLength;
+        }
+
+        /**
+         * @return "categories", "entries/" followed by the category name or "log"
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the offset of the chunk's header within the archive
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        /**
+         * @return the size of the uncompressed data
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the CRC-32 of the uncompressed data
+         */
+        public int getCrc() {
+            return crc;
+        }
+
+        public int getCompressedLength() {
+            return compressedLength;
+        }
+
+        @Override
+        public String toString() {
+            return name + " @" + offset + ": " + records + " records, " + length + " -> " + compressedLength + " bytes";
+        }
+    }
+
+    /**
+     * A compressed chunk
+     */
+    private static class Chunk {
+        final String name;
+        final int records;
+        final int length;
+        final int crc;
+        final byte[] data;
+
+        Chunk(String name, int records, int length, int crc, byte[] data) {
+            this.name = name;
+            this.records = records;
+            this.length = length;
+            this.crc = crc;
+            this.data = data;
+        }
+    }
+
+    private BackupArchive() {
+    }
+
+    /**
+     * Exports a provider like {@link #export(DataProvider, BudgetChangedListener, OutputStream, Executor)},
+     * compressing the chunks on a pool with one thread per processor.
+     */
+    public static void export(DataProvider provider, BudgetChangedListener listener, OutputStream out) throws IOException, DataProvider.DataProviderException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            export(provider, listener, out, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the data of a provider as an archive. The records are read from the provider on the
+     * calling thread, while the chunks are encoded and compressed by the executor.
+     *
+     * @param provider the provider to be exported
+     * @param listener the listener providing the log items, may be NULL
+     * @param out      the stream the archive is written to, which is not closed
+     * @param executor the executor compressing the chunks
+     * @throws IOException                        if the archive could not be written
+     * @throws DataProvider.DataProviderException if the data could not be read from the provider
+     */
+    public static void export(DataProvider provider, BudgetChangedListener listener, OutputStream out, Executor executor) throws IOException, DataProvider.DataProviderException {
+        ArchiveWriter writer = new ArchiveWriter(new BufferedOutputStream(out), executor);
+        List<Category> categories = provider.getAllCategories();
+        for (int i = 0; i < categories.size() || i == 0; i += DEFAULT_CHUNK_SIZE)
+            writer.add("categories", new ArrayList<Object>(categories.subList(i, Math.min(categories.size(), i + DEFAULT_CHUNK_SIZE))));
+        for (Category c : categories) {
+            List<Entry> entries = provider.getAllEntries(c);
+            for (int i = 0; i < entries.size(); i += DEFAULT_CHUNK_SIZE)
+                writer.add("entries/" + c.getName(), new ArrayList<Object>(entries.subList(i, Math.min(entries.size(), i + DEFAULT_CHUNK_SIZE))));
+        }
+        try {
+            if (listener != null) {
+                List<BudgetChangedListener.LogItem> items = listener.getAllChanges();
+                for (int i = 0; i < items.size(); i += DEFAULT_CHUNK_SIZE)
+                    writer.add("log", new ArrayList<Object>(items.subList(i, Math.min(items.size(), i + DEFAULT_CHUNK_SIZE))));
+            }
+        } catch (UnsupportedOperationException ignored) {
+        }
+        writer.finish();
+    }
+
+    /**
+     * Reads an archive into a provider like {@link #importInto(InputStream, DataProvider, Executor)},
+     * decompressing the chunks on a pool with one thread per processor.
+     */
+    public static void importInto(InputStream in, DataProvider provider) throws IOException, DataProvider.DataProviderException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            importInto(in, provider, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads an archive into a provider, replacing its content, all within one batch. The chunks
+     * are decompressed, verified and decoded by the executor, while their records are written to
+     * the provider on the calling thread in the order of the archive. Log items are skipped.
+     *
+     * @param in       the stream containing the archive, which is not closed
+     * @param provider the provider to be filled
+     * @param executor the executor decompressing the chunks
+     * @throws IOException                        if the archive could not be read or is corrupted
+     * @throws DataProvider.DataProviderException if the data could not be written to the provider
+     */
+    public static void importInto(InputStream in, DataProvider provider, final Executor executor) throws IOException, DataProvider.DataProviderException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        readHeader(data);
+        final IOException[] failure = new IOException[1];
+        try {
+            provider.batch(new DataProvider.Batch() {
+                @Override
+                public void run(DataProvider provider) throws DataProvider.DataProviderException {
+                    provider.reset();
+                    try {
+                        readChunks(data, provider, executor);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        throw new DataProvider.DataProviderException("Backup could not be read!", e);
+                    }
+                }
+            });
+        } catch (DataProvider.DataProviderException e) {
+            if (failure[0] != null)
+                throw failure[0];
+            throw e;
+        }
+    }
+
+    /**
+     * @param file an archive
+     * @return the chunks of the archive as listed by its manifest
+     * @throws IOException if the file could not be read or is not a complete archive
+     */
+    public static List<ChunkInfo> readManifest(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < MAGIC.length + 1 + TRAILER_SIZE)
+                throw new IOException("Not a complete archive");
+            raf.seek(length - TRAILER_SIZE);
+            long offset = raf.readLong();
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || offset < MAGIC.length + 1 || offset >= length - TRAILER_SIZE)
+                throw new IOException("Not a complete archive");
+            if (length - TRAILER_SIZE - offset > MAX_MANIFEST_LENGTH)
+                throw new IOException("Malformed manifest");
+            byte[] manifest = new byte[(int) (length - TRAILER_SIZE - offset)];
+            raf.seek(offset);
+            raf.readFully(manifest);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(manifest));
+            if (in.readByte() != MANIFEST)
+                throw new IOException("Manifest not found");
+            return readManifestBody(in);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return true if the data starts like an archive
+     */
+    public static boolean isArchive(byte[] head) {
+        return head.length >= MAGIC.length && Arrays.equals(Arrays.copyOf(head, MAGIC.length), MAGIC);
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a backup archive");
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported archive version " + version);
+    }
+
+    private static List<ChunkInfo> readManifestBody(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0)
+            throw new IOException("Malformed manifest");
+        List<ChunkInfo> chunks = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++)
+            chunks.add(new ChunkInfo(in.readUTF(), in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        return Collections.unmodifiableList(chunks);
+    }
+
+    private static void readChunks(DataInputStream in, DataProvider provider, Executor executor) throws IOException, DataProvider.DataProviderException {
+        Deque<PendingChunk> pending = new ArrayDeque<>();
+        long pendingLength = 0;
+        int chunks = 0;
+        try {
+            while (true) {
+                int type = in.readUnsignedByte();
+                if (type == MANIFEST) {
+                    if (readManifestBody(in).size() != chunks)
+                        throw new IOException("Manifest does not match the chunks");
+                    break;
+                }
+                if (type != CHUNK)
+                    throw new IOException("Unknown chunk type " + type);
+                final String name = in.readUTF();
+                final int records = in.readInt(), length = in.readInt(), crc = in.readInt(), compressedLength = in.readInt();
+                if (records < 0 || records > DEFAULT_CHUNK_SIZE || length < 0 || length > maxChunkLength(records)
+                        || compressedLength < 0 || compressedLength > maxCompressedLength(length))
+                    throw new IOException("Malformed chunk " + name);
+                // earlier chunks are applied first if this one would exceed the limits
+                long size = (long) length + compressedLength;
+                while (!pending.isEmpty() && (pending.size() >= MAX_PENDING_CHUNKS || pendingLength + size > MAX_PENDING_LENGTH)) {
+                    PendingChunk first = pending.removeFirst();
+                    pendingLength -= first.size;
+                    apply(get(first), provider);
+                }
+                final byte[] compressed = new byte[compressedLength];
+                in.readFully(compressed);
+                PendingChunk task = new PendingChunk(size, new Callable<List<Object>>() {
+                    @Override
+                    public List<Object> call() throws IOException {
+                        return decode(name, records, inflate(name, compressed, length, crc));
+                    }
+                });
+                pending.addLast(task);
+                pendingLength += size;
+                executor.execute(task);
+                chunks++;
+            }
+            while (!pending.isEmpty())
+                apply(get(pending.removeFirst()), provider);
+        } catch (EOFException e) {
+            throw new IOException("Archive is truncated", e);
+        } finally {
+            for (FutureTask<List<Object>> task : pending)
+                task.cancel(true);
+        }
+    }
+
+    /**
+     * A chunk being decompressed, which holds about {@code size} bytes until it has been applied
+     */
+    private static class PendingChunk extends FutureTask<List<Object>> {
+        final long size;
+
+        PendingChunk(long size, Callable<List<Object>> callable) {
+            super(callable);
+            this.size = size;
+        }
+    }
+
+    private static void apply(List<Object> records, DataProvider provider) throws DataProvider.DataProviderException {
+        for (Object record : records) {
+            if (record instanceof Category)
+                provider.addCategory((Category) record);
+            else if (record instanceof Entry)
+                provider.addEntry((Entry) record);
+        }
+    }
+
+    private static <T> T get(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Processing of the archive was interrupted!", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return the maximum uncompressed length of a chunk holding the given number of records,
+     * including the header of the record stream
+     */
+    static int maxChunkLength(int records) {
+        return BinaryRecordCodec.MAGIC.length + 1 + records * MAX_RECORD_LENGTH;
+    }
+
+    /**
+     * @return an upper bound of the length of deflated data, which adds a few bytes per stored block at worst
+     */
+    private static int maxCompressedLength(int length) {
+        return length + (length >> 10) + 64;
+    }
+
+    private static byte[] inflate(String name, byte[] compressed, int length, int crc) throws IOException {
+        Inflater inflater = new Inflater();
+        byte[] data = new byte[length];
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < length) {
+                int read = inflater.inflate(data, n, length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Chunk " + name + " is truncated");
+                n += read;
+            }
+            if (!inflater.finished() && inflater.inflate(new byte[1]) > 0)
+                throw new IOException("Chunk " + name + " is longer than announced");
+        } catch (DataFormatException e) {
+            throw new IOException("Chunk " + name + " is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        if ((int) crc32.getValue() != crc)
+            throw new IOException("Checksum of chunk " + name + " does not match");
+        return data;
+    }
+
+    private static List<Object> decode(String name, int records, byte[] data) throws IOException {
+        BinaryRecordCodec.RecordReader reader = new BinaryRecordCodec.RecordReader(new ByteArrayInputStream(data));
+        List<Object> result = new ArrayList<>(Math.min(records, DEFAULT_CHUNK_SIZE));
+        for (Object record = reader.read(); record != null; record = reader.read())
+            result.add(record);
+        if (result.size() != records)
+            throw new IOException("Chunk " + name + " holds " + result.size() + " instead of " + records + " records");
+        return result;
+    }
+
+    /**
+     * Writes the chunks in the order they were added, while they are compressed by the executor
+     */
+    private static class ArchiveWriter {
+        private final DataOutputStream out;
+        private final OutputStream target;
+        private final Executor executor;
+        private final Deque<FutureTask<Chunk>> pending = new ArrayDeque<>();
+        private final List<ChunkInfo> manifest = new ArrayList<>();
+        private long offset;
+
+        ArchiveWriter(OutputStream target, Executor executor) throws IOException {
+            this.target = target;
+            this.out = new DataOutputStream(target);
+            this.executor = executor;
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            offset = MAGIC.length + 1;
+        }
+
+        void add(final String name, final List<Object> records) throws IOException {
+            FutureTask<Chunk> task = new FutureTask<>(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws IOException {
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    BinaryRecordCodec.RecordWriter writer = new BinaryRecordCodec.RecordWriter(data);
+                    for (Object record : records)
+                        writer.write(record);
+                    byte[] raw = data.toByteArray();
+                    if (raw.length > maxChunkLength(records.size()))
+                        throw new IOException("Records of chunk " + name + " exceed " + MAX_RECORD_LENGTH + " bytes on average");
+                    CRC32 crc32 = new CRC32();
+                    crc32.update(raw);
+                    return new Chunk(name, records.size(), raw.length, (int) crc32.getValue(), deflate(raw));
+                }
+            });
+            pending.addLast(task);
+            try {
+                executor.execute(task);
+                if (pending.size() >= MAX_PENDING_CHUNKS)
+                    write(get(pending.removeFirst()));
+            } catch (IOException | RuntimeException e) {
+                cancel();
+                throw e;
+            }
+        }
+
+        private void write(Chunk chunk) throws IOException {
+            manifest.add(new ChunkInfo(chunk.name, offset, chunk.records, chunk.length, chunk.crc, chunk.data.length));
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream h = new DataOutputStream(header);
+            h.writeByte(CHUNK);
+            h.writeUTF(chunk.name);
+            h.writeInt(chunk.records);
+            h.writeInt(chunk.length);
+            h.writeInt(chunk.crc);
+            h.writeInt(chunk.data.length);
+            header.writeTo(out);
+            out.write(chunk.data);
+            offset += header.size() + chunk.data.length;
+        }
+
+        private void cancel() {
+            for (FutureTask<Chunk> task : pending)
+                task.cancel(true);
+            pending.clear();
+        }
+
+        void finish() throws IOException {
+            try {
+                while (!pending.isEmpty())
+                    write(get(pending.removeFirst()));
+            } catch (IOException | RuntimeException e) {
+                cancel();
+                throw e;
+            }
+            long manifestOffset = offset;
+            out.writeByte(MANIFEST);
+            out.writeInt(manifest.size());
+            for (ChunkInfo c : manifest) {
+                out.writeUTF(c.name);
+                out.writeLong(c.offset);
+                out.writeInt(c.records);
+                out.writeInt(c.length);
+                out.writeInt(c.crc);
+                out.writeInt(c.compressedLength);
+            }
+            out.writeLong(manifestOffset);
+            out.write(MAGIC);
+            out.flush();
+            target.flush();
+        }
+    }
+}
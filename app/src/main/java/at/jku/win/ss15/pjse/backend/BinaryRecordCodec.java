@@ -0,0 +1,451 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary representation of {@link Entry}, {@link Category} and
+ * {@link BudgetChangedListener.LogItem} records.
+ * <ul>
+ * <li>Integers are written as variable length quantities, signed ones zigzag encoded.</li>
+ * <li>Points in time are written as milliseconds since the epoch.</li>
+ * <li>A {@link BigDecimal} is written as its scale and unscaled value, which falls back
+ * to the two's-complement bytes if it does not fit into a {@code long}.</li>
+ * <li>Optional fields are announced by a bitmap in front of the record.</li>
+ * <li>Category names are written once per stream and referenced by their number afterwards.</li>
+ * </ul>
+ * A single record starts with the {@link #VERSION} byte, while a stream written by a
+ * {@link RecordWriter} starts with {@link #MAGIC} followed by the version.
+ */
+public final class BinaryRecordCodec {
+
+    /**
+     * The version of the format. Its value cannot be the first byte of a JSON document.
+     */
+    public static final int VERSION = 0xB1;
+    public static final byte[] MAGIC = {'P', 'J', 'S', 'B'};
+
+    static final int TYPE_CATEGORY = 1;
+    static final int TYPE_ENTRY = 2;
+    static final int TYPE_LOG_ITEM = 3;
+
+    private static final int HAS_PURPOSE = 1;
+    private static final int HAS_LOCATION = 1 << 1;
+    private static final int HAS_END_TIME = 1 << 2;
+    private static final int HAS_INTERVAL_END_TIME = 1 << 3;
+    private static final int HAS_PARENT = 1 << 4;
+    private static final int HAS_ID = 1 << 5;
+
+    private static final int HAS_BUDGET = 1;
+
+    private static final int HAS_DATE = 1;
+    private static final int HAS_CATEGORY = 1 << 1;
+    private static final int HAS_BUGGET = 1 << 2;
+    private static final int HAS_PREVIOUS_BUDGET = 1 << 3;
+
+    /**
+     * The maximum length of a string or an unscaled value in bytes. Longer ones are rejected,
+     * so a corrupted length prefix cannot cause an arbitrarily large allocation.
+     */
+    static final int MAX_LENGTH = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Entry.IntervalType[] INTERVAL_TYPES = Entry.IntervalType.values();
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private BinaryRecordCodec() {
+    }
+
+    /**
+     * Encodes a single record.
+     *
+     * @param record an {@link Entry}, {@link Category} or {@link BudgetChangedListener.LogItem}
+     * @return the encoded record
+     * @throws IOException if the record is of an unsupported type
+     */
+    public static byte[] encode(Object record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        new RecordWriter(out, false).write(record);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a single record created by {@link #encode(Object)}.
+     *
+     * @param data  the encoded record
+     * @param tClass the expected type of the record
+     * @return the decoded record
+     * @throws IOException if the data is malformed or contains a record of another type
+     */
+    public static <T> T decode(byte[] data, Class<T> tClass) throws IOException {
+        InputStream in = new ByteArrayInputStream(data);
+        int version = in.read();
+        if (version != VERSION)
+            throw new IOException("Unsupported record version " + version);
+        Object record = new RecordReader(in, false).read();
+        if (!tClass.isInstance(record))
+            throw new IOException("Expected " + tClass.getSimpleName() + " but found " + record);
+        return tClass.cast(record);
+    }
+
+    /**
+     * Writes a sequence of records to a stream. Category names are kept in a dictionary
+     * shared by all records of the stream.
+     */
+    public static class RecordWriter {
+        private final OutputStream out;
+        private final Map<String, Integer> names = new HashMap<>();
+
+        /**
+         * Writes the stream header and prepares writing records.
+         *
+         * @param out the stream to be written to, which should be buffered
+         * @throws IOException if the header could not be written
+         */
+        public RecordWriter(OutputStream out) throws IOException {
+            this(out, true);
+        }
+
+        private RecordWriter(OutputStream out, boolean header) throws IOException {
+            this.out = out;
+            if (header) {
+                out.write(MAGIC);
+                out.write(VERSION);
+            }
+        }
+
+        /**
+         * @param record an {@link Entry}, {@link Category} or {@link BudgetChangedListener.LogItem}
+         * @throws IOException if the record could not be written or is of an unsupported type
+         */
+        public void write(Object record) throws IOException {
+            if (record instanceof Entry) {
+                out.write(TYPE_ENTRY);
+                writeEntry((Entry) record);
+            } else if (record instanceof Category) {
+                out.write(TYPE_CATEGORY);
+                writeCategory((Category) record);
+            } else if (record instanceof BudgetChangedListener.LogItem) {
+                out.write(TYPE_LOG_ITEM);
+                writeLogItem((BudgetChangedListener.LogItem) record);
+            } else
+                throw new IOException("Unsupported record " + record);
+        }
+
+        private void writeEntry(Entry e) throws IOException {
+            int flags = 0;
+            if (e.getPurpose() != null)
+                flags |= HAS_PURPOSE;
+            if (e.getLocLat() != null && e.getLocLng() != null)
+                flags |= HAS_LOCATION;
+            if (e.getEndTimeMillis() != Entry.NO_TIME)
+                flags |= HAS_END_TIME;
+            if (e.getIntervalEndTimeMillis() != Entry.NO_TIME)
+                flags |= HAS_INTERVAL_END_TIME;
+            if (e.getParent() != null)
+                flags |= HAS_PARENT;
+            if (e.getId() != Entry.NO_ID)
+                flags |= HAS_ID;
+            writeVarLong(out, flags);
+            writeDecimal(e.getValue());
+            writeSignedVarLong(out, e.getStartTimeMillis());
+            writeName(e.getCategoryName());
+            out.write(e.getIntervalType().ordinal());
+            writeSignedVarLong(out, e.getInterval());
+            if ((flags & HAS_PURPOSE) != 0)
+                writeString(out, e.getPurpose());
+            if ((flags & HAS_LOCATION) != 0) {
+                writeInt(out, Float.floatToIntBits(e.getLocLat()));
+                writeInt(out, Float.floatToIntBits(e.getLocLng()));
+            }
+            if ((flags & HAS_END_TIME) != 0)
+                writeSignedVarLong(out, e.getEndTimeMillis());
+            if ((flags & HAS_INTERVAL_END_TIME) != 0)
+                writeSignedVarLong(out, e.getIntervalEndTimeMillis());
+            if ((flags & HAS_ID) != 0)
+                writeSignedVarLong(out, e.getId());
+            if ((flags & HAS_PARENT) != 0)
+                writeEntry(e.getParent());
+        }
+
+        private void writeCategory(Category c) throws IOException {
+            writeVarLong(out, c.getBudget() != null ? HAS_BUDGET : 0);
+            writeName(c.getName());
+            out.write(c.getCurrency().ordinal());
+            if (c.getBudget() != null)
+                writeDecimal(c.getBudget());
+        }
+
+        private void writeLogItem(BudgetChangedListener.LogItem item) throws IOException {
+            int flags = 0;
+            if (item.getDate() != null)
+                flags |= HAS_DATE;
+            if (item.getCategoryName() != null)
+                flags |= HAS_CATEGORY;
+            if (item.getBugget() != null)
+                flags |= HAS_BUGGET;
+            if (item.getPreviousBudget() != null)
+                flags |= HAS_PREVIOUS_BUDGET;
+            writeVarLong(out, flags);
+            if ((flags & HAS_DATE) != 0)
+                writeSignedVarLong(out, item.getDate().getTime());
+            if ((flags & HAS_CATEGORY) != 0)
+                writeName(item.getCategoryName());
+            if ((flags & HAS_BUGGET) != 0)
+                writeDecimal(item.getBugget());
+            if ((flags & HAS_PREVIOUS_BUDGET) != 0)
+                writeDecimal(item.getPreviousBudget());
+        }
+
+        /**
+         * Writes {@code 0} followed by the name the first time, its number (starting at 1) afterwards.
+         */
+        private void writeName(String name) throws IOException {
+            Integer number = names.get(name);
+            if (number != null) {
+                writeVarLong(out, number);
+                return;
+            }
+            writeVarLong(out, 0);
+            writeString(out, name);
+            names.put(name, names.size() + 1);
+        }
+
+        private void writeDecimal(BigDecimal d) throws IOException {
+            BigInteger unscaled = d.unscaledValue();
+            boolean big = unscaled.bitLength() > 63;
+            writeSignedVarLong(out, ((long) d.scale() << 1) | (big ? 1 : 0));
+            if (big) {
+                byte[] bytes = unscaled.toByteArray();
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            } else
+                writeSignedVarLong(out, unscaled.longValue());
+        }
+    }
+
+    /**
+     * Reads a sequence of records written by a {@link RecordWriter}.
+     */
+    public static class RecordReader {
+        private final InputStream in;
+        private final List<String> names = new ArrayList<>();
+
+        /**
+         * Checks the stream header and prepares reading records.
+         *
+         * @param in the stream to be read from, which should be buffered
+         * @throws IOException if the header is missing or of an unsupported version
+         */
+        public RecordReader(InputStream in) throws IOException {
+            this(in, true);
+        }
+
+        private RecordReader(InputStream in, boolean header) throws IOException {
+            this.in = in;
+            if (header) {
+                for (byte b : MAGIC)
+                    if (in.read() != b)
+                        throw new IOException("Not a binary record stream");
+                int version = in.read();
+                if (version != VERSION)
+                    throw new IOException("Unsupported record version " + version);
+            }
+        }
+
+        /**
+         * @return the next record or {@code null} at the end of the stream
+         * @throws IOException if the record could not be read or is malformed
+         */
+        public Object read() throws IOException {
+            int type = in.read();
+            switch (type) {
+                case -1:
+                    return null;
+                case TYPE_ENTRY:
+                    return readEntry();
+                case TYPE_CATEGORY:
+                    return readCategory();
+                case TYPE_LOG_ITEM:
+                    return readLogItem();
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        }
+
+        private Entry readEntry() throws IOException {
+            int flags = (int) readVarLong(in);
+            BigDecimal value = readDecimal();
+            long startTime = readSignedVarLong(in);
+            Entry.Builder b = new Entry.Builder(value, startTime, readName());
+            int type = readByte(in);
+            if (type >= INTERVAL_TYPES.length)
+                throw new IOException("Unknown interval type " + type);
+            int interval = (int) readSignedVarLong(in);
+            if ((flags & HAS_PURPOSE) != 0)
+                b.setPurpose(readString(in));
+            if ((flags & HAS_LOCATION) != 0) {
+                Float lat = Float.intBitsToFloat(readInt(in));
+                Float lng = Float.intBitsToFloat(readInt(in));
+                b.setLngLat(lng, lat);
+            }
+            if ((flags & HAS_END_TIME) != 0)
+                b.setEndTime(readSignedVarLong(in));
+            long intervalEndTime = (flags & HAS_INTERVAL_END_TIME) != 0 ? readSignedVarLong(in) : Entry.NO_TIME;
+            try {
+                b.setInterval(INTERVAL_TYPES[type], interval, intervalEndTime);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e);
+            }
+            if ((flags & HAS_ID) != 0)
+                b.setId(readSignedVarLong(in));
+            if ((flags & HAS_PARENT) != 0)
+                b.setParent(readEntry());
+            return b.build();
+        }
+
+        private Category readCategory() throws IOException {
+            int flags = (int) readVarLong(in);
+            String name = readName();
+            int currency = readByte(in);
+            if (currency >= CURRENCIES.length)
+                throw new IOException("Unknown currency " + currency);
+            Category c = new Category(name, CURRENCIES[currency]);
+            if ((flags & HAS_BUDGET) != 0)
+                c.setBudget(readDecimal());
+            return c;
+        }
+
+        private BudgetChangedListener.LogItem readLogItem() throws IOException {
+            int flags = (int) readVarLong(in);
+            BudgetChangedListener.LogItem item = new BudgetChangedListener.LogItem();
+            if ((flags & HAS_DATE) != 0)
+                item.setDate(new Date(readSignedVarLong(in)));
+            if ((flags & HAS_CATEGORY) != 0)
+                item.setCategoryName(readName());
+            if ((flags & HAS_BUGGET) != 0)
+                item.setBugget(readDecimal());
+            if ((flags & HAS_PREVIOUS_BUDGET) != 0)
+                item.setPreviousBudget(readDecimal());
+            return item;
+        }
+
+        private String readName() throws IOException {
+            int number = (int) readVarLong(in);
+            if (number == 0) {
+                String name = readString(in);
+                names.add(name);
+                return name;
+            }
+            if (number > names.size())
+                throw new IOException("Unknown name reference " + number);
+            return names.get(number - 1);
+        }
+
+        private BigDecimal readDecimal() throws IOException {
+            long header = readSignedVarLong(in);
+            int scale = (int) (header >> 1);
+            if ((header & 1) != 0) {
+                byte[] bytes = new byte[readLength(in)];
+                readFully(in, bytes);
+                return new BigDecimal(new BigInteger(bytes), scale);
+            }
+            return BigDecimal.valueOf(readSignedVarLong(in), scale);
+        }
+    }
+
+    // ---- primitives ----
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void writeSignedVarLong(OutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed variable length quantity");
+    }
+
+    static long readSignedVarLong(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static int readInt(InputStream in) throws IOException {
+        return (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+    }
+
+    static void writeString(OutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        if (bytes.length > MAX_LENGTH)
+            throw new IOException("String exceeds " + MAX_LENGTH + " bytes");
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @return a length prefix, which is at most {@link #MAX_LENGTH}
+     */
+    static int readLength(InputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > MAX_LENGTH)
+            throw new IOException("Malformed length " + length);
+        return (int) length;
+    }
+
+    static String readString(InputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        readFully(in, bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException();
+        return b;
+    }
+
+    static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0)
+                throw new EOFException();
+            read += n;
+        }
+    }
+}
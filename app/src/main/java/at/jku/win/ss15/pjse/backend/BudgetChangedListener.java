@@ -23,10 +23,24 @@ public interface BudgetChangedListener {
 
     List<LogItem> getAllChanges() throws UnsupportedOperationException;
 
+    /**
+     * Returns the changes within a time span, ordered by their time. Changes sharing the time of
+     * the last change returned are returned as well, even beyond the limit, so the next page can be
+     * fetched by querying again starting one millisecond after the last change returned.
+     *
+     * @param c     the name of the category or NULL for all categories
+     * @param from  the beginning of the time span, inclusive, or NULL for no limit
+     * @param to    the ending of the time span, inclusive, or NULL for no limit
+     * @param limit the maximum number of changes returned
+     * @return the first changes within the time span
+     */
+    List<LogItem> getChanges(String c, Date from, Date to, int limit) throws UnsupportedOperationException;
+
     public static class LogItem implements Serializable {
         private Date date;
         private String categoryName;
         private BigDecimal bugget;
+        private BigDecimal previousBudget;
 
         public Date getDate() {
             return date;
@@ -52,6 +66,17 @@ public interface BudgetChangedListener {
             this.bugget = bugget;
         }
 
+        /**
+         * @return the budget before the change or NULL if unknown
+         */
+        public BigDecimal getPreviousBudget() {
+            return previousBudget;
+        }
+
+        public void setPreviousBudget(BigDecimal previousBudget) {
+            this.previousBudget = previousBudget;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -64,6 +89,8 @@ public interface BudgetChangedListener {
             if (categoryName != null ? !categoryName.equals(logItem.categoryName) : logItem.categoryName != null)
                 return false;
             if (date != null ? !date.equals(logItem.date) : logItem.date != null) return false;
+            if (previousBudget != null ? !previousBudget.equals(logItem.previousBudget) : logItem.previousBudget != null)
+                return false;
 
             return true;
         }
@@ -73,6 +100,7 @@ public interface BudgetChangedListener {
             int result = date != null ? date.hashCode() : 0;
             result = 31 * result + (categoryName != null ? categoryName.hashCode() : 0);
             result = 31 * result + (bugget != null ? bugget.hashCode() : 0);
+            result = 31 * result + (previousBudget != null ? previousBudget.hashCode() : 0);
             return result;
         }
     }
@@ -0,0 +1,117 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers which budget a {@link Category} had at a certain point in time. The changes of each
+ * category are sorted by time once, so a lookup is a binary search.
+ */
+public class BudgetHistory {
+
+    private static final Comparator<BudgetChangedListener.LogItem> BY_DATE = new Comparator<BudgetChangedListener.LogItem>() {
+        @Override
+        public int compare(BudgetChangedListener.LogItem lhs, BudgetChangedListener.LogItem rhs) {
+            return lhs.getDate().compareTo(rhs.getDate());
+        }
+    };
+
+    /**
+     * The changes of one category: their times and the budgets set by them
+     */
+    private static class Changes {
+        final long[] times;
+        final BigDecimal[] budgets;
+        final BigDecimal initial;
+
+        Changes(List<BudgetChangedListener.LogItem> items) {
+            Collections.sort(items, BY_DATE);
+            times = new long[items.size()];
+            budgets = new BigDecimal[items.size()];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = items.get(i).getDate().getTime();
+                budgets[i] = items.get(i).getBugget();
+            }
+            initial = items.get(0).getPreviousBudget();
+        }
+
+        /**
+         * @return the index of the last change at or before the given time, -1 if there is none
+         */
+        int lastAtOrBefore(long time) {
+            int low = 0, high = times.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low - 1;
+        }
+    }
+
+    private final Map<String, Changes> changes = new HashMap<>();
+
+    /**
+     * @param items the budget changes of any categories in any order, items without category or date are ignored
+     */
+    public BudgetHistory(Iterable<BudgetChangedListener.LogItem> items) {
+        Map<String, List<BudgetChangedListener.LogItem>> byCategory = new HashMap<>();
+        for (BudgetChangedListener.LogItem item : items) {
+            if (item.getCategoryName() == null || item.getDate() == null)
+                continue;
+            List<BudgetChangedListener.LogItem> list = byCategory.get(item.getCategoryName());
+            if (list == null)
+                byCategory.put(item.getCategoryName(), list = new ArrayList<>());
+            list.add(item);
+        }
+        for (Map.Entry<String, List<BudgetChangedListener.LogItem>> e : byCategory.entrySet())
+            changes.put(e.getKey(), new Changes(e.getValue()));
+    }
+
+    /**
+     * @param listener the listener whose changes are read once
+     * @return the history of all changes recorded by the listener
+     */
+    public static BudgetHistory of(BudgetChangedListener listener) {
+        return new BudgetHistory(listener.getAllChanges());
+    }
+
+    /**
+     * Returns the budget in force at a certain time: the budget set by the last change at or before
+     * that time. Before the first change it is the budget replaced by the first change, which is NULL
+     * if the category had no budget before. Only for categories without changes it is the current budget.
+     *
+     * @param c    the category
+     * @param time the point in time
+     * @return the budget at the given time, NULL if the category had no budget
+     */
+    public BigDecimal budgetAsOf(Category c, Date time) {
+        Changes list = changes.get(c.getName());
+        if (list == null)
+            return c.getBudget();
+        int i = list.lastAtOrBefore(time.getTime());
+        if (i >= 0)
+            return list.budgets[i];
+        return list.initial;
+    }
+
+    /**
+     * @param c    the category
+     * @param time the point in time
+     * @return a copy of the category with the budget in force at the given time
+     * @see #budgetAsOf(Category, Date)
+     */
+    public Category asOf(Category c, Date time) {
+        Category copy = new Category(c.getName(), c.getCurrency());
+        copy.setBudget(budgetAsOf(c, time));
+        return copy;
+    }
+}
@@ -0,0 +1,194 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Materialized totals of the entries' values per category and day as well as per category and month.
+ * The totals are maintained incrementally by {@link #add(Entry)} and {@link #remove(Entry)}.
+ * Repeating entries contribute all their occurrences up to a fixed horizon.
+ * <p>
+ * Sums over time spans which start at the beginning of a day and end at the end of a day
+ * (i.e. one millisecond before midnight) can be answered directly from these totals.
+ */
+public class BudgetRollups {
+
+    /**
+     * Implemented by {@link DataProvider}s maintaining {@code BudgetRollups}.
+     */
+    public interface Source {
+        /**
+         * Sums up the values of all occurrences of a category's entries within a certain time span.
+         *
+         * @param categoryName the name of the category
+         * @param from         the date defining the beginning of the time span, inclusive
+         * @param to           the date defining the ending of the time span, inclusive
+         * @return the total or {@code null} if the time span cannot be answered from the rollups
+         * @throws DataProvider.DataProviderException if the category's entries could not be loaded
+         */
+        BigDecimal rolledUpSum(String categoryName, Date from, Date to) throws DataProvider.DataProviderException;
+    }
+
+    private static class Totals {
+        final TreeMap<Integer, BigDecimal> days = new TreeMap<>();
+        final TreeMap<Integer, BigDecimal> months = new TreeMap<>();
+    }
+
+    private final Map<String, Totals> totals = new HashMap<>();
+    private final Date horizon;
+    private final Calendar calendar = Calendar.getInstance();
+
+    /**
+     * @param horizon occurrences of repeating entries after this date are not taken into account,
+     *                hence no time span ending after it can be answered.
+     */
+    public BudgetRollups(Date horizon) {
+        this.horizon = (Date) horizon.clone();
+    }
+
+    /**
+     * @return the date up to which repeating entries are taken into account
+     */
+    public Date getHorizon() {
+        return (Date) horizon.clone();
+    }
+
+    /**
+     * Adds all occurrences of an entry up to the horizon to the totals.
+     *
+     * @param e the entry to be added
+     */
+    public synchronized void add(Entry e) {
+        apply(e, false);
+    }
+
+    /**
+     * Subtracts all occurrences of an entry up to the horizon from the totals.
+     *
+     * @param e the entry to be removed
+     */
+    public synchronized void remove(Entry e) {
+        apply(e, true);
+    }
+
+    /**
+     * Drops the totals of a category.
+     *
+     * @param categoryName the name of the category
+     */
+    public synchronized void clear(String categoryName) {
+        totals.remove(categoryName);
+    }
+
+    /**
+     * Drops all totals.
+     */
+    public synchronized void clear() {
+        totals.clear();
+    }
+
+    /**
+     * Sums up the values of a category's occurrences within a certain time span.
+     *
+     * @param categoryName the name of the category
+     * @param from         the date defining the beginning of the time span, inclusive
+     * @param to           the date defining the ending of the time span, inclusive
+     * @return the total or {@code null}, if the time span does not start at the beginning and end at
+     * the end of a day or it ends after the horizon.
+     */
+    public synchronized BigDecimal sum(String categoryName, Date from, Date to) {
+        if (to.getTime() > horizon.getTime() || !isStartOfDay(from.getTime()) || !isStartOfDay(to.getTime() + 1))
+            return null;
+        BigDecimal total = BigDecimal.ZERO;
+        Totals t = totals.get(categoryName);
+        if (t == null || from.getTime() > to.getTime())
+            return total;
+        int firstDay = dayKey(from.getTime()), lastDay = dayKey(to.getTime());
+        int firstMonth = firstDay / 100, lastMonth = lastDay / 100;
+        if (firstMonth == lastMonth)
+            return add(total, t.days.subMap(firstDay, true, lastDay, true));
+        // partial months at the edges are summed up by day, all months in between by month
+        int fullFrom = firstMonth, fullTo = lastMonth;
+        if (firstDay % 100 != 1) {
+            total = add(total, t.days.subMap(firstDay, true, nextMonth(firstMonth) * 100, false));
+            fullFrom = nextMonth(firstMonth);
+        }
+        if (!isLastDayOfMonth(to.getTime())) {
+            total = add(total, t.days.subMap(lastMonth * 100, false, lastDay, true));
+            fullTo = previousMonth(lastMonth);
+        }
+        if (fullFrom <= fullTo)
+            total = add(total, t.months.subMap(fullFrom, true, fullTo, true));
+        return total;
+    }
+
+    private static BigDecimal add(BigDecimal total, Map<Integer, BigDecimal> buckets) {
+        for (BigDecimal b : buckets.values())
+            total = total.add(b);
+        return total;
+    }
+
+    private void apply(Entry e, boolean subtract) {
+        Totals t = totals.get(e.getCategoryName());
+        if (t == null) {
+            t = new Totals();
+            totals.put(e.getCategoryName(), t);
+        }
+        BigDecimal value = subtract ? e.getValue().negate() : e.getValue();
+        if (e.getIntervalType() == Entry.IntervalType.Once) {
+            apply(t, e.getStartTimeMillis(), value);
+            return;
+        }
+        for (Entry occurrence : Entries.occurrences(e, e.getStartTime(), horizon))
+            apply(t, occurrence.getStartTimeMillis(), value);
+    }
+
+    private void apply(Totals t, long time, BigDecimal value) {
+        int day = dayKey(time);
+        addTo(t.days, day, value);
+        addTo(t.months, day / 100, value);
+    }
+
+    private static void addTo(TreeMap<Integer, BigDecimal> buckets, int key, BigDecimal value) {
+        BigDecimal old = buckets.get(key);
+        BigDecimal updated = old == null ? value : old.add(value);
+        if (updated.signum() == 0)
+            buckets.remove(key);
+        else
+            buckets.put(key, updated);
+    }
+
+    /**
+     * @return the day as {@code yyyyMMdd}
+     */
+    private int dayKey(long time) {
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    private boolean isStartOfDay(long time) {
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.HOUR_OF_DAY) == 0 && calendar.get(Calendar.MINUTE) == 0
+                && calendar.get(Calendar.SECOND) == 0 && calendar.get(Calendar.MILLISECOND) == 0;
+    }
+
+    private boolean isLastDayOfMonth(long time) {
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.DAY_OF_MONTH) == calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * @param month a month as {@code yyyyMM}
+     */
+    private static int nextMonth(int month) {
+        return month % 100 == 12 ? (month / 100 + 1) * 100 + 1 : month + 1;
+    }
+
+    private static int previousMonth(int month) {
+        return month % 100 == 1 ? (month / 100 - 1) * 100 + 12 : month - 1;
+    }
+}
@@ -0,0 +1,84 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The categories and entries modified after a certain change sequence number. Every modification
+ * of a {@link DataProvider} implementing {@link Source} gets a new, greater sequence number, so
+ * a sequence number marks a checkpoint of its data.
+ * <p>
+ * Only keys are listed: whether a category or entry was added, updated or removed is determined
+ * by looking it up in the provider.
+ */
+public class DataChanges {
+
+    /**
+     * Implemented by {@link DataProvider}s assigning change sequence numbers.
+     */
+    public interface Source {
+        /**
+         * @return the sequence number of the latest modification, 0 if there was none
+         */
+        long getSequence();
+
+        /**
+         * @param sequence a sequence number returned by {@link #getSequence()} earlier, 0 for all changes
+         * @return the changes made after the given sequence number, a reset if it is unknown to the source
+         */
+        DataChanges changesSince(long sequence);
+    }
+
+    private final long since;
+    private final long sequence;
+    private final boolean reset;
+    private final List<String> categoryNames;
+    private final List<Long> entryIds;
+
+    public DataChanges(long since, long sequence, boolean reset, List<String> categoryNames, List<Long> entryIds) {
+        this.since = since;
+        this.sequence = sequence;
+        this.reset = reset;
+        this.categoryNames = Collections.unmodifiableList(categoryNames);
+        this.entryIds = Collections.unmodifiableList(entryIds);
+    }
+
+    /**
+     * @return the sequence number the changes were requested for
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * @return the sequence number of the latest change included
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return true if the data was reset (or changed in a way which cannot be tracked by key)
+     * after the requested sequence number, so the changes cannot be told apart and all data has
+     * to be considered modified
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * @return the names of the categories modified since the requested sequence number,
+     * empty if {@link #isReset()}
+     */
+    public List<String> getCategoryNames() {
+        return categoryNames;
+    }
+
+    /**
+     * @return the ids of the entries modified since the requested sequence number,
+     * empty if {@link #isReset()}
+     */
+    public List<Long> getEntryIds() {
+        return entryIds;
+    }
+}
@@ -1,6 +1,7 @@
 package at.jku.win.ss15.pjse.backend;
 
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -43,6 +44,19 @@ public interface DataProvider {
      */
     List<Entry> getAllEntries(Category category) throws DataProviderException;
 
+    /**
+     * Gets all entries of a category which may occur within a certain time span: entries occurring once
+     * which start within the time span, as well as repeating entries which start before its end and whose
+     * interval does not end before its beginning. Both boundaries are inclusive.
+     *
+     * @param categoryName the name of the {@link Category} from which the entries should be retrieved from
+     * @param from         the date defining the beginning of the time span
+     * @param to           the date defining the ending of the time span
+     * @return a {@link java.util.List} containing the entries, ordered by their start time
+     * @throws DataProviderException if raised during database access
+     */
+    List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException;
+
     /**
      * Adds a new {@link at.jku.win.ss15.pjse.backend.BudgetChangedListener} .
      *
@@ -92,30 +106,57 @@ public interface DataProvider {
     void updateCategory(Category c) throws DataProviderException;
 
     /**
-     * Adds a new {@link Entry} to the database.
+     * Gets a stored {@link Entry} by its id.
+     *
+     * @param id the id assigned when the entry was added
+     * @return the entry or {@code null} if no entry with this id exists
+     * @throws DataProviderException if the entry could not be read
+     */
+    Entry getEntry(long id) throws DataProviderException;
+
+    /**
+     * Adds a new {@link Entry} to the database. The entry keeps its id if it already has one
+     * (e.g. when restoring a backup), otherwise a new id is assigned, which is never reused.
      *
      * @param e the entry to be added
-     * @throws java.sql.SQLException if raised during database operation
+     * @return the stored entry carrying its id
+     * @throws DataProviderException if an entry with the same id already exists
      */
-    void addEntry(Entry e) throws DataProviderException;
+    Entry addEntry(Entry e) throws DataProviderException;
 
     /**
-     * Removes an {@link Entry} from the database.
+     * Removes an {@link Entry} from the database. Entries are looked up by their id,
+     * entries without an id by their content.
      *
      * @param e the entry to be removed
-     * @throws java.sql.SQLException
+     * @throws DataProviderException if raised during database operation or if the entry is an
+     *                               occurrence of a repeating entry (see {@link Entry#getParent()})
      */
     void removeEntry(Entry e) throws DataProviderException;
 
     /**
      * Updates a specific {@link Entry}.<br>
-     * Default: adds the new entry and deletes the old.
+     * Default: deletes the old entry and adds the new one, which takes over the id of the old one.
      *
      * @param oldEntry the entry to be updated
      * @param newEntry the updated entry to be written in the database
-     * @throws java.sql.SQLException if raised during database operation
+     * @return the stored updated entry
+     * @throws DataProviderException if raised during database operation or if the old entry is an
+     *                               occurrence of a repeating entry (see {@link Entry#getParent()})
      */
-    void updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException;
+    Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException;
+
+    /**
+     * Runs several modifications as one unit of work. Within the batch, reads see the modifications
+     * made so far, while the implementation may defer writing them to the storage until the batch
+     * is finished, e.g. to write each store only once. Batches may be nested, in which case the
+     * outermost one decides when the modifications are written.<br>
+     * If the batch fails, implementations may roll back the modifications made within it.
+     *
+     * @param batch the modifications to be run, which should be performed on the given provider
+     * @throws DataProviderException if raised by one of the modifications or while writing them
+     */
+    void batch(Batch batch) throws DataProviderException;
 
     /**
      * Should delete all Data
@@ -131,6 +172,28 @@ public interface DataProvider {
      */
     boolean hasListeners();
 
+    /**
+     * A unit of work run by {@link #batch(Batch)}.
+     */
+    public interface Batch {
+        /**
+         * @param provider the provider the modifications should be performed on
+         * @throws DataProviderException if a modification fails
+         */
+        void run(DataProvider provider) throws DataProviderException;
+    }
+
+    /**
+     * Implemented by providers which wrap another provider, so optional capabilities of the wrapped
+     * provider (e.g. {@link BudgetRollups.Source} or {@link DataChanges.Source}) can still be found.
+     */
+    public interface Wrapper {
+        /**
+         * @return the wrapped provider
+         */
+        DataProvider getDelegate();
+    }
+
     public static class DataProviderException extends Exception {
         public DataProviderException(String errorMessage) {
             super(errorMessage);
@@ -1,23 +1,35 @@
 package at.jku.win.ss15.pjse.backend;
 
-import org.joda.time.Duration;
-import org.joda.time.DurationFieldType;
-import org.joda.time.Period;
-
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A utility class for several operations related to {@code Entry} as well as {@link java.util.List}s containing these objects.
  */
 public class Entries {
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
     /**
-     * Calculates the available budget for a given {@link Category} within a certain time span
+     * Calculates the available budget for a given {@link Category} within a certain time span.
+     * Rollups are used if the provider (possibly wrapped by a {@link DataProvider.Wrapper})
+     * implements {@link BudgetRollups.Source}.
      *
      * @param c        the category for which the available budget should be calculated
      * @param provider a {@link DataProvider} used for fetching relevant entries
@@ -28,18 +40,164 @@ public class Entries {
      * @throws java.sql.SQLException if an error occurs during retrieving necessary data from the the database
      */
     public static BigDecimal availableBudget(Category c, DataProvider provider, Date from, Date to) throws DataProvider.DataProviderException {
-        if (c.getBudget() == null)
+        return availableBudget(c.getName(), c.getBudget(), provider, from, to);
+    }
+
+    /**
+     * Calculates the available budget for a given {@link Category} within a certain time span like
+     * {@link #availableBudget(Category, DataProvider, Date, Date)}, but based on the budget which was
+     * in force at the end of the time span instead of the current one. Build the history once and
+     * reuse it for consecutive time spans, e.g. the months of a report.
+     *
+     * @param c        the category for which the available budget should be calculated
+     * @param provider a {@link DataProvider} used for fetching relevant entries
+     * @param history  the history of the budget changes
+     * @param from     the date defining the beginning of the time span
+     * @param to       the date defining the ending of the time span
+     * @return NULL, if the category had no budget at the end of the time span, the rest budget otherwise
+     * @see BudgetHistory#budgetAsOf(Category, Date)
+     */
+    public static BigDecimal availableBudgetAsOf(Category c, DataProvider provider, BudgetHistory history, Date from, Date to) throws DataProvider.DataProviderException {
+        return availableBudget(c.getName(), history.budgetAsOf(c, to), provider, from, to);
+    }
+
+    private static BigDecimal availableBudget(String categoryName, BigDecimal budget, DataProvider provider, Date from, Date to) throws DataProvider.DataProviderException {
+        if (budget == null)
             return null;
-        List<Entry> entries = ensureListIsModifyable(provider.getAllEntries(c));
-        entries = onceify(entries, from, to);
-        BigDecimal total = new BigDecimal(0);
-        for (Entry e : entries) {
-            total = total.add(e.getValue());
+        DataProvider source = provider;
+        while (!(source instanceof BudgetRollups.Source) && source instanceof DataProvider.Wrapper)
+            source = ((DataProvider.Wrapper) source).getDelegate();
+        if (source instanceof BudgetRollups.Source) {
+            BigDecimal total = ((BudgetRollups.Source) source).rolledUpSum(categoryName, from, to);
+            if (total != null)
+                return budget.add(total);
+        }
+        BigDecimal total = sum(provider.getEntries(categoryName, from, to), from, to);
+        BigDecimal result = budget.add(total);
+        return result;
+    }
+
+    /**
+     * Calculates the available budget of every category within a certain time span in parallel,
+     * using a shared pool with one thread per processor.
+     *
+     * @see #availableBudgets(DataProvider, Date, Date, Executor)
+     */
+    public static Map<Category, BigDecimal> availableBudgets(DataProvider provider, Date from, Date to) throws DataProvider.DataProviderException {
+        return availableBudgets(provider, from, to, getBudgetExecutor());
+    }
+
+    /**
+     * Calculates the available budget of every category within a certain time span like
+     * {@link #availableBudget(Category, DataProvider, Date, Date)}. Each category is computed by a
+     * separate task, which loads the category's entries and sums up their occurrences, while the
+     * calling thread waits for all of them. The provider therefore has to support concurrent reads.
+     * <p>
+     * The executor must not run the tasks on a thread waiting for this method, e.g. a pool
+     * whose threads are all busy calling it.
+     *
+     * @param provider a {@link DataProvider} used for fetching categories and entries
+     * @param from     the date defining the beginning of the time span
+     * @param to       the date defining the ending of the time span
+     * @param executor the executor running one task per category
+     * @return the available budget of each category in the order of {@link DataProvider#getAllCategories()},
+     * NULL for categories without budget
+     * @throws DataProvider.DataProviderException if raised while computing one of the budgets
+     */
+    public static Map<Category, BigDecimal> availableBudgets(final DataProvider provider, final Date from, final Date to, Executor executor) throws DataProvider.DataProviderException {
+        List<Category> categories = provider.getAllCategories();
+        List<FutureTask<BigDecimal>> tasks = new ArrayList<>(categories.size());
+        for (final Category c : categories) {
+            FutureTask<BigDecimal> task = new FutureTask<>(new Callable<BigDecimal>() {
+                @Override
+                public BigDecimal call() throws Exception {
+                    return availableBudget(c, provider, from, to);
+                }
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+        Map<Category, BigDecimal> result = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < categories.size(); i++)
+                result.put(categories.get(i), tasks.get(i).get());
+        } catch (InterruptedException e) {
+            for (FutureTask<BigDecimal> task : tasks)
+                task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new DataProvider.DataProviderException("Computation of the budgets was interrupted!", e);
+        } catch (ExecutionException e) {
+            for (FutureTask<BigDecimal> task : tasks)
+                task.cancel(true);
+            if (e.getCause() instanceof DataProvider.DataProviderException)
+                throw (DataProvider.DataProviderException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new DataProvider.DataProviderException("Budget could not be computed!", e);
         }
-        BigDecimal result = c.getBudget().add(total);
         return result;
     }
 
+    private static ExecutorService budgetExecutor = null;
+
+    private static synchronized Executor getBudgetExecutor() {
+        if (budgetExecutor == null)
+            budgetExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Entries-budget-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        return budgetExecutor;
+    }
+
+    /**
+     * Sums up the values of all occurrences of the given entries within a certain time span.
+     * The result equals the sum over {@link #onceify(java.util.List, java.util.Date, java.util.Date)},
+     * but repeating entries are not expanded: their value is multiplied by {@link #countOccurrences}.
+     *
+     * @param entries the entries to be summed up
+     * @param from    the date defining the beginning of the time span
+     * @param to      the date defining the ending of the time span
+     * @return the total value of all occurrences
+     */
+    public static BigDecimal sum(List<Entry> entries, Date from, Date to) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Entry e : entries) {
+            long count = countOccurrences(e, from, to);
+            if (count == 1)
+                total = total.add(e.getValue());
+            else if (count > 1)
+                total = total.add(e.getValue().multiply(BigDecimal.valueOf(count)));
+        }
+        return total;
+    }
+
+    /**
+     * Counts how often an entry occurs within a certain time span, without creating the occurrences.
+     * Occurrences are defined as in {@link #occurrences(Entry, java.util.Date, java.util.Date)}.
+     *
+     * @param e    the entry whose occurrences should be counted
+     * @param from the date defining the beginning of the time span, inclusive
+     * @param to   the date defining the ending of the time span, inclusive
+     * @return the number of occurrences
+     */
+    public static long countOccurrences(Entry e, Date from, Date to) {
+        if (e.getIntervalType() == Entry.IntervalType.Once)
+            return isInRange(e.getStartTimeMillis(), from, to) ? 1 : 0;
+        Recurrence recurrence = new Recurrence(e, to);
+        if (recurrence.lastTime < from.getTime())
+            return 0;
+        long count = recurrence.lastAtOrBefore(recurrence.lastTime) - recurrence.firstAtOrAfter(from.getTime()) + 1;
+        return count < 0 ? 0 : count;
+    }
+
     /**
      * Makes sure that the given list can be worked with. If not, a new List will be returned.
      *
@@ -51,6 +209,7 @@ public class Entries {
     public static <T> List<T> ensureListIsModifyable(List<T> list) {
         try {
             list.add(null);
+            list.remove(list.size() - 1);
             return list;
         } catch (Exception e) {
             return new ArrayList<>(list);
@@ -67,79 +226,168 @@ public class Entries {
      * @param from    the date defining the beginning of the time span
      * @param to      the date defining the ending of the time span
      * @return a {@link java.util.List} of type {@link Entry}
+     * @see #occurrences(Entry, Date, Date)
      */
     public static List<Entry> onceify(List<Entry> entries, Date from, Date to) {
         List<Entry> entryList = new ArrayList<>(entries.size());
-        for (Entry e : entries) {
-            if (e.getIntervalType() == Entry.IntervalType.Once) {
-                if (isInRange(e.getStartTime(), from, to))
-                    entryList.add(e);
-            } else {
-                final Date endTime = (e.getIntervalEndTime() != null && to.getTime() > e.getIntervalEndTime().getTime() ? e.getIntervalEndTime() : to);
-                final DurationFieldType temporalUnit = e.getIntervalType() == Entry.IntervalType.Daily ? DurationFieldType.days() : DurationFieldType.months();
-                if (isInRange(e.getStartTime(), from, to)) {
-                    List<Entry> oncified = internalOncify(e.setParent(e), to, e.getStartTime(), e.getEndTime(), temporalUnit, e.getInterval());
-                    entryList.addAll(oncified);
-                } else if (isInRange(endTime, from, to)) {
-                    //Set start time, keep original as parent!
-                    Period p = new Period(e.getStartTime().getTime(), from.getTime());
-                    long l = p.get(temporalUnit);
-                    Calendar c = Calendar.getInstance();
-                    c.setTime(e.getStartTime());
-                    int field = temporalUnit == DurationFieldType.days() ? Calendar.DAY_OF_MONTH : Calendar.MONTH;
-                    c.add(field, (int) (l * e.getInterval()));
-                    while (c.getTime().getTime() <= from.getTime())
-                        c.add(field, (int) e.getInterval());
-                    Date newStartTime = c.getTime();
-                    if (isInRange(newStartTime, from, to)) {
-                        Date currentEndTime = e.getEndTime();
-                        if (currentEndTime != null) {
-                            Duration d = new Duration(e.getStartTime().getTime(), newStartTime.getTime());
-                            currentEndTime = new Date(currentEndTime.getTime() + d.getMillis());
-                        }
-
-                        List<Entry> oncified = internalOncify(e.setParent(e), to, newStartTime, currentEndTime, temporalUnit, e.getInterval());
-                        entryList.addAll(oncified);
-                    }
-                }
+        for (Entry e : entries)
+            for (Entry occurrence : occurrences(e, from, to))
+                entryList.add(occurrence);
+        return entryList;
+    }
+
+    /**
+     * Lazily expands an entry into its occurrences within a certain time span, ordered by their start time.
+     * An entry occurring once is returned itself if it starts within the time span. A repeating entry occurs
+     * every {@link Entry#getInterval()} days or months after its start time until its interval end time (if any).
+     * Each of these occurrences is returned as an entry occurring once, which has the repeating entry as parent
+     * and whose end time is moved along with its start time.
+     * <p>
+     * The first occurrence is computed directly, all further ones are created while iterating.
+     *
+     * @param e    the entry to be expanded
+     * @param from the date defining the beginning of the time span, inclusive
+     * @param to   the date defining the ending of the time span, inclusive
+     * @return an {@link java.lang.Iterable} which creates the occurrences on demand
+     */
+    public static Iterable<Entry> occurrences(final Entry e, final Date from, final Date to) {
+        if (e.getIntervalType() == Entry.IntervalType.Once) {
+            if (isInRange(e.getStartTimeMillis(), from, to))
+                return Collections.singletonList(e);
+            return Collections.emptyList();
+        }
+        return new Iterable<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                return new OccurrenceIterator(e, from, to);
             }
+        };
+    }
+
+    /**
+     * Computes the start times of a repeating entry's occurrences. The n-th occurrence starts
+     * {@code n * interval} days or months after the entry's start time.
+     */
+    static final class Recurrence {
+        private final Calendar calendar = Calendar.getInstance();
+        private final long startTime;
+        private final int field, interval;
+        final long lastTime;
+
+        /**
+         * @param e  a repeating entry
+         * @param to the end of the time span of interest, inclusive
+         */
+        Recurrence(Entry e, Date to) {
+            startTime = e.getStartTimeMillis();
+            field = e.getIntervalType() == Entry.IntervalType.Daily ? Calendar.DAY_OF_MONTH : Calendar.MONTH;
+            interval = e.getInterval();
+            long intervalEndTime = e.getIntervalEndTimeMillis();
+            lastTime = intervalEndTime != Entry.NO_TIME && intervalEndTime < to.getTime() ? intervalEndTime : to.getTime();
+        }
+
+        /**
+         * @param n the number of the occurrence, starting at zero
+         * @return the start time of the n-th occurrence in milliseconds
+         */
+        long startOf(long n) {
+            calendar.setTimeInMillis(startTime);
+            calendar.add(field, (int) (n * interval));
+            return calendar.getTimeInMillis();
+        }
+
+        /**
+         * @param time a point in time
+         * @return the number of the first occurrence starting at or after the given time
+         */
+        long firstAtOrAfter(long time) {
+            if (time <= startTime)
+                return 0;
+            long n = Math.max(0, estimate(time));
+            while (startOf(n) < time)
+                n++;
+            while (n > 0 && startOf(n - 1) >= time)
+                n--;
+            return n;
+        }
+
+        /**
+         * @param time a point in time
+         * @return the number of the last occurrence starting at or before the given time,
+         * which is {@code -1} if the entry starts after it.
+         */
+        long lastAtOrBefore(long time) {
+            if (time < startTime)
+                return -1;
+            long n = Math.max(0, estimate(time));
+            while (startOf(n) > time)
+                n--;
+            while (startOf(n + 1) <= time)
+                n++;
+            return n;
+        }
+
+        private long estimate(long time) {
+            if (field == Calendar.DAY_OF_MONTH)
+                return (time - startTime) / (interval * DAY_IN_MILLIS);
+            calendar.setTimeInMillis(startTime);
+            int months = -(calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH));
+            calendar.setTimeInMillis(time);
+            months += calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+            return months / interval;
         }
-        return entryList;
     }
 
-    private static List<Entry> internalOncify(Entry originalWithParentSelf, Date totalEndTime, Date currentStartTime, Date currentEndTime, DurationFieldType intervalUnit, int interval) {
-        if (currentStartTime.getTime() > totalEndTime.getTime())
-            return new LinkedList<>();
-        Entry entry = originalWithParentSelf.setInterval(Entry.IntervalType.Once, -1, null);
-        entry = entry.setEndTime(currentEndTime).setStartTime(currentStartTime);
-        //Prepare recursive call
-        Calendar c = Calendar.getInstance();
-        c.setTime(currentStartTime);
-        int field = intervalUnit == DurationFieldType.days() ? Calendar.DAY_OF_MONTH : Calendar.MONTH;
-        c.add(field, interval);
-        currentStartTime = c.getTime();
-        if (currentEndTime != null) {
-            c.setTime(currentEndTime);
-            c.add(field, interval);
-            currentEndTime = c.getTime();
-        }
-        List<Entry> list = internalOncify(originalWithParentSelf, totalEndTime, currentStartTime, currentEndTime, intervalUnit, interval);
-        list.add(entry);
-        return list;
+    private static final class OccurrenceIterator implements Iterator<Entry> {
+        private final Recurrence recurrence;
+        private final Entry.Builder template;
+        private final long duration;
+        private long n, nextStart;
+
+        OccurrenceIterator(Entry e, Date from, Date to) {
+            recurrence = new Recurrence(e, to);
+            // occurrences are not stored, so they must not carry the id of the repeating entry
+            template = e.toBuilder().setId(Entry.NO_ID).setParent(e).setInterval(Entry.IntervalType.Once, -1, Entry.NO_TIME);
+            duration = e.getEndTimeMillis() == Entry.NO_TIME ? -1 : e.getEndTimeMillis() - e.getStartTimeMillis();
+            n = recurrence.firstAtOrAfter(from.getTime());
+            nextStart = recurrence.startOf(n);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextStart <= recurrence.lastTime;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            template.setStartTime(nextStart);
+            if (duration >= 0)
+                template.setEndTime(nextStart + duration);
+            Entry occurrence = template.build();
+            nextStart = recurrence.startOf(++n);
+            return occurrence;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     /**
      * Checks the whether the input time is between the specified beginning and end date.
      *
-     * @param input the date to be checked
+     * @param input the point in time to be checked in milliseconds
      * @param from  the date marking the beginning of the time span
      * @param to    the date marking the ending of the time span
      * @return {@code true},  if the input date is between the beginning and ending date,
      * or the input date equals one of them.<br>
      * {@code false}, if the input date is not within the time span of {@code from} until {@code to}.
      */
-    private static boolean isInRange(Date input, Date from, Date to) {
-        return input.getTime() <= to.getTime() && from.getTime() <= input.getTime();
+    private static boolean isInRange(long input, Date from, Date to) {
+        return input <= to.getTime() && from.getTime() <= input;
     }
 
     /**
@@ -165,7 +413,8 @@ public class Entries {
 
         @Override
         public int compare(Entry o1, Entry o2) {
-            return o1.getStartTime().compareTo(o2.getStartTime());
+            long t1 = o1.getStartTimeMillis(), t2 = o2.getStartTimeMillis();
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
         }
     }
 }
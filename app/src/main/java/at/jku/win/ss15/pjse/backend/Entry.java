@@ -8,15 +8,32 @@ import java.util.Date;
  * The <code>Entry</code> class is used to create expenditures and add them to a certain category.
  * An <code>Entry</code> can occur repeatedly and the location where the entry was/should added
  * can be stored as well.
+ * <p>
+ * Entries are immutable: every setter returns a modified copy. Use a {@link Builder} to apply
+ * several modifications with a single copy.
  */
 public class Entry implements Serializable {
+    /**
+     * The id of entries which have not been stored yet
+     */
+    public static final long NO_ID = 0;
+    /**
+     * Returned by the millisecond getters if the point in time is not set
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private long id = NO_ID;
     private BigDecimal value; //(10,2)
     private String purpose, category;
     private Float locLat, locLng;
     private int interval;
     private IntervalType intervalType;
-    private Date startTime, endTime, intervalEndTime;
+    private long startTime, endTime = NO_TIME, intervalEndTime = NO_TIME;
     private Entry parent;
+    /**
+     * The cached hash code, zero if it has not been computed yet
+     */
+    private transient int hash;
 
     /**
      * Do not use this constructor
@@ -51,7 +68,7 @@ public class Entry implements Serializable {
         if (category == null)
             throw new NullPointerException("category must not be NULL");
         this.value = value;
-        this.startTime = (Date) startTime.clone();
+        this.startTime = startTime.getTime();
         this.category = category;
         intervalType = IntervalType.Once;
         interval = -1;
@@ -72,25 +89,64 @@ public class Entry implements Serializable {
     }
 
     private Entry(Entry e) {
+        id = e.id;
         value = e.value;
         purpose = e.purpose;
         locLat = e.locLat;
         locLng = e.locLng;
         interval = e.interval;
         intervalType = e.intervalType;
-        startTime = (Date) e.startTime.clone();
-        if (e.endTime == null)
-            endTime = null;
-        else
-            endTime = (Date) e.endTime.clone();
-        if (e.intervalEndTime == null)
-            intervalEndTime = null;
-        else
-            intervalEndTime = (Date) e.intervalEndTime.clone();
+        startTime = e.startTime;
+        endTime = e.endTime;
+        intervalEndTime = e.intervalEndTime;
         category = e.category;
         parent = e.parent;
     }
 
+    private Entry(Builder b) {
+        id = b.id;
+        value = b.value;
+        purpose = b.purpose;
+        locLat = b.locLat;
+        locLng = b.locLng;
+        interval = b.interval;
+        intervalType = b.intervalType;
+        startTime = b.startTime;
+        endTime = b.endTime;
+        intervalEndTime = b.intervalEndTime;
+        category = b.category;
+        parent = b.parent;
+    }
+
+    /**
+     * @return a builder initialized with the fields of this entry
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Gets the id assigned by the {@link DataProvider} when the entry was added.
+     * It is kept by the copies created by the setters and is not part of {@link #equals(Object)}.
+     *
+     * @return the entry's id or {@link #NO_ID} if it has not been stored yet
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id of an entry, which should only be done by a {@link DataProvider}.
+     *
+     * @param id the id of the stored entry
+     * @return the new entry with the specified id
+     */
+    public Entry setId(long id) {
+        Entry newEntry = new Entry(this);
+        newEntry.id = id;
+        return newEntry;
+    }
+
     /**
      * Gets the name of the {@link Category}.
      *
@@ -128,6 +184,13 @@ public class Entry implements Serializable {
      * @return the end time of the event
      */
     public Date getEndTime() {
+        return endTime == NO_TIME ? null : new Date(endTime);
+    }
+
+    /**
+     * @return the end time of the event in milliseconds or {@link #NO_TIME}
+     */
+    public long getEndTimeMillis() {
         return endTime;
     }
 
@@ -137,6 +200,13 @@ public class Entry implements Serializable {
      * @return the start time of the event
      */
     public Date getStartTime() {
+        return new Date(startTime);
+    }
+
+    /**
+     * @return the start time of the event in milliseconds
+     */
+    public long getStartTimeMillis() {
         return startTime;
     }
 
@@ -146,6 +216,13 @@ public class Entry implements Serializable {
      * @return the time of the interval's last execution
      */
     public Date getIntervalEndTime() {
+        return intervalEndTime == NO_TIME ? null : new Date(intervalEndTime);
+    }
+
+    /**
+     * @return the time of the interval's last execution in milliseconds or {@link #NO_TIME}
+     */
+    public long getIntervalEndTimeMillis() {
         return intervalEndTime;
     }
 
@@ -157,10 +234,10 @@ public class Entry implements Serializable {
      * @return the new entry with the specified start time
      */
     public Entry setStartTime(Date startTime) {
-        if (value == null)
+        if (startTime == null)
             throw new NullPointerException("startTime must not be NULL");
         Entry newEntry = new Entry(this);
-        newEntry.startTime = startTime;
+        newEntry.startTime = startTime.getTime();
         return newEntry;
     }
 
@@ -172,7 +249,7 @@ public class Entry implements Serializable {
      */
     public Entry setEndTime(Date endTime) {
         Entry newEntry = new Entry(this);
-        newEntry.endTime = endTime;
+        newEntry.endTime = millisOf(endTime);
         return newEntry;
     }
 
@@ -290,10 +367,14 @@ public class Entry implements Serializable {
             newEntry.interval = interval;
         else
             newEntry.interval = -1;
-        newEntry.intervalEndTime = intervalEndTime;
+        newEntry.intervalEndTime = millisOf(intervalEndTime);
         return newEntry;
     }
 
+    private static long millisOf(Date date) {
+        return date == null ? NO_TIME : date.getTime();
+    }
+
     /**
      * Gets the {@link at.jku.win.ss15.pjse.backend.Entry.IntervalType} of the entry.
      *
@@ -310,47 +391,213 @@ public class Entry implements Serializable {
 
         Entry entry = (Entry) o;
 
+        if (hash != 0 && entry.hash != 0 && hash != entry.hash) return false;
         if (interval != entry.interval) return false;
-        if (endTime != null ? !endTime.equals(entry.endTime) : entry.endTime != null) return false;
-        if (intervalEndTime != null ? !intervalEndTime.equals(entry.intervalEndTime) : entry.intervalEndTime != null)
-            return false;
+        if (endTime != entry.endTime) return false;
+        if (intervalEndTime != entry.intervalEndTime) return false;
         if (intervalType != entry.intervalType) return false;
         if (locLat != null ? !locLat.equals(entry.locLat) : entry.locLat != null) return false;
         if (locLng != null ? !locLng.equals(entry.locLng) : entry.locLng != null) return false;
         if (purpose != null ? !purpose.equals(entry.purpose) : entry.purpose != null) return false;
-        if (!startTime.equals(entry.startTime)) return false;
+        if (startTime != entry.startTime) return false;
         if (!value.equals(entry.value)) return false;
 
         return true;
     }
 
+    /**
+     * The hash code is computed once, as entries are immutable. It equals the one computed while
+     * the points in time were held as {@link Date} objects, as stored entries may be keyed by it.
+     */
     @Override
     public int hashCode() {
-        int result = value.hashCode();
+        int result = hash;
+        if (result != 0)
+            return result;
+        result = value.hashCode();
         result = 31 * result + (purpose != null ? purpose.hashCode() : 0);
         result = 31 * result + (locLat != null ? locLat.hashCode() : 0);
         result = 31 * result + (locLng != null ? locLng.hashCode() : 0);
         result = 31 * result + interval;
         result = 31 * result + (intervalType != null ? intervalType.hashCode() : 0);
-        result = 31 * result + startTime.hashCode();
-        result = 31 * result + (endTime != null ? endTime.hashCode() : 0);
-        result = 31 * result + (intervalEndTime != null ? intervalEndTime.hashCode() : 0);
+        result = 31 * result + hashOf(startTime);
+        result = 31 * result + (endTime != NO_TIME ? hashOf(endTime) : 0);
+        result = 31 * result + (intervalEndTime != NO_TIME ? hashOf(intervalEndTime) : 0);
+        hash = result;
         return result;
     }
 
+    /**
+     * @return the same value as {@link Date#hashCode()}
+     */
+    private static int hashOf(long time) {
+        return (int) time ^ (int) (time >> 32);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("Expenditure: ");
         sb.append(value).append(' ');
         if (purpose != null)
             sb.append("for:\n").append(purpose).append(' ');
-        sb.append("\nStart time: ").append(startTime);
-        if (endTime != null)
-            sb.append("-").append(endTime);
+        sb.append("\nStart time: ").append(getStartTime());
+        if (endTime != NO_TIME)
+            sb.append("-").append(getEndTime());
         if (locLng != null && locLat != null)
             sb.append("\n@LNG:").append(locLng).append(" LAT:").append(locLat);
         if (intervalType != IntervalType.Once)
-            sb.append("\nrepeating every ").append(interval).append(' ').append(intervalType).append(" until ").append(intervalEndTime);
+            sb.append("\nrepeating every ").append(interval).append(' ').append(intervalType).append(" until ").append(getIntervalEndTime());
         return sb.toString();
     }
+
+    /**
+     * Collects the fields of an entry, so several of them can be changed with a single copy.
+     * A builder can be reused after {@link #build()}, e.g. to create entries differing in a single field.
+     */
+    public static final class Builder {
+        private long id = NO_ID;
+        private BigDecimal value;
+        private String purpose, category;
+        private Float locLat, locLng;
+        private int interval = -1;
+        private IntervalType intervalType = IntervalType.Once;
+        private long startTime, endTime = NO_TIME, intervalEndTime = NO_TIME;
+        private Entry parent;
+
+        /**
+         * @param value     the budget value for the entry
+         * @param startTime the date when the entry starts
+         * @param category  the name of the category to which the entry should be added
+         */
+        public Builder(BigDecimal value, Date startTime, String category) {
+            setValue(value);
+            setStartTime(startTime);
+            setCategoryName(category);
+        }
+
+        /**
+         * @param value     the budget value for the entry
+         * @param startTime the start time of the entry in milliseconds
+         * @param category  the name of the category to which the entry should be added
+         */
+        public Builder(BigDecimal value, long startTime, String category) {
+            setValue(value);
+            setStartTime(startTime);
+            setCategoryName(category);
+        }
+
+        private Builder(Entry e) {
+            id = e.id;
+            value = e.value;
+            purpose = e.purpose;
+            locLat = e.locLat;
+            locLng = e.locLng;
+            interval = e.interval;
+            intervalType = e.intervalType;
+            startTime = e.startTime;
+            endTime = e.endTime;
+            intervalEndTime = e.intervalEndTime;
+            category = e.category;
+            parent = e.parent;
+        }
+
+        public Builder setId(long id) {
+            this.id = id;
+            return this;
+        }
+
+        public Builder setValue(BigDecimal value) {
+            if (value == null)
+                throw new NullPointerException("value must not be NULL");
+            this.value = value;
+            return this;
+        }
+
+        public Builder setPurpose(String purpose) {
+            this.purpose = purpose;
+            return this;
+        }
+
+        public Builder setCategoryName(String category) {
+            if (category == null)
+                throw new NullPointerException("category must not be NULL");
+            this.category = category;
+            return this;
+        }
+
+        public Builder setCategory(Category category) {
+            return setCategoryName(category.getName());
+        }
+
+        /**
+         * @see Entry#setLngLat(Float, Float)
+         */
+        public Builder setLngLat(Float locLng, Float locLat) {
+            if (locLat == null ^ locLng == null)
+                throw new IllegalArgumentException("Both locLat and locLng either have to be null or have a value");
+            this.locLat = locLat;
+            this.locLng = locLng;
+            return this;
+        }
+
+        public Builder setStartTime(Date startTime) {
+            if (startTime == null)
+                throw new NullPointerException("startTime must not be NULL");
+            return setStartTime(startTime.getTime());
+        }
+
+        /**
+         * @param startTime the start time in milliseconds
+         */
+        public Builder setStartTime(long startTime) {
+            this.startTime = startTime;
+            return this;
+        }
+
+        public Builder setEndTime(Date endTime) {
+            return setEndTime(millisOf(endTime));
+        }
+
+        /**
+         * @param endTime the end time in milliseconds or {@link #NO_TIME} to remove it
+         */
+        public Builder setEndTime(long endTime) {
+            this.endTime = endTime;
+            return this;
+        }
+
+        /**
+         * @see Entry#setInterval(IntervalType, int, Date)
+         */
+        public Builder setInterval(IntervalType type, int interval, Date intervalEndTime) {
+            return setInterval(type, interval, millisOf(intervalEndTime));
+        }
+
+        /**
+         * @param intervalEndTime the end time of the interval in milliseconds or {@link #NO_TIME}
+         * @see Entry#setInterval(IntervalType, int, Date)
+         */
+        public Builder setInterval(IntervalType type, int interval, long intervalEndTime) {
+            if (type == null)
+                throw new NullPointerException("type must not be NULL");
+            if (interval <= 0 && type != IntervalType.Once)
+                throw new IllegalArgumentException("Interval must be greater than zero");
+            this.intervalType = type;
+            this.interval = type != IntervalType.Once ? interval : -1;
+            this.intervalEndTime = intervalEndTime;
+            return this;
+        }
+
+        public Builder setParent(Entry parent) {
+            this.parent = parent;
+            return this;
+        }
+
+        /**
+         * @return a new entry with the fields of this builder
+         */
+        public Entry build() {
+            return new Entry(this);
+        }
+    }
 }
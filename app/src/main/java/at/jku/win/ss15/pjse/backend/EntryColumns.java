@@ -0,0 +1,289 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, column oriented snapshot of all entries of a {@link DataProvider}, meant for
+ * reports which aggregate over many categories and long time spans. Each field of the entries is
+ * stored in a primitive array, whose rows are sorted by the start time of the entries:
+ * <ul>
+ * <li>{@code startMillis}: the start time in milliseconds</li>
+ * <li>{@code valueMinorUnits}: the value as multiple of {@code 10^-scale}, where the scale is
+ * the largest one of all values (at least 2), so every value is represented exactly</li>
+ * <li>{@code categoryId}: the position of the entry's category in {@link #getCategoryNames()}</li>
+ * <li>{@code intervalType}: the ordinal of the entry's {@link Entry.IntervalType}</li>
+ * </ul>
+ * Entries occurring once are aggregated by scanning these arrays between two binary searched rows.
+ * Repeating entries are few in general; their occurrences are counted as in {@link Entries#countOccurrences}.
+ * <p>
+ * Results equal {@link Entries#sum(List, Date, Date)} over the same entries.
+ */
+public class EntryColumns {
+
+    /**
+     * Selects the rows of all categories
+     */
+    public static final int ALL_CATEGORIES = -1;
+
+    private static final byte ONCE = (byte) Entry.IntervalType.Once.ordinal();
+    private static final int MIN_SCALE = 2;
+
+    private final String[] categoryNames;
+    private final Map<String, Integer> categoryIds;
+    private final long[] startMillis;
+    private final long[] valueMinorUnits;
+    private final int[] categoryId;
+    private final byte[] intervalType;
+    private final int scale;
+    /**
+     * The rows of the repeating entries in ascending order and the entries themselves
+     */
+    private final int[] repeatingRows;
+    private final Entry[] repeating;
+
+    private EntryColumns(List<String> names, List<Entry> entries) {
+        categoryNames = names.toArray(new String[names.size()]);
+        categoryIds = new HashMap<>();
+        for (int i = 0; i < categoryNames.length; i++)
+            categoryIds.put(categoryNames[i], i);
+
+        Collections.sort(entries, Entries.EntryTimeComperator.getInstance());
+        int n = entries.size(), repeatingCount = 0, s = MIN_SCALE;
+        for (Entry e : entries) {
+            s = Math.max(s, e.getValue().scale());
+            if (e.getIntervalType() != Entry.IntervalType.Once)
+                repeatingCount++;
+        }
+        scale = s;
+        startMillis = new long[n];
+        valueMinorUnits = new long[n];
+        categoryId = new int[n];
+        intervalType = new byte[n];
+        repeatingRows = new int[repeatingCount];
+        repeating = new Entry[repeatingCount];
+        int r = 0;
+        for (int i = 0; i < n; i++) {
+            Entry e = entries.get(i);
+            startMillis[i] = e.getStartTimeMillis();
+            BigInteger unscaled = e.getValue().setScale(scale).unscaledValue();
+            if (unscaled.bitLength() > 63)
+                throw new ArithmeticException("Value out of range: " + e.getValue());
+            valueMinorUnits[i] = unscaled.longValue();
+            categoryId[i] = categoryIds.get(e.getCategoryName());
+            intervalType[i] = (byte) e.getIntervalType().ordinal();
+            if (intervalType[i] != ONCE) {
+                repeatingRows[r] = i;
+                repeating[r++] = e;
+            }
+        }
+    }
+
+    /**
+     * Creates a snapshot of all categories and their entries.
+     *
+     * @param provider the provider to be read
+     * @return the snapshot
+     * @throws DataProvider.DataProviderException if the data could not be read
+     * @throws ArithmeticException                if a value does not fit into a {@code long} at the common scale
+     */
+    public static EntryColumns snapshot(DataProvider provider) throws DataProvider.DataProviderException {
+        List<String> names = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        for (Category c : provider.getAllCategories()) {
+            names.add(c.getName());
+            entries.addAll(provider.getAllEntries(c.getName()));
+        }
+        return new EntryColumns(names, entries);
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return startMillis.length;
+    }
+
+    /**
+     * @return the scale of {@link #getValueMinorUnits(int)}
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * @return the names of the categories, indexed by their id
+     */
+    public List<String> getCategoryNames() {
+        return Collections.unmodifiableList(Arrays.asList(categoryNames));
+    }
+
+    /**
+     * @param name the name of a category
+     * @return the id of the category or {@code -1} if it is not part of the snapshot
+     */
+    public int getCategoryId(String name) {
+        Integer id = categoryIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public long getStartMillis(int row) {
+        return startMillis[row];
+    }
+
+    public long getValueMinorUnits(int row) {
+        return valueMinorUnits[row];
+    }
+
+    public int getCategoryId(int row) {
+        return categoryId[row];
+    }
+
+    public Entry.IntervalType getIntervalType(int row) {
+        return Entry.IntervalType.values()[intervalType[row]];
+    }
+
+    /**
+     * @param time a point in time in milliseconds
+     * @return the first row starting at or after the given time
+     */
+    private int firstRowAtOrAfter(long time) {
+        int low = 0, high = startMillis.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startMillis[mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Selects the rows of the entries starting within a certain time span.
+     * Repeating entries are selected by their start time only.
+     *
+     * @param category the id of the category or {@link #ALL_CATEGORIES}
+     * @param from     the beginning of the time span in milliseconds, inclusive
+     * @param to       the ending of the time span in milliseconds, inclusive
+     * @return the selected rows in ascending order
+     */
+    public int[] filter(int category, long from, long to) {
+        int first = firstRowAtOrAfter(from), end = to == Long.MAX_VALUE ? startMillis.length : firstRowAtOrAfter(to + 1);
+        if (end <= first)
+            return new int[0];
+        int[] rows = new int[end - first];
+        int count = 0;
+        for (int i = first; i < end; i++)
+            if (category == ALL_CATEGORIES || categoryId[i] == category)
+                rows[count++] = i;
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Sums up the values of all occurrences within a certain time span.
+     *
+     * @param category the id of the category or {@link #ALL_CATEGORIES}
+     * @param from     the beginning of the time span in milliseconds, inclusive
+     * @param to       the ending of the time span in milliseconds, inclusive
+     * @return the sum as multiple of {@code 10^-}{@link #getScale()}
+     * @throws ArithmeticException if the sum does not fit into a {@code long}
+     */
+    public long sumMinorUnits(int category, long from, long to) {
+        long sum = 0;
+        int end = to == Long.MAX_VALUE ? startMillis.length : firstRowAtOrAfter(to + 1);
+        for (int i = firstRowAtOrAfter(from); i < end; i++)
+            if (intervalType[i] == ONCE && (category == ALL_CATEGORIES || categoryId[i] == category))
+                sum = add(sum, valueMinorUnits[i]);
+        Date fromDate = new Date(from), toDate = new Date(to);
+        for (int r = 0; r < repeatingRows.length && repeatingRows[r] < end; r++) {
+            int row = repeatingRows[r];
+            if (category == ALL_CATEGORIES || categoryId[row] == category)
+                sum = add(sum, multiply(valueMinorUnits[row], Entries.countOccurrences(repeating[r], fromDate, toDate)));
+        }
+        return sum;
+    }
+
+    /**
+     * Sums up the values of all occurrences of a category's entries within a certain time span.
+     *
+     * @param categoryName the name of the category
+     * @param from         the date defining the beginning of the time span, inclusive
+     * @param to           the date defining the ending of the time span, inclusive
+     * @return the total value, zero if the category is not part of the snapshot
+     * @throws ArithmeticException if the sum does not fit into a {@code long} at the common scale
+     */
+    public BigDecimal sum(String categoryName, Date from, Date to) {
+        int category = getCategoryId(categoryName);
+        if (category < 0)
+            return BigDecimal.ZERO;
+        return BigDecimal.valueOf(sumMinorUnits(category, from.getTime(), to.getTime()), scale);
+    }
+
+    /**
+     * Sums up the values of all occurrences within a certain time span grouped by their category,
+     * in a single pass over the rows.
+     *
+     * @param from the date defining the beginning of the time span, inclusive
+     * @param to   the date defining the ending of the time span, inclusive
+     * @return the total value of each category, in the order of {@link #getCategoryNames()}
+     * @throws ArithmeticException if a sum does not fit into a {@code long} at the common scale
+     */
+    public Map<String, BigDecimal> sumByCategory(Date from, Date to) {
+        long[] sums = sumMinorUnitsByCategory(from.getTime(), to.getTime());
+        Map<String, BigDecimal> result = new LinkedHashMap<>();
+        for (int i = 0; i < categoryNames.length; i++)
+            result.put(categoryNames[i], BigDecimal.valueOf(sums[i], scale));
+        return result;
+    }
+
+    /**
+     * @param from the beginning of the time span in milliseconds, inclusive
+     * @param to   the ending of the time span in milliseconds, inclusive
+     * @return the sums as multiples of {@code 10^-}{@link #getScale()}, indexed by the category id
+     * @throws ArithmeticException if a sum does not fit into a {@code long}
+     * @see #sumByCategory(Date, Date)
+     */
+    public long[] sumMinorUnitsByCategory(long from, long to) {
+        long[] sums = new long[categoryNames.length];
+        int end = to == Long.MAX_VALUE ? startMillis.length : firstRowAtOrAfter(to + 1);
+        for (int i = firstRowAtOrAfter(from); i < end; i++)
+            if (intervalType[i] == ONCE)
+                sums[categoryId[i]] = add(sums[categoryId[i]], valueMinorUnits[i]);
+        Date fromDate = new Date(from), toDate = new Date(to);
+        for (int r = 0; r < repeatingRows.length && repeatingRows[r] < end; r++) {
+            int row = repeatingRows[r];
+            sums[categoryId[row]] = add(sums[categoryId[row]], multiply(valueMinorUnits[row], Entries.countOccurrences(repeating[r], fromDate, toDate)));
+        }
+        return sums;
+    }
+
+    /**
+     * @throws ArithmeticException if the sum overflows, like {@code Math.addExact} of Java 8
+     */
+    private static long add(long a, long b) {
+        long r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0)
+            throw new ArithmeticException("Sum out of range");
+        return r;
+    }
+
+    /**
+     * @throws ArithmeticException if the product overflows, like {@code Math.multiplyExact} of Java 8
+     */
+    private static long multiply(long a, long b) {
+        long r = a * b;
+        if (((Math.abs(a) | Math.abs(b)) >>> 31) != 0
+                && ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1)))
+            throw new ArithmeticException("Sum out of range");
+        return r;
+    }
+}
@@ -0,0 +1,113 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * An in-memory index over the entries of a single category, sorted by their start time.
+ * Entries are identified by a key chosen by the owner of the index (e.g. the storage key).
+ * <p>
+ * Entries occurring once are found by a range scan on a balanced tree in {@code O(log n + k)}.
+ * Repeating entries are kept in a second tree, where all entries starting before the end of the
+ * range are checked against their interval end time.
+ */
+public class EntryTimeIndex {
+    private final Map<String, Entry> byKey = new HashMap<>();
+    private final TreeMap<Long, Map<String, Entry>> once = new TreeMap<>();
+    private final TreeMap<Long, Map<String, Entry>> repeating = new TreeMap<>();
+
+    /**
+     * Adds an entry to the index, replacing any entry stored with the same key.
+     *
+     * @param key the key identifying the entry
+     * @param e   the entry to be added
+     */
+    public void put(String key, Entry e) {
+        remove(key);
+        byKey.put(key, e);
+        TreeMap<Long, Map<String, Entry>> tree = treeOf(e);
+        Map<String, Entry> bucket = tree.get(e.getStartTimeMillis());
+        if (bucket == null) {
+            bucket = new LinkedHashMap<>();
+            tree.put(e.getStartTimeMillis(), bucket);
+        }
+        bucket.put(key, e);
+    }
+
+    /**
+     * Removes an entry from the index.
+     *
+     * @param key the key identifying the entry
+     * @return the removed entry or {@code null} if no entry is stored with that key
+     */
+    public Entry remove(String key) {
+        Entry e = byKey.remove(key);
+        if (e == null)
+            return null;
+        TreeMap<Long, Map<String, Entry>> tree = treeOf(e);
+        Map<String, Entry> bucket = tree.get(e.getStartTimeMillis());
+        bucket.remove(key);
+        if (bucket.isEmpty())
+            tree.remove(e.getStartTimeMillis());
+        return e;
+    }
+
+    /**
+     * @return the number of indexed entries
+     */
+    public int size() {
+        return byKey.size();
+    }
+
+    /**
+     * Removes all entries from the index.
+     */
+    public void clear() {
+        byKey.clear();
+        once.clear();
+        repeating.clear();
+    }
+
+    /**
+     * Gets all entries which may occur within the given time span, ordered by their start time.
+     * These are all entries occurring once, which start within the time span, as well as all
+     * repeating entries which start before its end and whose interval does not end before its beginning.
+     * Both boundaries are inclusive.
+     *
+     * @param from the date defining the beginning of the time span
+     * @param to   the date defining the ending of the time span
+     * @return a new {@link java.util.List} containing the entries
+     */
+    public List<Entry> query(Date from, Date to) {
+        List<Entry> result = new ArrayList<>();
+        if (from.getTime() > to.getTime())
+            return result;
+        addAll(result, once.subMap(from.getTime(), true, to.getTime(), true).values());
+        NavigableMap<Long, Map<String, Entry>> candidates = repeating.headMap(to.getTime(), true);
+        if (!candidates.isEmpty()) {
+            for (Map<String, Entry> bucket : candidates.values())
+                for (Entry e : bucket.values())
+                    if (e.getIntervalEndTimeMillis() == Entry.NO_TIME || e.getIntervalEndTimeMillis() >= from.getTime())
+                        result.add(e);
+            Collections.sort(result, Entries.EntryTimeComperator.getInstance());
+        }
+        return result;
+    }
+
+    private static void addAll(List<Entry> target, Collection<Map<String, Entry>> buckets) {
+        for (Map<String, Entry> bucket : buckets)
+            target.addAll(bucket.values());
+    }
+
+    private TreeMap<Long, Map<String, Entry>> treeOf(Entry e) {
+        return e.getIntervalType() == Entry.IntervalType.Once ? once : repeating;
+    }
+}
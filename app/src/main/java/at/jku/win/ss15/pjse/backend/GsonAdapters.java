@@ -0,0 +1,341 @@
+package at.jku.win.ss15.pjse.backend;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Hand-written Gson adapters for the records of the backend, which avoid reflective field binding.
+ * The JSON field names are the ones Gson used to derive from the fields, so existing data stays readable.
+ * Dates are written as milliseconds since the epoch; dates written as text by the default Gson adapter are still read.
+ */
+public final class GsonAdapters {
+
+    private GsonAdapters() {
+    }
+
+    /**
+     * @return the shared {@link Gson} instance used for all backend records, which is thread safe
+     */
+    public static Gson getGson() {
+        return GSON;
+    }
+
+    /**
+     * Registers the adapters of this class.
+     *
+     * @param builder the builder the adapters should be registered with
+     * @return the builder
+     */
+    public static GsonBuilder register(GsonBuilder builder) {
+        return builder.registerTypeAdapter(Date.class, DATE)
+                .registerTypeAdapter(Category.class, CATEGORY)
+                .registerTypeAdapter(Entry.class, ENTRY)
+                .registerTypeAdapter(BudgetChangedListener.LogItem.class, LOG_ITEM);
+    }
+
+    /**
+     * Writes dates as milliseconds, reads milliseconds and the text format of Gson's default adapter.
+     */
+    public static final TypeAdapter<Date> DATE = new TypeAdapter<Date>() {
+        @Override
+        public void write(JsonWriter out, Date value) throws IOException {
+            if (value == null)
+                out.nullValue();
+            else
+                out.value(value.getTime());
+        }
+
+        @Override
+        public Date read(JsonReader in) throws IOException {
+            return readDate(in);
+        }
+    };
+
+    public static final TypeAdapter<Category> CATEGORY = new TypeAdapter<Category>() {
+        @Override
+        public void write(JsonWriter out, Category c) throws IOException {
+            if (c == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("name").value(c.getName());
+            if (c.getBudget() != null)
+                out.name("budget").value(c.getBudget());
+            out.name("currency").value(c.getCurrency().name());
+            out.endObject();
+        }
+
+        @Override
+        public Category read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String name = null;
+            BigDecimal budget = null;
+            Currency currency = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "name":
+                        name = in.nextString();
+                        break;
+                    case "budget":
+                        budget = readDecimal(in);
+                        break;
+                    case "currency":
+                        currency = readEnum(in, Currency.class);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (name == null || currency == null)
+                throw new JsonParseException("Category requires a name and a currency");
+            Category c = new Category(name, currency);
+            c.setBudget(budget);
+            return c;
+        }
+    };
+
+    public static final TypeAdapter<Entry> ENTRY = new TypeAdapter<Entry>() {
+        @Override
+        public void write(JsonWriter out, Entry e) throws IOException {
+            if (e == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (e.getId() != Entry.NO_ID)
+                out.name("id").value(e.getId());
+            out.name("value").value(e.getValue());
+            if (e.getPurpose() != null)
+                out.name("purpose").value(e.getPurpose());
+            out.name("category").value(e.getCategoryName());
+            if (e.getLocLat() != null)
+                out.name("locLat").value(e.getLocLat());
+            if (e.getLocLng() != null)
+                out.name("locLng").value(e.getLocLng());
+            out.name("interval").value(e.getInterval());
+            if (e.getIntervalType() != null)
+                out.name("intervalType").value(e.getIntervalType().name());
+            out.name("startTime").value(e.getStartTimeMillis());
+            if (e.getEndTimeMillis() != Entry.NO_TIME)
+                out.name("endTime").value(e.getEndTimeMillis());
+            if (e.getIntervalEndTimeMillis() != Entry.NO_TIME)
+                out.name("intervalEndTime").value(e.getIntervalEndTimeMillis());
+            if (e.getParent() != null) {
+                out.name("parent");
+                write(out, e.getParent());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Entry read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            long id = Entry.NO_ID;
+            BigDecimal value = null;
+            String purpose = null, category = null;
+            Float locLat = null, locLng = null;
+            int interval = 0;
+            Entry.IntervalType intervalType = null;
+            Date startTime = null;
+            long endTime = Entry.NO_TIME, intervalEndTime = Entry.NO_TIME;
+            Entry parent = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "id":
+                        id = in.nextLong();
+                        break;
+                    case "value":
+                        value = readDecimal(in);
+                        break;
+                    case "purpose":
+                        purpose = in.nextString();
+                        break;
+                    case "category":
+                        category = in.nextString();
+                        break;
+                    case "locLat":
+                        locLat = (float) in.nextDouble();
+                        break;
+                    case "locLng":
+                        locLng = (float) in.nextDouble();
+                        break;
+                    case "interval":
+                        interval = in.nextInt();
+                        break;
+                    case "intervalType":
+                        intervalType = readEnum(in, Entry.IntervalType.class);
+                        break;
+                    case "startTime":
+                        startTime = readDate(in);
+                        break;
+                    case "endTime":
+                        endTime = readDate(in).getTime();
+                        break;
+                    case "intervalEndTime":
+                        intervalEndTime = readDate(in).getTime();
+                        break;
+                    case "parent":
+                        parent = read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (value == null || startTime == null || category == null)
+                throw new JsonParseException("Entry requires a value, a start time and a category");
+            try {
+                Entry.Builder b = new Entry.Builder(value, startTime, category)
+                        .setId(id)
+                        .setPurpose(purpose)
+                        .setLngLat(locLng, locLat)
+                        .setEndTime(endTime)
+                        .setParent(parent);
+                if (intervalType != null)
+                    b.setInterval(intervalType, interval, intervalEndTime);
+                return b.build();
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException(e);
+            }
+        }
+    };
+
+    public static final TypeAdapter<BudgetChangedListener.LogItem> LOG_ITEM = new TypeAdapter<BudgetChangedListener.LogItem>() {
+        @Override
+        public void write(JsonWriter out, BudgetChangedListener.LogItem item) throws IOException {
+            if (item == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (item.getDate() != null)
+                out.name("date").value(item.getDate().getTime());
+            if (item.getCategoryName() != null)
+                out.name("categoryName").value(item.getCategoryName());
+            if (item.getBugget() != null)
+                out.name("bugget").value(item.getBugget());
+            if (item.getPreviousBudget() != null)
+                out.name("previousBudget").value(item.getPreviousBudget());
+            out.endObject();
+        }
+
+        @Override
+        public BudgetChangedListener.LogItem read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            BudgetChangedListener.LogItem item = new BudgetChangedListener.LogItem();
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "date":
+                        item.setDate(readDate(in));
+                        break;
+                    case "categoryName":
+                        item.setCategoryName(in.nextString());
+                        break;
+                    case "bugget":
+                        item.setBugget(readDecimal(in));
+                        break;
+                    case "previousBudget":
+                        item.setPreviousBudget(readDecimal(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return item;
+        }
+    };
+
+    private static final Gson GSON = register(new GsonBuilder()).create();
+
+    private static BigDecimal readDecimal(JsonReader in) throws IOException {
+        String s = in.nextString();
+        try {
+            return new BigDecimal(s);
+        } catch (NumberFormatException e) {
+            throw new JsonParseException("Not a decimal: " + s, e);
+        }
+    }
+
+    private static <E extends Enum<E>> E readEnum(JsonReader in, Class<E> type) throws IOException {
+        String s = in.nextString();
+        try {
+            return Enum.valueOf(type, s);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException("Unknown " + type.getSimpleName() + ": " + s, e);
+        }
+    }
+
+    private static Date readDate(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (in.peek() == JsonToken.NUMBER)
+            return new Date(in.nextLong());
+        return parseLegacyDate(in.nextString());
+    }
+
+    /**
+     * Parses dates written by Gson's default adapter, which uses the US format and, on older versions,
+     * the format of the default locale.
+     */
+    private static Date parseLegacyDate(String s) {
+        DateFormat[] formats = {
+                DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US),
+                DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT)
+        };
+        for (DateFormat format : formats) {
+            try {
+                return format.parse(s);
+            } catch (ParseException ignored) {
+            }
+        }
+        try {
+            return new Date(Long.parseLong(s));
+        } catch (NumberFormatException e) {
+            throw new JsonParseException("Not a date: " + s, e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package at.jku.win.ss15.pjse.backend;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * The formats records can be stored in. Records of both formats can be told apart by their first byte,
+ * so {@link #decode(byte[], Class)} reads either of them regardless of the format currently selected for writing.
+ */
+public enum RecordCodec {
+    /**
+     * The JSON representation created by the shared {@link GsonAdapters#getGson() Gson} instance
+     */
+    JSON {
+        @Override
+        public byte[] encode(Object record) throws IOException {
+            return GsonAdapters.getGson().toJson(record).getBytes(UTF8);
+        }
+    },
+    /**
+     * The compact representation created by {@link BinaryRecordCodec}
+     */
+    BINARY {
+        @Override
+        public byte[] encode(Object record) throws IOException {
+            return BinaryRecordCodec.encode(record);
+        }
+    };
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * @param record the record to be encoded
+     * @return the encoded record
+     * @throws IOException if the record could not be encoded
+     */
+    public abstract byte[] encode(Object record) throws IOException;
+
+    /**
+     * Decodes a record encoded by any of the codecs.
+     *
+     * @param data   the encoded record
+     * @param tClass the type of the record
+     * @return the decoded record
+     * @throws IOException if the record could not be decoded
+     */
+    public static <T> T decode(byte[] data, Class<T> tClass) throws IOException {
+        if (data.length > 0 && (data[0] & 0xFF) == BinaryRecordCodec.VERSION)
+            return BinaryRecordCodec.decode(data, tClass);
+        return GsonAdapters.getGson().fromJson(new String(data, UTF8), tClass);
+    }
+}
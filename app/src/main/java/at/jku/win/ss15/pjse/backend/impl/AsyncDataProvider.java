@@ -0,0 +1,350 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.DataProvider.DataProviderException;
+import at.jku.win.ss15.pjse.backend.Entries;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+/**
+ * Runs the operations of a {@link DataProvider} on a background thread, so storage access and
+ * parsing never block the UI thread. Every operation returns a {@link Future} and optionally
+ * reports its outcome to a {@link Callback}, which is invoked on the main looper.
+ * <p>
+ * By default the operations run one after another on a single worker thread with a bounded queue,
+ * so they take effect in the order they were submitted and reads see all writes submitted before.
+ * If the queue is full, a {@link java.util.concurrent.RejectedExecutionException} is thrown.
+ */
+public class AsyncDataProvider {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * Receives the outcome of an operation on the main looper
+     *
+     * @param <T> the type of the result
+     */
+    public interface Callback<T> {
+        /**
+         * @param result the result of the operation, NULL for operations without result
+         */
+        void onResult(T result);
+
+        /**
+         * @param e the exception raised by the operation
+         */
+        void onError(DataProviderException e);
+    }
+
+    private interface Operation<T> {
+        T run(DataProvider provider) throws DataProviderException;
+    }
+
+    private static AsyncDataProvider instance = null;
+
+    /**
+     * @return the application wide instance wrapping {@link DataProviderImpl#getInstance(Context)},
+     * which is created by the first operation, as opening it may access storage
+     */
+    public static synchronized AsyncDataProvider getInstance(Context context) {
+        if (instance == null) {
+            final Context app = context.getApplicationContext();
+            instance = new AsyncDataProvider(new Callable<DataProvider>() {
+                @Override
+                public DataProvider call() {
+                    return DataProviderImpl.getInstance(app);
+                }
+            }, newWorker(), new Handler(Looper.getMainLooper()));
+        }
+        return instance;
+    }
+
+    /**
+     * Creates the delegate if it has not been created yet
+     */
+    private final Callable<? extends DataProvider> factory;
+    private volatile DataProvider delegate;
+    private final ExecutorService executor;
+    private final Handler handler;
+
+    /**
+     * Creates a facade using a dedicated worker thread and the main looper.
+     *
+     * @param delegate the provider performing the operations
+     */
+    public AsyncDataProvider(DataProvider delegate) {
+        this(delegate, newWorker(), new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * @param delegate the provider performing the operations
+     * @param executor the executor running the operations
+     * @param handler  the handler callbacks are posted to
+     */
+    public AsyncDataProvider(DataProvider delegate, ExecutorService executor, Handler handler) {
+        if (delegate == null)
+            throw new NullPointerException("delegate must not be NULL");
+        this.factory = null;
+        this.delegate = delegate;
+        this.executor = executor;
+        this.handler = handler;
+    }
+
+    private AsyncDataProvider(Callable<? extends DataProvider> factory, ExecutorService executor, Handler handler) {
+        this.factory = factory;
+        this.executor = executor;
+        this.handler = handler;
+    }
+
+    private static ExecutorService newWorker() {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AsyncDataProvider");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return the wrapped provider, which must not be used on the UI thread
+     * @throws DataProviderException if the provider could not be created
+     */
+    public DataProvider getDelegate() throws DataProviderException {
+        DataProvider provider = delegate;
+        if (provider == null)
+            synchronized (this) {
+                if (delegate == null)
+                    try {
+                        delegate = factory.call();
+                    } catch (Exception e) {
+                        throw toDataProviderException(e);
+                    }
+                provider = delegate;
+            }
+        return provider;
+    }
+
+    /**
+     * Stops accepting operations. Operations already submitted are still performed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private <T> Future<T> submit(final Operation<T> operation, final Callback<? super T> callback) {
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return operation.run(getDelegate());
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (callback != null && !isCancelled())
+                    deliver(this, callback);
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    private <T> void deliver(Future<T> future, final Callback<? super T> callback) {
+        Runnable delivery;
+        try {
+            final T result = future.get();
+            delivery = new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            };
+        } catch (ExecutionException e) {
+            final DataProviderException error = toDataProviderException(e.getCause());
+            delivery = new Runnable() {
+                @Override
+                public void run() {
+                    callback.onError(error);
+                }
+            };
+        } catch (InterruptedException | CancellationException e) {
+            return;
+        }
+        handler.post(delivery);
+    }
+
+    private static DataProviderException toDataProviderException(Throwable t) {
+        if (t instanceof DataProviderException)
+            return (DataProviderException) t;
+        if (t instanceof Exception)
+            return new DataProviderException("Operation failed!", (Exception) t);
+        throw (Error) t;
+    }
+
+    public Future<List<Category>> getAllCategories(Callback<? super List<Category>> callback) {
+        return submit(new Operation<List<Category>>() {
+            @Override
+            public List<Category> run(DataProvider provider) throws DataProviderException {
+                return provider.getAllCategories();
+            }
+        }, callback);
+    }
+
+    public Future<List<Entry>> getAllEntries(final String categoryName, Callback<? super List<Entry>> callback) {
+        return submit(new Operation<List<Entry>>() {
+            @Override
+            public List<Entry> run(DataProvider provider) throws DataProviderException {
+                return provider.getAllEntries(categoryName);
+            }
+        }, callback);
+    }
+
+    public Future<List<Entry>> getAllEntries(Category category, Callback<? super List<Entry>> callback) {
+        return getAllEntries(category.getName(), callback);
+    }
+
+    public Future<List<Entry>> getEntries(final String categoryName, final Date from, final Date to, Callback<? super List<Entry>> callback) {
+        return submit(new Operation<List<Entry>>() {
+            @Override
+            public List<Entry> run(DataProvider provider) throws DataProviderException {
+                return provider.getEntries(categoryName, from, to);
+            }
+        }, callback);
+    }
+
+    public Future<Category> getCategory(final String name, Callback<? super Category> callback) {
+        return submit(new Operation<Category>() {
+            @Override
+            public Category run(DataProvider provider) throws DataProviderException {
+                return provider.getCategory(name);
+            }
+        }, callback);
+    }
+
+    public Future<Entry> getEntry(final long id, Callback<? super Entry> callback) {
+        return submit(new Operation<Entry>() {
+            @Override
+            public Entry run(DataProvider provider) throws DataProviderException {
+                return provider.getEntry(id);
+            }
+        }, callback);
+    }
+
+    public Future<Void> addCategory(final Category c, Callback<? super Void> callback) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(DataProvider provider) throws DataProviderException {
+                provider.addCategory(c);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> removeCategory(Category c, Callback<? super Void> callback) {
+        return removeCategory(c.getName(), callback);
+    }
+
+    public Future<Void> removeCategory(final String categoryName, Callback<? super Void> callback) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(DataProvider provider) throws DataProviderException {
+                provider.removeCategory(categoryName);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> updateCategory(final Category c, Callback<? super Void> callback) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(DataProvider provider) throws DataProviderException {
+                provider.updateCategory(c);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Entry> addEntry(final Entry e, Callback<? super Entry> callback) {
+        return submit(new Operation<Entry>() {
+            @Override
+            public Entry run(DataProvider provider) throws DataProviderException {
+                return provider.addEntry(e);
+            }
+        }, callback);
+    }
+
+    public Future<Void> removeEntry(final Entry e, Callback<? super Void> callback) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(DataProvider provider) throws DataProviderException {
+                provider.removeEntry(e);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Entry> updateEntry(final Entry oldEntry, final Entry newEntry, Callback<? super Entry> callback) {
+        return submit(new Operation<Entry>() {
+            @Override
+            public Entry run(DataProvider provider) throws DataProviderException {
+                return provider.updateEntry(oldEntry, newEntry);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see DataProvider#batch(DataProvider.Batch)
+     */
+    public Future<Void> batch(final DataProvider.Batch batch, Callback<? super Void> callback) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(DataProvider provider) throws DataProviderException {
+                provider.batch(batch);
+                return null;
+            }
+        }, callback);
+    }
+
+    public Future<Void> reset(Callback<? super Void> callback) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void run(DataProvider provider) throws DataProviderException {
+                provider.reset();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * @see Entries#availableBudgets(DataProvider, Date, Date)
+     */
+    public Future<Map<Category, BigDecimal>> availableBudgets(final Date from, final Date to, Callback<? super Map<Category, BigDecimal>> callback) {
+        return submit(new Operation<Map<Category, BigDecimal>>() {
+            @Override
+            public Map<Category, BigDecimal> run(DataProvider provider) throws DataProviderException {
+                return Entries.availableBudgets(provider, from, to);
+            }
+        }, callback);
+    }
+}
@@ -0,0 +1,226 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import at.jku.win.ss15.pjse.backend.BudgetChangedListener;
+
+/**
+ * Delivers budget changes to {@link BudgetChangedListener}s on a background thread, so slow
+ * listeners do not hold up the provider changing the budget.
+ * <p>
+ * Changes are queued in a bounded ring buffer and delivered in batches. A change to a category
+ * whose previous change is still queued is merged into it, keeping the old budget of the first
+ * and the time and new budget of the last change. The worker waits {@code coalesceMillis} after
+ * the first queued change before taking a batch, so bursts of updates result in one event.
+ * If the buffer is full, {@link #budgetChanged} blocks until the worker has taken the next batch.
+ * <p>
+ * The listeners are kept in a copy-on-write array, so registering and delivering need no lock.
+ */
+public class BudgetChangeDispatcher {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_COALESCE_MILLIS = 50;
+
+    private static final BudgetChangedListener[] NO_LISTENERS = new BudgetChangedListener[0];
+
+    private static final class Event {
+        final String category;
+        final BigDecimal from;
+        Date time;
+        BigDecimal to;
+
+        Event(String category, Date time, BigDecimal from, BigDecimal to) {
+            this.category = category;
+            this.time = time;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final AtomicReference<BudgetChangedListener[]> listeners = new AtomicReference<>(NO_LISTENERS);
+    private final long coalesceMillis;
+
+    private final Object lock = new Object();
+    private final Event[] ring;
+    private final Map<String, Event> queued = new HashMap<>();
+    private int head = 0, size = 0;
+    private boolean delivering = false, closed = false;
+    private Thread worker = null;
+
+    public BudgetChangeDispatcher() {
+        this(DEFAULT_CAPACITY, DEFAULT_COALESCE_MILLIS);
+    }
+
+    /**
+     * @param capacity       the maximum number of queued changes
+     * @param coalesceMillis the time in milliseconds to wait for further changes before delivering
+     */
+    public BudgetChangeDispatcher(int capacity, long coalesceMillis) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.ring = new Event[capacity];
+        this.coalesceMillis = Math.max(0, coalesceMillis);
+    }
+
+    public void addListener(BudgetChangedListener l) {
+        if (l == null)
+            throw new NullPointerException("listener must not be NULL");
+        BudgetChangedListener[] current, updated;
+        do {
+            current = listeners.get();
+            updated = new BudgetChangedListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = l;
+        } while (!listeners.compareAndSet(current, updated));
+    }
+
+    public void removeListener(BudgetChangedListener l) {
+        BudgetChangedListener[] current, updated;
+        do {
+            current = listeners.get();
+            int i = current.length - 1;
+            while (i >= 0 && !current[i].equals(l))
+                i--;
+            if (i < 0)
+                return;
+            updated = new BudgetChangedListener[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, i);
+            System.arraycopy(current, i + 1, updated, i, updated.length - i);
+        } while (!listeners.compareAndSet(current, updated));
+    }
+
+    public boolean hasListeners() {
+        return listeners.get().length > 0;
+    }
+
+    /**
+     * Queues a budget change. Changes are dropped if no listener is registered
+     * or the dispatcher is closed.
+     *
+     * @param c    the name of the category
+     * @param time the time of the change
+     * @param from the old budget's value
+     * @param to   the updated budget's value
+     */
+    public void budgetChanged(String c, Date time, BigDecimal from, BigDecimal to) {
+        if (!hasListeners())
+            return;
+        synchronized (lock) {
+            if (closed)
+                return;
+            Event pending = queued.get(c);
+            if (pending != null) {
+                pending.time = time;
+                pending.to = to;
+                return;
+            }
+            while (size == ring.length && !closed)
+                waitUninterruptibly();
+            if (closed)
+                return;
+            Event e = new Event(c, time, from, to);
+            ring[(head + size) % ring.length] = e;
+            size++;
+            queued.put(c, e);
+            if (worker == null) {
+                worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverLoop();
+                    }
+                }, "BudgetChangeDispatcher");
+                worker.setDaemon(true);
+                worker.start();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until all changes queued so far have been delivered.
+     */
+    public void flush() {
+        synchronized (lock) {
+            while ((size > 0 || delivering) && worker != null && worker.isAlive())
+                waitUninterruptibly();
+        }
+    }
+
+    /**
+     * Delivers the queued changes and stops the background thread. Further changes are dropped.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        flush();
+    }
+
+    private void waitUninterruptibly() {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Event> takeBatch() throws InterruptedException {
+        synchronized (lock) {
+            while (size == 0 && !closed)
+                lock.wait();
+            if (size == 0)
+                return null;
+            long deadline = System.currentTimeMillis() + coalesceMillis, remaining = coalesceMillis;
+            while (remaining > 0 && size < ring.length && !closed) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            List<Event> batch = new ArrayList<>(size);
+            for (; size > 0; size--) {
+                batch.add(ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+            }
+            queued.clear();
+            delivering = true;
+            lock.notifyAll();
+            return batch;
+        }
+    }
+
+    private void deliverLoop() {
+        try {
+            List<Event> batch;
+            while ((batch = takeBatch()) != null) {
+                BudgetChangedListener[] current = listeners.get();
+                for (Event e : batch)
+                    for (BudgetChangedListener l : current) {
+                        try {
+                            l.budgetChanged(e.category, e.time, e.from, e.to);
+                        } catch (RuntimeException ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                synchronized (lock) {
+                    delivering = false;
+                    lock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (lock) {
+                delivering = false;
+                worker = null;
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.jku.win.ss15.pjse.backend.BudgetChangedListener.LogItem;
+
+/**
+ * An append-only log of budget changes. Every change is appended to a file, while an in-memory
+ * index keeps the changes of each category sorted by time, so range queries cost a binary search
+ * plus the number of changes returned. When opened, the file is read to rebuild the index; a torn
+ * record at its end (e.g. after a crash) is cut off.
+ * <p>
+ * Changes older than the retention time are removed by {@link #compact()}, which rewrites the file
+ * and also runs whenever a log with a limited retention time is opened.
+ * The last change before the retention time is kept for each category, so the budget in force at
+ * that time stays known.
+ * <p>
+ * Record layout (see {@link RecordFile}): {@code length (int) | crc32 of payload (int) | payload}, where the payload is
+ * {@code time (long) | category (UTF) | flags (byte) | previous budget (UTF) | budget (UTF)} and
+ * the budgets are only present if flagged.
+ */
+public class BudgetChangeLog implements Closeable {
+
+    public static final long KEEP_FOREVER = Long.MAX_VALUE;
+
+    private static final int HAS_FROM = 1;
+    private static final int HAS_TO = 1 << 1;
+
+    /**
+     * The changes of one category, sorted by time and in order of appending for equal times
+     */
+    private static class History {
+        long[] times = new long[8];
+        BigDecimal[] from = new BigDecimal[8];
+        BigDecimal[] to = new BigDecimal[8];
+        int size = 0;
+
+        void add(long time, BigDecimal f, BigDecimal t) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            int i = size == 0 || times[size - 1] <= time ? size : firstAfter(time);
+            System.arraycopy(times, i, times, i + 1, size - i);
+            System.arraycopy(from, i, from, i + 1, size - i);
+            System.arraycopy(to, i, to, i + 1, size - i);
+            times[i] = time;
+            from[i] = f;
+            to[i] = t;
+            size++;
+        }
+
+        /**
+         * @return the index of the first change after the given time
+         */
+        int firstAfter(long time) {
+            int low = 0, high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * @return the index of the first change at or after the given time
+         */
+        int firstAtOrAfter(long time) {
+            return time == Long.MIN_VALUE ? 0 : firstAfter(time - 1);
+        }
+
+        void removeFirst(int count) {
+            System.arraycopy(times, count, times, 0, size - count);
+            System.arraycopy(from, count, from, 0, size - count);
+            System.arraycopy(to, count, to, 0, size - count);
+            Arrays.fill(from, size - count, size, null);
+            Arrays.fill(to, size - count, size, null);
+            size -= count;
+        }
+    }
+
+    private static final Comparator<LogItem> BY_DATE = new Comparator<LogItem>() {
+        @Override
+        public int compare(LogItem lhs, LogItem rhs) {
+            return lhs.getDate().compareTo(rhs.getDate());
+        }
+    };
+
+    private final long retentionMillis;
+    private final Map<String, History> histories = new LinkedHashMap<>();
+    private final RecordFile records;
+    private int size = 0;
+    private boolean closed = false;
+
+    /**
+     * Opens a log keeping all changes.
+     *
+     * @param file the file holding the log or NULL to keep the changes in memory only
+     * @throws IOException if the file could not be read
+     */
+    public BudgetChangeLog(File file) throws IOException {
+        this(file, KEEP_FOREVER);
+    }
+
+    /**
+     * @param file            the file holding the log or NULL to keep the changes in memory only
+     * @param retentionMillis the time in milliseconds changes are kept by {@link #compact()}
+     * @throws IOException if the file could not be read
+     */
+    public BudgetChangeLog(File file, long retentionMillis) throws IOException {
+        if (retentionMillis <= 0)
+            throw new IllegalArgumentException("retentionMillis must be greater than zero");
+        this.retentionMillis = retentionMillis;
+        if (file != null) {
+            records = new RecordFile(file);
+            records.replay(new RecordFile.Reader() {
+                @Override
+                public void read(long offset, byte[] payload) throws IOException {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                    long time = in.readLong();
+                    String category = in.readUTF();
+                    int flags = in.readByte();
+                    BigDecimal from = (flags & HAS_FROM) != 0 ? new BigDecimal(in.readUTF()) : null;
+                    BigDecimal to = (flags & HAS_TO) != 0 ? new BigDecimal(in.readUTF()) : null;
+                    index(category, time, from, to);
+                }
+            });
+        } else
+            records = null;
+        if (retentionMillis != KEEP_FOREVER)
+            compact();
+    }
+
+    private void index(String category, long time, BigDecimal from, BigDecimal to) {
+        History history = histories.get(category);
+        if (history == null)
+            histories.put(category, history = new History());
+        history.add(time, from, to);
+        size++;
+    }
+
+    private static byte[] encodeRecord(String category, long time, BigDecimal from, BigDecimal to) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(time);
+        out.writeUTF(category);
+        out.writeByte((from != null ? HAS_FROM : 0) | (to != null ? HAS_TO : 0));
+        if (from != null)
+            out.writeUTF(from.toString());
+        if (to != null)
+            out.writeUTF(to.toString());
+        return RecordFile.frame(payload.toByteArray());
+    }
+
+    /**
+     * Appends a change.
+     *
+     * @param category the name of the category
+     * @param time     the time of the change
+     * @param from     the old budget's value
+     * @param to       the updated budget's value
+     * @throws IOException if the change could not be written
+     */
+    public synchronized void append(String category, Date time, BigDecimal from, BigDecimal to) throws IOException {
+        if (category == null)
+            throw new NullPointerException("category must not be NULL");
+        if (closed)
+            throw new IOException("Log is closed!");
+        if (records != null)
+            records.append(encodeRecord(category, time.getTime(), from, to));
+        index(category, time.getTime(), from, to);
+    }
+
+    /**
+     * @see at.jku.win.ss15.pjse.backend.BudgetChangedListener#getChanges(String, Date, Date, int)
+     */
+    public synchronized List<LogItem> getChanges(String category, Date from, Date to, int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        long f = from == null ? Long.MIN_VALUE : from.getTime(), t = to == null ? Long.MAX_VALUE : to.getTime();
+        List<LogItem> result = new ArrayList<>();
+        if (category != null) {
+            History history = histories.get(category);
+            if (history != null)
+                collect(category, history, f, t, limit, result);
+            return result;
+        }
+        // each category contributes at most limit changes plus the ones sharing the last one's time, the earliest are returned
+        for (Map.Entry<String, History> h : histories.entrySet())
+            collect(h.getKey(), h.getValue(), f, t, limit, result);
+        Collections.sort(result, BY_DATE);
+        if (result.size() <= limit || limit == 0)
+            return result;
+        int end = limit;
+        Date last = result.get(limit - 1).getDate();
+        while (end < result.size() && result.get(end).getDate().equals(last))
+            end++;
+        return new ArrayList<>(result.subList(0, end));
+    }
+
+    /**
+     * Collects up to limit changes, continuing with the changes sharing the time of the last one.
+     */
+    private static void collect(String category, History history, long from, long to, int limit, List<LogItem> result) {
+        int start = history.firstAtOrAfter(from), end = to == Long.MAX_VALUE ? history.size : history.firstAfter(to);
+        if (limit == 0 || start >= end)
+            return;
+        if (end - start > limit)
+            end = Math.min(end, history.firstAfter(history.times[start + limit - 1]));
+        for (int i = start; i < end; i++)
+            result.add(toLogItem(category, history, i));
+    }
+
+    private static LogItem toLogItem(String category, History history, int i) {
+        LogItem item = new LogItem();
+        item.setCategoryName(category);
+        item.setDate(new Date(history.times[i]));
+        item.setPreviousBudget(history.from[i]);
+        item.setBugget(history.to[i]);
+        return item;
+    }
+
+    /**
+     * @return all changes ordered by their time
+     */
+    public synchronized List<LogItem> getAllChanges() {
+        return getChanges(null, null, null, size);
+    }
+
+    /**
+     * @return the names of all categories with changes
+     */
+    public synchronized List<String> getCategoryNames() {
+        return new ArrayList<>(histories.keySet());
+    }
+
+    /**
+     * @return the number of changes
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes the changes older than the retention time, except the last one of each category,
+     * and rewrites the file without them.
+     *
+     * @throws IOException if the file could not be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        if (retentionMillis != KEEP_FOREVER) {
+            long cutoff = System.currentTimeMillis() - retentionMillis;
+            for (History history : histories.values()) {
+                int expired = history.firstAtOrAfter(cutoff) - 1;
+                if (expired > 0) {
+                    history.removeFirst(expired);
+                    size -= expired;
+                }
+            }
+        }
+        if (closed)
+            throw new IOException("Log is closed!");
+        if (records == null)
+            return;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (Map.Entry<String, History> h : histories.entrySet()) {
+            History history = h.getValue();
+            for (int i = 0; i < history.size; i++)
+                buffer.write(encodeRecord(h.getKey(), history.times[i], history.from[i], history.to[i]));
+        }
+        records.rewrite(buffer.toByteArray());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (records != null)
+            records.close();
+    }
+}
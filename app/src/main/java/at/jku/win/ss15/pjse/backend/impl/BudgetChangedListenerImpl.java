@@ -4,9 +4,9 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -20,12 +20,6 @@ import at.jku.win.ss15.pjse.backend.DataProvider;
  */
 public class BudgetChangedListenerImpl implements BudgetChangedListener {
 
-    private SharedPreferences settings;
-
-    private SharedPreferences.Editor getEditor() {
-        return settings.edit();
-    }
-
     public DataProvider addBudgetChangedListenerIfNoneAdded(DataProvider dataProvider, Activity a) {
         dataProvider.addBudgetChangedListener(getInstance(a));
         return dataProvider;
@@ -59,42 +53,112 @@ public class BudgetChangedListenerImpl implements BudgetChangedListener {
         return getInstance(activity.getApplicationContext());
     }
 
+    /**
+     * Name of the file holding the change log inside the app's files directory
+     */
+    public static final String LOG_FILE = "budget-changes.log";
+    /**
+     * The time in milliseconds changes are kept in the log by default, i.e. five years.
+     * The last change before is kept for each category, so its budget at that time stays known.
+     */
+    public static final long DEFAULT_RETENTION_MILLIS = 5 * 365 * 24 * 60 * 60 * 1000L;
+    private static final String LEGACY_PREFERENCES = "categoryBudgetChanged";
+
+    private final BudgetChangeLog log;
+
+    /**
+     * Opens the change log in the app's files directory, keeping changes for
+     * {@link #DEFAULT_RETENTION_MILLIS}.
+     *
+     * @see #BudgetChangedListenerImpl(Context, long)
+     */
     public BudgetChangedListenerImpl(Context context) {
-        this(context.getSharedPreferences("categoryBudgetChanged", 0));
+        this(context, DEFAULT_RETENTION_MILLIS);
     }
 
+    /**
+     * Opens the change log in the app's files directory and moves changes which were kept in the
+     * preferences by older versions into it.
+     *
+     * @param retentionMillis the time in milliseconds changes are kept or {@link BudgetChangeLog#KEEP_FOREVER}
+     */
+    public BudgetChangedListenerImpl(Context context, long retentionMillis) {
+        this(openLog(new File(context.getFilesDir(), LOG_FILE), retentionMillis));
+        migrate(context.getSharedPreferences(LEGACY_PREFERENCES, 0), true);
+    }
+
+    /**
+     * Keeps the changes in memory only, starting with the changes stored in the preferences.
+     *
+     * @deprecated use {@link #BudgetChangedListenerImpl(Context)} to persist the changes
+     */
+    @Deprecated
     public BudgetChangedListenerImpl(SharedPreferences preferences) {
-        settings = preferences;
+        this(openLog(null, BudgetChangeLog.KEEP_FOREVER));
+        migrate(preferences, false);
     }
 
-    @Override
-    public void budgetChanged(String category, Date time, BigDecimal from, BigDecimal to) {
-        LogItem item = new LogItem();
-        item.setBugget(to);
-        item.setCategoryName(category);
-        item.setDate(time);
-        // getEditor().putString(Long.toString(time.getTime()), to.toString()).apply();
+    public BudgetChangedListenerImpl(BudgetChangeLog log) {
+        if (log == null)
+            throw new NullPointerException("log must not be NULL");
+        this.log = log;
+    }
+
+    private static BudgetChangeLog openLog(File file, long retentionMillis) {
+        try {
+            return new BudgetChangeLog(file, retentionMillis);
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                return new BudgetChangeLog(null);
+            } catch (IOException cannotHappen) {
+                throw new IllegalStateException(cannotHappen);
+            }
+        }
+    }
+
+    private void migrate(SharedPreferences preferences, boolean clear) {
+        Map<String, ?> all = preferences.getAll();
+        if (all.isEmpty())
+            return;
+        try {
+            for (Object o : all.values()) {
+                if (!(o instanceof String))
+                    continue;
+                LogItem item = GsonHelper.deseralizeObject((String) o, LogItem.class);
+                if (item != null && item.getCategoryName() != null && item.getDate() != null)
+                    log.append(item.getCategoryName(), item.getDate(), item.getPreviousBudget(), item.getBugget());
+            }
+            if (clear)
+                preferences.edit().clear().apply();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * This method is rather expensive
-     *
-     * @return
+     * @return the log holding the changes
      */
+    public BudgetChangeLog getLog() {
+        return log;
+    }
+
     @Override
-    public List<LogItem> getAllChanges() throws UnsupportedOperationException {
-        Map<String, ?> all = settings.getAll();
-        List<LogItem> logItems = new ArrayList<>();
-        String s;
-        for (Object o : all.values()) {
-            if (!(o instanceof String))
-                throw new UnsupportedOperationException(String.format("o should be of type %s but is %s. Error in log save!", String.class, o.getClass()));
-            try {
-                logItems.add(GsonHelper.deseralizeObject((String) o, LogItem.class));
-            } catch (IOException | ClassNotFoundException e) {
-                throw new UnsupportedOperationException("Log is untidy!", e);
-            }
+    public void budgetChanged(String category, Date time, BigDecimal from, BigDecimal to) {
+        try {
+            log.append(category, time, from, to);
+        } catch (IOException e) {
+            throw new IllegalStateException("Change could not be logged!", e);
         }
-        return Collections.unmodifiableList(logItems);
+    }
+
+    @Override
+    public List<LogItem> getAllChanges() throws UnsupportedOperationException {
+        return Collections.unmodifiableList(log.getAllChanges());
+    }
+
+    @Override
+    public List<LogItem> getChanges(String category, Date from, Date to, int limit) throws UnsupportedOperationException {
+        return Collections.unmodifiableList(log.getChanges(category, from, to, limit));
     }
 }
@@ -0,0 +1,253 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+import at.jku.win.ss15.pjse.backend.EntryTimeIndex;
+
+/**
+ * Keeps the deserialized categories and entries of another {@link DataProvider} in memory.
+ * Entries are cached per category. Every write is passed through to the wrapped provider
+ * and afterwards drops exactly the cached data it affects, so the next read loads it again.
+ * <p>
+ * As {@link Category} objects can be modified, copies of the cached categories are returned.
+ * {@link Entry} objects are immutable and therefore shared.
+ */
+public class CachingDataProvider extends ForwardingDataProvider {
+
+    private final Map<String, Category> categories = new HashMap<>();
+    private final Map<String, List<Entry>> entries = new HashMap<>();
+    private final Map<String, EntryTimeIndex> timeIndexes = new HashMap<>();
+    private List<String> categoryNames = null;
+    /**
+     * Incremented on every invalidation. Data loaded while a write happened is not cached.
+     */
+    private long generation = 0;
+
+    public CachingDataProvider(DataProvider delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public List<Category> getAllCategories() throws DataProviderException {
+        List<Category> result = new ArrayList<>();
+        synchronized (this) {
+            if (categoryNames != null) {
+                for (String name : categoryNames)
+                    result.add(copy(categories.get(name)));
+                return Collections.unmodifiableList(result);
+            }
+        }
+        long g = generation();
+        List<Category> loaded = delegate.getAllCategories();
+        synchronized (this) {
+            if (g == generation) {
+                List<String> names = new ArrayList<>(loaded.size());
+                for (Category c : loaded) {
+                    categories.put(c.getName(), copy(c));
+                    names.add(c.getName());
+                }
+                categoryNames = names;
+            }
+        }
+        for (Category c : loaded)
+            result.add(copy(c));
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public List<Entry> getAllEntries(String categoryName) throws DataProviderException {
+        synchronized (this) {
+            List<Entry> cached = entries.get(categoryName);
+            if (cached != null)
+                return cached;
+        }
+        long g = generation();
+        List<Entry> loaded = Collections.unmodifiableList(new ArrayList<>(delegate.getAllEntries(categoryName)));
+        synchronized (this) {
+            if (g == generation)
+                entries.put(categoryName, loaded);
+        }
+        return loaded;
+    }
+
+    @Override
+    public List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException {
+        EntryTimeIndex timeIndex;
+        synchronized (this) {
+            timeIndex = timeIndexes.get(categoryName);
+        }
+        if (timeIndex == null) {
+            long g = generation();
+            List<Entry> all = getAllEntries(categoryName);
+            timeIndex = new EntryTimeIndex();
+            for (int i = 0; i < all.size(); i++)
+                timeIndex.put(Integer.toString(i), all.get(i));
+            synchronized (this) {
+                if (g == generation)
+                    timeIndexes.put(categoryName, timeIndex);
+            }
+        }
+        return Collections.unmodifiableList(timeIndex.query(from, to));
+    }
+
+    @Override
+    public Category getCategory(String name) throws DataProviderException {
+        synchronized (this) {
+            Category cached = categories.get(name);
+            if (cached != null)
+                return copy(cached);
+        }
+        long g = generation();
+        Category loaded = delegate.getCategory(name);
+        if (loaded != null) {
+            synchronized (this) {
+                if (g == generation)
+                    categories.put(name, copy(loaded));
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public void addCategory(Category c) throws DataProviderException {
+        try {
+            delegate.addCategory(c);
+        } finally {
+            invalidateCategory(c.getName());
+        }
+    }
+
+    @Override
+    public void removeCategory(String categoryName) throws DataProviderException {
+        try {
+            delegate.removeCategory(categoryName);
+        } finally {
+            invalidateCategory(categoryName);
+        }
+    }
+
+    @Override
+    public void updateCategory(Category c) throws DataProviderException {
+        try {
+            delegate.updateCategory(c);
+        } finally {
+            synchronized (this) {
+                generation++;
+                categories.remove(c.getName());
+                categoryNames = null;
+            }
+        }
+    }
+
+    @Override
+    public Entry addEntry(Entry e) throws DataProviderException {
+        try {
+            return delegate.addEntry(e);
+        } finally {
+            invalidateEntries(e.getCategoryName());
+        }
+    }
+
+    @Override
+    public void removeEntry(Entry e) throws DataProviderException {
+        String stored = storedCategoryOf(e);
+        try {
+            delegate.removeEntry(e);
+        } finally {
+            invalidateEntries(e.getCategoryName());
+            if (stored != null)
+                invalidateEntries(stored);
+        }
+    }
+
+    @Override
+    public Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        String stored = storedCategoryOf(oldEntry);
+        try {
+            return delegate.updateEntry(oldEntry, newEntry);
+        } finally {
+            invalidateEntries(oldEntry.getCategoryName());
+            invalidateEntries(newEntry.getCategoryName());
+            if (stored != null)
+                invalidateEntries(stored);
+        }
+    }
+
+    /**
+     * An entry is removed by its id, so the stored version may belong to another category than the given copy.
+     */
+    private String storedCategoryOf(Entry e) throws DataProviderException {
+        if (e.getId() == Entry.NO_ID)
+            return null;
+        Entry stored = delegate.getEntry(e.getId());
+        return stored == null ? null : stored.getCategoryName();
+    }
+
+    @Override
+    public void reset() throws DataProviderException {
+        try {
+            delegate.reset();
+        } finally {
+            invalidate();
+        }
+    }
+
+    /**
+     * Reads within the batch may cache its own modifications. If the batch fails, all cached
+     * data is dropped, as the wrapped provider may have rolled them back.
+     */
+    @Override
+    public void batch(Batch batch) throws DataProviderException {
+        boolean finished = false;
+        try {
+            super.batch(batch);
+            finished = true;
+        } finally {
+            if (!finished)
+                invalidate();
+        }
+    }
+
+    /**
+     * Drops all cached data, e.g. if the underlying storage has been modified by someone else.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        categories.clear();
+        entries.clear();
+        timeIndexes.clear();
+        categoryNames = null;
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized void invalidateCategory(String name) {
+        generation++;
+        categories.remove(name);
+        entries.remove(name);
+        timeIndexes.remove(name);
+        categoryNames = null;
+    }
+
+    private synchronized void invalidateEntries(String categoryName) {
+        generation++;
+        entries.remove(categoryName);
+        timeIndexes.remove(categoryName);
+    }
+
+    private static Category copy(Category c) {
+        Category copy = new Category(c.getName(), c.getCurrency());
+        copy.setBudget(c.getBudget());
+        return copy;
+    }
+}
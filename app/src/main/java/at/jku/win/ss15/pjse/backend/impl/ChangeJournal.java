@@ -0,0 +1,286 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import at.jku.win.ss15.pjse.backend.DataChanges;
+
+/**
+ * Assigns change sequence numbers and keeps the latest one of each modified category and entry,
+ * so the changes after a sequence number cost a lookup in a sorted map plus the number of changes.
+ * Every change is appended to a file, which is read to rebuild the index when opened; a torn
+ * record at its end (e.g. after a crash) is cut off. Once the file holds considerably more records
+ * than modified keys, it is rewritten with the latest change of each key only.
+ * <p>
+ * A reset forgets all keys, as they were all modified, and only its sequence number is kept.
+ * <p>
+ * A modification whose keys are only known once it is done is announced by {@link #begin()} before
+ * and recorded by {@link #end(long, Collection)} afterwards. If it is not recorded, e.g. because the
+ * application crashed in between, it is reported as a reset, so no change is ever left out.
+ * <p>
+ * Record layout (see {@link RecordFile}): {@code length (int) | crc32 of payload (int) | payload}, where the payload is
+ * {@code sequence (long) | type (byte) | key}, the key being the category name (UTF) or the entry
+ * id (long) and absent for resets as well as for the records beginning and ending a modification.
+ */
+public class ChangeJournal implements Closeable {
+
+    private static final byte CATEGORY = 0;
+    private static final byte ENTRY = 1;
+    private static final byte RESET = 2;
+    private static final byte BEGIN = 3;
+    private static final byte END = 4;
+    private static final int MIN_RECORDS_TO_COMPACT = 1024;
+
+    /**
+     * The modified keys by their latest sequence number, category names as strings and entry ids as longs
+     */
+    private final TreeMap<Long, Object> bySequence = new TreeMap<>();
+    private final Map<Object, Long> sequences = new HashMap<>();
+    /**
+     * The sequence numbers of the modifications begun but not yet recorded
+     */
+    private final TreeSet<Long> pending = new TreeSet<>();
+    private long sequence = 0;
+    private long resetSequence = 0;
+    private final RecordFile file;
+    private int records = 0;
+    private boolean closed = false;
+
+    /**
+     * @param file the file holding the journal or NULL to keep it in memory only
+     * @throws IOException if the file could not be read
+     */
+    public ChangeJournal(File file) throws IOException {
+        if (file == null) {
+            this.file = null;
+            return;
+        }
+        this.file = new RecordFile(file);
+        this.file.replay(new RecordFile.Reader() {
+            @Override
+            public void read(long offset, byte[] payload) throws IOException {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                long seq = in.readLong();
+                byte type = in.readByte();
+                if (type == BEGIN)
+                    begun(seq);
+                else if (type == END)
+                    ended(seq);
+                else if (type == RESET)
+                    index(seq, null);
+                else
+                    index(seq, type == CATEGORY ? in.readUTF() : (Object) in.readLong());
+            }
+        });
+        if (!pending.isEmpty())
+            // the keys of these modifications were never recorded
+            write(Collections.singletonList(null), new ArrayList<>(pending));
+    }
+
+    private void begun(long seq) {
+        sequence = Math.max(sequence, seq);
+        records++;
+        pending.add(seq);
+    }
+
+    private void ended(long seq) {
+        sequence = Math.max(sequence, seq);
+        records++;
+        pending.remove(seq);
+    }
+
+    /**
+     * @param key the modified key or NULL for a reset
+     */
+    private void index(long seq, Object key) {
+        sequence = Math.max(sequence, seq);
+        records++;
+        if (key == null) {
+            resetSequence = seq;
+            bySequence.clear();
+            sequences.clear();
+            return;
+        }
+        Long previous = sequences.put(key, seq);
+        if (previous != null)
+            bySequence.remove(previous);
+        bySequence.put(seq, key);
+    }
+
+    private static byte[] encodeRecord(long seq, Object key) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(seq);
+        if (key == null) {
+            out.writeByte(RESET);
+        } else if (key instanceof String) {
+            out.writeByte(CATEGORY);
+            out.writeUTF((String) key);
+        } else {
+            out.writeByte(ENTRY);
+            out.writeLong((Long) key);
+        }
+        return RecordFile.frame(payload.toByteArray());
+    }
+
+    private static byte[] encodeMarker(long seq, byte type) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(seq);
+        out.writeByte(type);
+        return RecordFile.frame(payload.toByteArray());
+    }
+
+    /**
+     * Assigns the next sequence number to each of the keys.
+     *
+     * @param keys category names as strings, entry ids as longs and NULL for a reset
+     * @throws IOException if the changes could not be written
+     */
+    public synchronized void modified(Collection<?> keys) throws IOException {
+        write(keys, Collections.<Long>emptyList());
+    }
+
+    /**
+     * Announces a modification, which has to be recorded by {@link #end(long, Collection)}
+     * once it is done.
+     *
+     * @return the sequence number identifying the modification
+     * @throws IOException if the modification could not be announced
+     */
+    public synchronized long begin() throws IOException {
+        if (closed)
+            throw new IOException("Journal is closed!");
+        long seq = sequence + 1;
+        if (file != null)
+            file.append(encodeMarker(seq, BEGIN));
+        begun(seq);
+        return seq;
+    }
+
+    /**
+     * Assigns the next sequence number to each of the keys modified by a modification announced by
+     * {@link #begin()}. If they cannot be written, a reset is reported from now on instead.
+     *
+     * @param seq  the sequence number returned by {@link #begin()}
+     * @param keys category names as strings, entry ids as longs and NULL for a reset
+     * @throws IOException if the changes could not be written
+     */
+    public synchronized void end(long seq, Collection<?> keys) throws IOException {
+        try {
+            write(keys, Collections.singletonList(seq));
+        } catch (IOException e) {
+            // the file still holds the beginning of the modification, so it is reported as reset after a restart as well
+            pending.remove(seq);
+            index(sequence + 1, null);
+            throw e;
+        }
+    }
+
+    /**
+     * @param keys  the modified keys
+     * @param ended the sequence numbers of the modifications ended by the keys
+     */
+    private void write(Collection<?> keys, Collection<Long> ended) throws IOException {
+        if (closed)
+            throw new IOException("Journal is closed!");
+        if (keys.isEmpty() && ended.isEmpty())
+            return;
+        if (file != null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            long seq = sequence;
+            for (Object key : keys)
+                buffer.write(encodeRecord(++seq, key));
+            for (long begun : ended)
+                buffer.write(encodeMarker(begun, END));
+            file.append(buffer.toByteArray());
+        }
+        for (Object key : keys)
+            index(sequence + 1, key);
+        for (long begun : ended)
+            ended(begun);
+        if (records >= MIN_RECORDS_TO_COMPACT && records > 2 * (sequences.size() + pending.size()))
+            compact();
+    }
+
+    /**
+     * Assigns the next sequence number to a reset, which modifies all keys.
+     *
+     * @throws IOException if the reset could not be written
+     */
+    public void reset() throws IOException {
+        modified(Collections.singletonList(null));
+    }
+
+    /**
+     * @see DataChanges.Source#getSequence()
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @see DataChanges.Source#changesSince(long)
+     */
+    public synchronized DataChanges changesSince(long since) {
+        List<String> categoryNames = new ArrayList<>();
+        List<Long> entryIds = new ArrayList<>();
+        // a sequence number beyond the current one was issued by another journal, e.g. before the file was lost
+        boolean reset = since < resetSequence || since > sequence;
+        if (!reset)
+            for (Object key : bySequence.tailMap(since, false).values()) {
+                if (key instanceof String)
+                    categoryNames.add((String) key);
+                else
+                    entryIds.add((Long) key);
+            }
+        return new DataChanges(since, sequence, reset, categoryNames, entryIds);
+    }
+
+    /**
+     * Rewrites the file with the latest change of each key, preceded by the last reset and the
+     * modifications not yet recorded, and followed by the current sequence number.
+     *
+     * @throws IOException if the file could not be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        if (closed)
+            throw new IOException("Journal is closed!");
+        records = sequences.size() + pending.size() + (resetSequence > 0 ? 2 : 1);
+        if (file == null)
+            return;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        if (resetSequence > 0)
+            buffer.write(encodeRecord(resetSequence, null));
+        for (long seq : pending)
+            buffer.write(encodeMarker(seq, BEGIN));
+        for (Map.Entry<Long, Object> e : bySequence.entrySet())
+            buffer.write(encodeRecord(e.getKey(), e.getValue()));
+        // keeps the sequence number of a modification which did not modify any key
+        if (!pending.contains(sequence))
+            buffer.write(encodeMarker(sequence, END));
+        file.rewrite(buffer.toByteArray());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (file != null)
+            file.close();
+    }
+}
@@ -0,0 +1,255 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataChanges;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+/**
+ * A decorator assigning a change sequence number to every modification, which is recorded in a
+ * {@link ChangeJournal}. Each modification is announced to the journal before it is performed and
+ * its keys are recorded afterwards, so a modification which could not be recorded (e.g. because the
+ * application crashed in between) is reported as a reset rather than left out. The keys modified by
+ * a batch are recorded once the batch is finished, as they may not be written before.
+ * <p>
+ * Entries are tracked by their id. Removing an entry without id (i.e. a legacy entry of
+ * {@link DataProviderImpl}) is recorded as a reset, which marks all data as modified.
+ */
+public class ChangeTrackingDataProvider extends ForwardingDataProvider implements DataChanges.Source, Closeable {
+
+    private final ChangeJournal journal;
+    /**
+     * The modification of the batch running on the current thread, NULL if there is none
+     */
+    private final ThreadLocal<Modification> batchModification = new ThreadLocal<>();
+
+    public ChangeTrackingDataProvider(DataProvider delegate, ChangeJournal journal) {
+        super(delegate);
+        if (journal == null)
+            throw new NullPointerException("journal must not be NULL");
+        this.journal = journal;
+    }
+
+    public ChangeJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public long getSequence() {
+        return journal.getSequence();
+    }
+
+    @Override
+    public DataChanges changesSince(long sequence) {
+        return journal.changesSince(sequence);
+    }
+
+    /**
+     * The keys modified by a single operation or a batch
+     */
+    private class Modification {
+        final long sequence;
+        final List<Object> keys = new ArrayList<>();
+
+        Modification(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * @param key the category name, the entry id or NULL for a reset
+         */
+        void add(Object key) {
+            keys.add(key);
+        }
+
+        void addEntry(long entryId) {
+            add(entryId != Entry.NO_ID ? (Object) entryId : null);
+        }
+
+        /**
+         * Records the keys. Those of a failed modification are recorded as well, as it may have been
+         * performed partially; as the failure is reported already, a failure to record them is not.
+         *
+         * @param finished whether the modification succeeded
+         */
+        void end(boolean finished) throws DataProviderException {
+            try {
+                journal.end(sequence, keys);
+            } catch (IOException e) {
+                if (finished)
+                    throw new DataProviderException("Changes could not be recorded!", e);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return a new modification announced to the journal or, within a batch, the batch's modification
+     */
+    private Modification begin() throws DataProviderException {
+        Modification batch = batchModification.get();
+        if (batch != null)
+            return batch;
+        try {
+            return new Modification(journal.begin());
+        } catch (IOException e) {
+            throw new DataProviderException("Change could not be recorded!", e);
+        }
+    }
+
+    /**
+     * Ends a modification returned by {@link #begin()}, unless it belongs to the running batch.
+     */
+    private void end(Modification m, boolean finished) throws DataProviderException {
+        if (m != batchModification.get())
+            m.end(finished);
+    }
+
+    /**
+     * @return the id of the stored entry, looked up by content if the given entry has none
+     */
+    private long idOf(Entry e) throws DataProviderException {
+        if (e.getId() != Entry.NO_ID)
+            return e.getId();
+        for (Entry stored : delegate.getAllEntries(e.getCategoryName()))
+            if (stored.equals(e))
+                return stored.getId();
+        return Entry.NO_ID;
+    }
+
+    @Override
+    public void addCategory(Category c) throws DataProviderException {
+        Modification m = begin();
+        boolean finished = false;
+        try {
+            m.add(c.getName());
+            delegate.addCategory(c);
+            finished = true;
+        } finally {
+            end(m, finished);
+        }
+    }
+
+    /**
+     * Records the category's entries as modified as well, as providers may remove them along with it.
+     */
+    @Override
+    public void removeCategory(String categoryName) throws DataProviderException {
+        Modification m = begin();
+        boolean finished = false;
+        try {
+            m.add(categoryName);
+            for (Entry e : delegate.getAllEntries(categoryName))
+                m.addEntry(e.getId());
+            delegate.removeCategory(categoryName);
+            finished = true;
+        } finally {
+            end(m, finished);
+        }
+    }
+
+    @Override
+    public void updateCategory(Category c) throws DataProviderException {
+        Modification m = begin();
+        boolean finished = false;
+        try {
+            m.add(c.getName());
+            delegate.updateCategory(c);
+            finished = true;
+        } finally {
+            end(m, finished);
+        }
+    }
+
+    @Override
+    public Entry addEntry(Entry e) throws DataProviderException {
+        Modification m = begin();
+        boolean finished = false;
+        try {
+            if (e.getId() != Entry.NO_ID)
+                m.addEntry(e.getId());
+            Entry stored = delegate.addEntry(e);
+            if (e.getId() == Entry.NO_ID)
+                m.addEntry(stored.getId());
+            finished = true;
+            return stored;
+        } finally {
+            end(m, finished);
+        }
+    }
+
+    @Override
+    public void removeEntry(Entry e) throws DataProviderException {
+        Modification m = begin();
+        boolean finished = false;
+        try {
+            m.addEntry(idOf(e));
+            delegate.removeEntry(e);
+            finished = true;
+        } finally {
+            end(m, finished);
+        }
+    }
+
+    @Override
+    public Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        Modification m = begin();
+        boolean finished = false;
+        try {
+            long id = idOf(oldEntry);
+            m.addEntry(id);
+            Entry stored = delegate.updateEntry(oldEntry, newEntry);
+            if (stored.getId() != id)
+                m.addEntry(stored.getId());
+            finished = true;
+            return stored;
+        } finally {
+            end(m, finished);
+        }
+    }
+
+    @Override
+    public void reset() throws DataProviderException {
+        Modification m = begin();
+        boolean finished = false;
+        try {
+            m.add(null);
+            delegate.reset();
+            finished = true;
+        } finally {
+            end(m, finished);
+        }
+    }
+
+    @Override
+    public void batch(Batch batch) throws DataProviderException {
+        if (batchModification.get() != null) {
+            super.batch(batch);
+            return;
+        }
+        Modification m = begin();
+        batchModification.set(m);
+        boolean finished = false;
+        try {
+            super.batch(batch);
+            finished = true;
+        } finally {
+            batchModification.remove();
+            m.end(finished);
+        }
+    }
+
+    /**
+     * Closes the journal, but not the delegate.
+     */
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
@@ -4,77 +4,312 @@ import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.os.Build;
+import android.util.Base64;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import at.jku.win.ss15.pjse.backend.BudgetChangedListener;
 import at.jku.win.ss15.pjse.backend.Category;
 import at.jku.win.ss15.pjse.backend.DataProvider;
 import at.jku.win.ss15.pjse.backend.Entry;
+import at.jku.win.ss15.pjse.backend.EntryTimeIndex;
+import at.jku.win.ss15.pjse.backend.RecordCodec;
 
 @TargetApi(Build.VERSION_CODES.KITKAT)
 public class DataProviderImpl implements DataProvider {
 
-    private static DataProvider instance = null;
+    private static volatile DataProvider instance = null;
 
     public static DataProvider getInstance(Activity a) {
         return getInstance(a.getApplicationContext());
     }
 
-    public static DataProvider getInstance(Context context) {
-        if (instance == null)
-            instance = new DataProviderImpl(context);
+    /**
+     * Returns the application wide provider, which is backed by a SQLite database and assigns
+     * change sequence numbers (see {@link ChangeTrackingDataProvider}).
+     * Data still stored by the former {@link SharedPreferences} based implementation
+     * is moved into the database on first access.
+     * In debuggable builds, the provider is monitored by a {@link StorageAccessMonitor}.
+     * <p>
+     * As creating the provider accesses storage, it should be called off the UI thread,
+     * e.g. through {@link AsyncDataProvider}.
+     */
+    public static synchronized DataProvider getInstance(Context context) {
+        if (instance == null) {
+            DataProvider provider = new SQLiteDataProviderImpl(context);
+            ChangeJournal journal = openChangeJournal(context);
+            if (journal != null)
+                provider = new ChangeTrackingDataProvider(provider, journal);
+            try {
+                new DataProviderImpl(context).migrateTo(provider);
+            } catch (DataProviderException e) {
+                e.printStackTrace();
+            }
+            if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0)
+                provider = new StorageAccessMonitor(provider);
+            instance = provider;
+        }
+        return instance;
+    }
+
+    private static final String CHANGE_JOURNAL = "changes.journal";
+    /**
+     * Marks that the changes of a session could not be recorded, as the journal was not available
+     */
+    private static final String UNTRACKED_CHANGES = "changes.untracked";
+
+    /**
+     * Opens the change journal. If it is not available, the changes of this session cannot be tracked,
+     * which is marked by a file, so the journal records a reset once it is available again.
+     *
+     * @return the journal or {@code null} if it is not available
+     * @throws IllegalStateException if neither the journal nor the mark is available, as changes would be lost
+     */
+    private static ChangeJournal openChangeJournal(Context context) {
+        File untracked = new File(context.getFilesDir(), UNTRACKED_CHANGES);
+        ChangeJournal journal = null;
+        try {
+            journal = new ChangeJournal(new File(context.getFilesDir(), CHANGE_JOURNAL));
+            if (untracked.exists()) {
+                journal.reset();
+                // if the mark cannot be deleted, another reset is recorded on the next start, which is harmless
+                untracked.delete();
+            }
+            return journal;
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (journal != null)
+                try {
+                    journal.close();
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+        }
+        try {
+            if (untracked.exists() || untracked.createNewFile())
+                return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Changes can neither be recorded nor marked as untracked", e);
+        }
+        throw new IllegalStateException("Changes can neither be recorded nor marked as untracked");
+    }
+
+    /**
+     * Returns the application wide provider without creating it, so it may be called on the UI thread.
+     *
+     * @return the provider or {@code null} if it has not been created yet
+     */
+    public static DataProvider peekInstance() {
         return instance;
     }
 
-    public static DataProvider getInstance(SharedPreferences a, SharedPreferences b, SharedPreferences c) {
+    public static synchronized DataProvider getInstance(SharedPreferences a, SharedPreferences b, SharedPreferences c) {
         if (instance == null)
             instance = new DataProviderImpl(a, b, c);
         return instance;
     }
 
+    /**
+     * Creates a provider independent of the application wide instance, e.g. for benchmarks.
+     */
+    public static DataProvider create(SharedPreferences categories, SharedPreferences entries, SharedPreferences catEntRef) {
+        return new DataProviderImpl(categories, entries, catEntRef);
+    }
+
     private static final String CATEGORIES = "CATEGORIES";
+    /**
+     * Entries are stored under their id behind this prefix, legacy entries under the hex hash code of their content
+     */
+    private static final String ID_PREFIX = "#";
+    /**
+     * Key of the entry store holding the end of the block of reserved ids
+     */
+    private static final String NEXT_ID = "NEXT_ID";
+    private static final long ID_BLOCK = 64;
 
     private DataProviderImpl(Context a) {
         this(a.getSharedPreferences("cat", 0), a.getSharedPreferences("ent", 0), a.getSharedPreferences("catEnt", 0));
     }
 
     private DataProviderImpl(SharedPreferences cat, SharedPreferences entries, SharedPreferences catEntRef) {
-        catSettings = cat;
-        entSettings = entries;
-        catEntRelation = catEntRef;
+        catSettings = new Store(cat);
+        entSettings = new Store(entries);
+        catEntRelation = new Store(catEntRef);
     }
 
-    private final SharedPreferences catSettings, entSettings, catEntRelation;
-
-    private SharedPreferences.Editor getCategoryEditor() {
-        return catSettings.edit();
+    private final Store catSettings, entSettings, catEntRelation;
+
+    /**
+     * Time indexes of the categories queried by {@link #getEntries(String, Date, Date)}.
+     * Every write of an entry updates the index of its category in place.
+     */
+    private final Map<String, EntryTimeIndex> timeIndexes = new HashMap<>();
+    /**
+     * Incremented on every write of an entry. An index built while an entry was written is not kept.
+     */
+    private long timeIndexGeneration = 0;
+
+    /**
+     * Updates the time index of the category, if it has been built already.
+     *
+     * @param key the key the entry is stored under
+     * @param e   the written entry or {@code null} if it has been removed
+     */
+    private void updateTimeIndex(String categoryName, String key, Entry e) {
+        synchronized (timeIndexes) {
+            timeIndexGeneration++;
+            EntryTimeIndex index = timeIndexes.get(categoryName);
+            if (index != null)
+                synchronized (index) {
+                    if (e == null)
+                        index.remove(key);
+                    else
+                        index.put(key, e);
+                }
+        }
     }
 
-    private SharedPreferences.Editor getEntryEditor() {
-        return entSettings.edit();
+    private void invalidateTimeIndexes() {
+        synchronized (timeIndexes) {
+            timeIndexGeneration++;
+            timeIndexes.clear();
+        }
     }
 
-    private SharedPreferences.Editor getCategoryEntryEditor() {
-        return catEntRelation.edit();
+    /**
+     * Wraps one of the {@link SharedPreferences} files. Outside of a batch every modification is
+     * applied right away. Within a batch, modifications are collected and applied by a single
+     * {@link SharedPreferences.Editor} when the batch is flushed, while reads already see them.
+     * If the batch fails, they are discarded.
+     */
+    private static class Store {
+        private static final Object REMOVED = new Object();
+
+        final SharedPreferences preferences;
+        private Map<String, Object> pending = null;
+        private boolean cleared;
+
+        Store(SharedPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        private Object getPending(String key) {
+            if (pending == null)
+                return null;
+            Object o = pending.get(key);
+            if (o == null && cleared)
+                return REMOVED;
+            return o;
+        }
+
+        String getString(String key) {
+            Object o = getPending(key);
+            if (o == REMOVED)
+                return null;
+            if (o != null)
+                return (String) o;
+            return preferences.getString(key, null);
+        }
+
+        /**
+         * Within a batch, a set written before is returned as is rather than copied, so adding
+         * many elements to it one at a time stays linear. Modifications have to be written by
+         * {@link #putStringSet(String, Set)} nevertheless.
+         *
+         * @return the stored set, which may be modified
+         */
+        @SuppressWarnings("unchecked")
+        Set<String> getStringSet(String key) {
+            Object o = getPending(key);
+            if (o == REMOVED)
+                return new HashSet<>();
+            if (o != null)
+                return (Set<String>) o;
+            return new HashSet<>(preferences.getStringSet(key, Collections.<String>emptySet()));
+        }
+
+        void putString(String key, String value) {
+            if (pending != null)
+                pending.put(key, value);
+            else
+                preferences.edit().putString(key, value).apply();
+        }
+
+        void putStringSet(String key, Set<String> value) {
+            if (pending != null)
+                pending.put(key, value);
+            else
+                preferences.edit().putStringSet(key, value).apply();
+        }
+
+        void remove(String key) {
+            if (pending != null)
+                pending.put(key, REMOVED);
+            else
+                preferences.edit().remove(key).apply();
+        }
+
+        void clear() {
+            if (pending != null) {
+                pending.clear();
+                cleared = true;
+            } else
+                preferences.edit().clear().apply();
+        }
+
+        void begin() {
+            pending = new HashMap<>();
+            cleared = false;
+        }
+
+        /**
+         * Drops the modifications collected since {@link #begin()}.
+         */
+        void discard() {
+            pending = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        void flush() {
+            if (pending.isEmpty() && !cleared) {
+                pending = null;
+                return;
+            }
+            SharedPreferences.Editor editor = preferences.edit();
+            if (cleared)
+                editor.clear();
+            for (Map.Entry<String, Object> e : pending.entrySet()) {
+                if (e.getValue() == REMOVED)
+                    editor.remove(e.getKey());
+                else if (e.getValue() instanceof Set)
+                    editor.putStringSet(e.getKey(), (Set<String>) e.getValue());
+                else
+                    editor.putString(e.getKey(), (String) e.getValue());
+            }
+            pending = null;
+            editor.apply();
+        }
     }
 
     @Override
     public List<Category> getAllCategories() throws DataProviderException {
         List<Category> list = new LinkedList<>();
-        Set<String> set = catSettings.getStringSet(CATEGORIES, Collections.<String>emptySet());
+        Set<String> set = catSettings.getStringSet(CATEGORIES);
         for (String s : set) {
             try {
-                list.add(GsonHelper.deseralizeObject(catSettings.getString(s, null), Category.class));
+                list.add(decode(catSettings.getString(s), Category.class));
             } catch (IOException | ClassNotFoundException e) {
                 e.printStackTrace();
             }
@@ -85,10 +320,10 @@ public class DataProviderImpl implements DataProvider {
     @Override
     public List<Entry> getAllEntries(String categoryName) throws DataProviderException {
         List<Entry> entries = new LinkedList<>();
-        Set<String> set = catEntRelation.getStringSet(categoryName, Collections.<String>emptySet());
+        Set<String> set = catEntRelation.getStringSet(categoryName);
         for (String s : set) {
             try {
-                entries.add(GsonHelper.deseralizeObject(entSettings.getString(s, null), Entry.class));
+                entries.add(decode(entSettings.getString(s), Entry.class));
             } catch (IOException | ClassNotFoundException e) {
                 e.printStackTrace();
             }
@@ -96,10 +331,41 @@ public class DataProviderImpl implements DataProvider {
         return Collections.unmodifiableList(entries);
     }
 
+    @Override
+    public List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException {
+        EntryTimeIndex index;
+        long generation;
+        synchronized (timeIndexes) {
+            index = timeIndexes.get(categoryName);
+            generation = timeIndexGeneration;
+        }
+        if (index == null) {
+            index = new EntryTimeIndex();
+            Set<String> set = catEntRelation.getStringSet(categoryName);
+            for (String s : set) {
+                try {
+                    Entry e = decode(entSettings.getString(s), Entry.class);
+                    // removed in the meantime, the index is not kept then
+                    if (e != null)
+                        index.put(s, e);
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (timeIndexes) {
+                if (generation == timeIndexGeneration)
+                    timeIndexes.put(categoryName, index);
+            }
+        }
+        synchronized (index) {
+            return Collections.unmodifiableList(index.query(from, to));
+        }
+    }
+
     @Override
     public Category getCategory(String name) throws DataProviderException {
         try {
-            return GsonHelper.deseralizeObject(catSettings.getString(name, null), Category.class);
+            return decode(catSettings.getString(name), Category.class);
         } catch (ClassNotFoundException | IOException e) {
             e.printStackTrace();
             return null;
@@ -111,42 +377,39 @@ public class DataProviderImpl implements DataProvider {
         return getAllEntries(category.getName());
     }
 
-    List<BudgetChangedListener> budgetChangedListeners = null;
+    final BudgetChangeDispatcher budgetChangeDispatcher = new BudgetChangeDispatcher();
+
+    /**
+     * Blocks until all budget changes made so far have been delivered to the listeners.
+     */
+    public void flushBudgetChanges() {
+        budgetChangeDispatcher.flush();
+    }
 
     @Override
     public void addBudgetChangedListener(BudgetChangedListener l) {
-        if (budgetChangedListeners == null)
-            budgetChangedListeners = new ArrayList<>();
-        budgetChangedListeners.add(l);
+        budgetChangeDispatcher.addListener(l);
     }
 
     @Override
     public void removeBudgetChangedListener(BudgetChangedListener l) {
-        if (budgetChangedListeners != null)
-            budgetChangedListeners.remove(l);
+        budgetChangeDispatcher.removeListener(l);
     }
 
     @Override
     public void addCategory(Category c) throws DataProviderException {
         if (c.getName().equals(CATEGORIES))
             throw new DataProviderException("This name is not supported");
-        SharedPreferences.Editor editor = getCategoryEditor();
+        Set<String> allCategories = catSettings.getStringSet(CATEGORIES);
+        if (allCategories.contains(c.getName()))
+            throw new DataProviderException("A category with this name already exists!");
         try {
-            Set<String> allCategories = catSettings.getStringSet(CATEGORIES, null);
-            if (allCategories == null) {
-                allCategories = new HashSet<>();
-            }
-            if (allCategories.contains(c.getName()))
-                throw new DataProviderException("A category with this name already exists!");
-
-            editor.putString(c.getName(), GsonHelper.seralizeObject(c));
-            allCategories.add(c.getName());
-            editor.putStringSet(CATEGORIES, allCategories);
+            catSettings.putString(c.getName(), encode(c));
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            editor.apply();
+            throw new DataProviderException("Category could not be added!", e);
         }
+        allCategories.add(c.getName());
+        catSettings.putStringSet(CATEGORIES, allCategories);
     }
 
 
@@ -157,68 +420,284 @@ public class DataProviderImpl implements DataProvider {
 
     @Override
     public void removeCategory(String categoryName) throws DataProviderException {
-        Set<String> set = catSettings.getStringSet(CATEGORIES, Collections.<String>emptySet());
-        set.remove(getCategory(categoryName));
-
-        getCategoryEditor().remove(categoryName).putStringSet(CATEGORIES, set).apply();
+        Set<String> set = catSettings.getStringSet(CATEGORIES);
+        set.remove(categoryName);
+        catSettings.remove(categoryName);
+        catSettings.putStringSet(CATEGORIES, set);
     }
 
     @Override
     public void updateCategory(Category c) throws DataProviderException {
         Category old;
         try {
-            old = GsonHelper.deseralizeObject(catSettings.getString(c.getName(), null), Category.class);
+            old = decode(catSettings.getString(c.getName()), Category.class);
         } catch (IOException | ClassNotFoundException | ClassCastException e) {
             throw new DataProviderException("Category not found!", e);
         }
+        if (old == null)
+            throw new DataProviderException("Category not found!");
         try {
-            getCategoryEditor().putString(c.getName(), GsonHelper.seralizeObject(c)).apply();
+            catSettings.putString(c.getName(), encode(c));
         } catch (IOException e) {
             throw new DataProviderException("Update could not be performed!");
         }
         BigDecimal bo = old.getBudget(), bn = c.getBudget();
         Date now = new Date(System.currentTimeMillis());
-        for (BudgetChangedListener l : budgetChangedListeners)
-            l.budgetChanged(c.getName(), now, bo, bn);
+        budgetChangeDispatcher.budgetChanged(c.getName(), now, bo, bn);
+
+    }
 
+    @Override
+    public Entry getEntry(long id) throws DataProviderException {
+        try {
+            return decode(entSettings.getString(ID_PREFIX + id), Entry.class);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new DataProviderException("Entry could not be read!", e);
+        }
     }
 
     @Override
-    public void addEntry(Entry e) throws DataProviderException {
-        String id = getIDfrom(e);
-        if (entSettings.getString(id, null) != null)
+    public Entry addEntry(Entry e) throws DataProviderException {
+        if (e.getId() != Entry.NO_ID && entSettings.getString(ID_PREFIX + e.getId()) != null)
             throw new DataProviderException("This entry already exists in the database");
+        Entry stored = e.setId(assignId(e.getId()));
+        String key = ID_PREFIX + stored.getId();
         try {
-            getEntryEditor().putString(id, GsonHelper.seralizeObject(e)).apply();
+            entSettings.putString(key, encode(stored));
         } catch (IOException e1) {
             throw new DataProviderException("Entry could not be added!", e1);
         }
+        Set<String> keys = catEntRelation.getStringSet(stored.getCategoryName());
+        keys.add(key);
+        catEntRelation.putStringSet(stored.getCategoryName(), keys);
+        updateTimeIndex(stored.getCategoryName(), key, stored);
+        return stored;
     }
 
     @Override
     public void removeEntry(Entry e) throws DataProviderException {
-        getEntryEditor().remove(getIDfrom(e)).apply();
+        if (e.getParent() != null)
+            throw new DataProviderException("Occurrences of repeating entries cannot be removed!");
+        Entry stored = find(e);
+        if (stored != null)
+            remove(stored);
+    }
+
+    @Override
+    public Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        if (oldEntry.getParent() != null)
+            throw new DataProviderException("Occurrences of repeating entries cannot be updated!");
+        Entry stored = find(oldEntry);
+        if (stored != null)
+            remove(stored);
+        long id = stored != null && stored.getId() != Entry.NO_ID ? stored.getId() : newEntry.getId();
+        return addEntry(newEntry.setId(id));
+    }
+
+    /**
+     * Looks up the stored version of an entry, by its id or, if it has none, by its content.
+     *
+     * @return the stored entry or {@code null} if it is not stored
+     */
+    private Entry find(Entry e) throws DataProviderException {
+        if (e.getId() != Entry.NO_ID)
+            return getEntry(e.getId());
+        try {
+            Entry legacy = decode(entSettings.getString(getIDfrom(e)), Entry.class);
+            if (legacy != null)
+                return legacy;
+            for (String key : catEntRelation.getStringSet(e.getCategoryName())) {
+                Entry stored = decode(entSettings.getString(key), Entry.class);
+                if (e.equals(stored))
+                    return stored;
+            }
+        } catch (IOException | ClassNotFoundException e1) {
+            throw new DataProviderException("Entry could not be read!", e1);
+        }
+        return null;
+    }
+
+    private void remove(Entry stored) {
+        String key = stored.getId() != Entry.NO_ID ? ID_PREFIX + stored.getId() : getIDfrom(stored);
+        entSettings.remove(key);
+        Set<String> keys = catEntRelation.getStringSet(stored.getCategoryName());
+        if (keys.remove(key))
+            catEntRelation.putStringSet(stored.getCategoryName(), keys);
+        updateTimeIndex(stored.getCategoryName(), key, null);
     }
 
+    /**
+     * The next entry id and the end of the block of ids reserved in the entry store, loaded on first use
+     */
+    private long nextId = Entry.NO_ID, reservedId;
+
+    private void loadIds() {
+        if (nextId != Entry.NO_ID)
+            return;
+        String reserved = entSettings.getString(NEXT_ID);
+        nextId = reservedId = reserved == null ? 1 : Long.parseLong(reserved);
+    }
+
+    /**
+     * Hands out the given id or, if it is {@link Entry#NO_ID}, the next one. Ids are reserved
+     * in blocks, so the counter is only written once per block.
+     */
+    private synchronized long assignId(long requested) {
+        loadIds();
+        long id = requested == Entry.NO_ID ? nextId : requested;
+        nextId = Math.max(nextId, id + 1);
+        if (nextId > reservedId) {
+            reservedId = nextId + ID_BLOCK;
+            entSettings.putString(NEXT_ID, Long.toString(reservedId));
+        }
+        return id;
+    }
+
+    private boolean inBatch = false;
+
+    /**
+     * Collects all modifications of the batch and writes each of the three stores once
+     * it has finished. If the batch fails, none of its modifications are written.
+     */
     @Override
-    public void updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
-        removeEntry(oldEntry);
-        addEntry(newEntry);
+    public synchronized void batch(Batch batch) throws DataProviderException {
+        if (inBatch) {
+            batch.run(this);
+            return;
+        }
+        inBatch = true;
+        catSettings.begin();
+        entSettings.begin();
+        catEntRelation.begin();
+        boolean finished = false;
+        try {
+            batch.run(this);
+            finished = true;
+        } finally {
+            inBatch = false;
+            if (finished) {
+                catSettings.flush();
+                entSettings.flush();
+                catEntRelation.flush();
+            } else {
+                catSettings.discard();
+                entSettings.discard();
+                catEntRelation.discard();
+                // the reservation of ids may have been discarded as well
+                nextId = Entry.NO_ID;
+                invalidateTimeIndexes();
+            }
+        }
     }
 
     @Override
     public void reset() throws DataProviderException {
-        getEntryEditor().clear().apply();
-        getCategoryEditor().clear().apply();
-        getCategoryEntryEditor().clear().apply();
+        synchronized (this) {
+            loadIds();
+            entSettings.clear();
+            // ids are not reused after a reset either
+            entSettings.putString(NEXT_ID, Long.toString(reservedId));
+        }
+        catSettings.clear();
+        catEntRelation.clear();
+        invalidateTimeIndexes();
     }
 
     @Override
     public boolean hasListeners() {
-        return budgetChangedListeners != null && !budgetChangedListeners.isEmpty();
+        return budgetChangeDispatcher.hasListeners();
     }
 
 
+    /**
+     * Copies all categories and entries into the given provider within a single batch and clears
+     * the own stores afterwards, unless a record could not be copied. Records the target already
+     * holds are skipped, so an interrupted migration is completed on the next attempt.
+     *
+     * @param target the provider receiving the data
+     * @throws DataProviderException if raised by the target
+     */
+    private void migrateTo(DataProvider target) throws DataProviderException {
+        final List<Category> categories = getAllCategories();
+        if (categories.isEmpty())
+            return;
+        final boolean[] complete = {true};
+        target.batch(new Batch() {
+            @Override
+            public void run(DataProvider target) throws DataProviderException {
+                Map<String, Set<Entry>> existing = new HashMap<>();
+                for (Category c : categories) {
+                    if (c == null)
+                        // a stale name without record
+                        continue;
+                    if (target.getCategory(c.getName()) == null)
+                        target.addCategory(c);
+                    existing.put(c.getName(), new HashSet<>(target.getAllEntries(c.getName())));
+                }
+                for (Map.Entry<String, ?> o : entSettings.preferences.getAll().entrySet()) {
+                    if (o.getKey().equals(NEXT_ID))
+                        continue;
+                    try {
+                        Entry e = decode((String) o.getValue(), Entry.class);
+                        Set<Entry> stored = existing.get(e.getCategoryName());
+                        if (stored == null)
+                            // the category could not be read, so the entry is kept as well
+                            complete[0] = false;
+                        else if (!stored.contains(e))
+                            target.addEntry(e);
+                    } catch (IOException | ClassNotFoundException | ClassCastException | DataProviderException e) {
+                        e.printStackTrace();
+                        complete[0] = false;
+                    }
+                }
+            }
+        });
+        if (complete[0])
+            reset();
+    }
+
+    private RecordCodec codec = RecordCodec.JSON;
+
+    /**
+     * Selects the format new records are written in. Records already stored in another format can still be read.
+     *
+     * @param codec the format to be used, {@link RecordCodec#JSON} by default
+     */
+    public void setRecordCodec(RecordCodec codec) {
+        if (codec == null)
+            throw new NullPointerException("codec must not be NULL");
+        this.codec = codec;
+    }
+
+    /**
+     * Binary records are stored as Base64 behind this prefix, which cannot start a JSON document
+     */
+    private static final String BINARY_PREFIX = "~";
+
+    private String encode(Object o) throws IOException {
+        String s = codec == RecordCodec.JSON ? GsonHelper.seralizeObject(o)
+                : BINARY_PREFIX + Base64.encodeToString(codec.encode(o), Base64.NO_WRAP);
+        RecordCounters.written(s.length());
+        return s;
+    }
+
+    private <T> T decode(String s, Class<T> tClass) throws IOException, ClassNotFoundException {
+        if (s == null)
+            return null;
+        long start = System.nanoTime();
+        T result;
+        if (s.startsWith(BINARY_PREFIX)) {
+            try {
+                result = RecordCodec.decode(Base64.decode(s.substring(BINARY_PREFIX.length()), Base64.NO_WRAP), tClass);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Record is not valid Base64", e);
+            }
+        } else
+            result = GsonHelper.deseralizeObject(s, tClass);
+        RecordCounters.decoded(s.length(), start);
+        return result;
+    }
+
     private String getIDfrom(Entry e) {
         return Integer.toHexString(e.hashCode());
     }
@@ -0,0 +1,131 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.util.Date;
+import java.util.List;
+
+import at.jku.win.ss15.pjse.backend.BudgetChangedListener;
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+/**
+ * A {@link DataProvider} which forwards every call to another provider.
+ * Decorators override the methods they are interested in.
+ */
+public abstract class ForwardingDataProvider implements DataProvider, DataProvider.Wrapper {
+
+    protected final DataProvider delegate;
+
+    protected ForwardingDataProvider(DataProvider delegate) {
+        if (delegate == null)
+            throw new NullPointerException("delegate must not be NULL");
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the provider all calls are forwarded to
+     */
+    @Override
+    public DataProvider getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public List<Category> getAllCategories() throws DataProviderException {
+        return delegate.getAllCategories();
+    }
+
+    @Override
+    public List<Entry> getAllEntries(String categoryName) throws DataProviderException {
+        return delegate.getAllEntries(categoryName);
+    }
+
+    @Override
+    public List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException {
+        return delegate.getEntries(categoryName, from, to);
+    }
+
+    @Override
+    public Category getCategory(String name) throws DataProviderException {
+        return delegate.getCategory(name);
+    }
+
+    @Override
+    public List<Entry> getAllEntries(Category category) throws DataProviderException {
+        return getAllEntries(category.getName());
+    }
+
+    @Override
+    public void addBudgetChangedListener(BudgetChangedListener l) {
+        delegate.addBudgetChangedListener(l);
+    }
+
+    @Override
+    public void removeBudgetChangedListener(BudgetChangedListener l) {
+        delegate.removeBudgetChangedListener(l);
+    }
+
+    @Override
+    public void addCategory(Category c) throws DataProviderException {
+        delegate.addCategory(c);
+    }
+
+    @Override
+    public void removeCategory(Category c) throws DataProviderException {
+        removeCategory(c.getName());
+    }
+
+    @Override
+    public void removeCategory(String categoryName) throws DataProviderException {
+        delegate.removeCategory(categoryName);
+    }
+
+    @Override
+    public void updateCategory(Category c) throws DataProviderException {
+        delegate.updateCategory(c);
+    }
+
+    @Override
+    public Entry getEntry(long id) throws DataProviderException {
+        return delegate.getEntry(id);
+    }
+
+    @Override
+    public Entry addEntry(Entry e) throws DataProviderException {
+        return delegate.addEntry(e);
+    }
+
+    @Override
+    public void removeEntry(Entry e) throws DataProviderException {
+        delegate.removeEntry(e);
+    }
+
+    @Override
+    public Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        return delegate.updateEntry(oldEntry, newEntry);
+    }
+
+    /**
+     * Runs the batch within a batch of the wrapped provider, while the modifications
+     * are still performed on this provider.
+     */
+    @Override
+    public void batch(final Batch batch) throws DataProviderException {
+        delegate.batch(new Batch() {
+            @Override
+            public void run(DataProvider provider) throws DataProviderException {
+                batch.run(ForwardingDataProvider.this);
+            }
+        });
+    }
+
+    @Override
+    public void reset() throws DataProviderException {
+        delegate.reset();
+    }
+
+    @Override
+    public boolean hasListeners() {
+        return delegate.hasListeners();
+    }
+}
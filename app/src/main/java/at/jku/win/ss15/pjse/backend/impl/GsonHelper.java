@@ -4,17 +4,18 @@ import com.google.gson.Gson;
 
 import java.io.IOException;
 
+import at.jku.win.ss15.pjse.backend.GsonAdapters;
+
 /**
  * Created by Florian on 25.04.2015.
  */
 public class GsonHelper {
 
-    private static Gson instance = null;
-
+    /**
+     * @return the shared instance, see {@link GsonAdapters#getGson()}
+     */
     private static Gson getInstance() {
-        if (instance == null)
-            instance = new Gson();
-        return instance;
+        return GsonAdapters.getGson();
     }
 
     public static String seralizeObject(Object o) throws IOException {
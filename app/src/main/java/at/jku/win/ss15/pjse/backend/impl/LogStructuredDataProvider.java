@@ -0,0 +1,922 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.win.ss15.pjse.backend.BudgetChangedListener;
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+import at.jku.win.ss15.pjse.backend.EntryTimeIndex;
+import at.jku.win.ss15.pjse.backend.RecordCodec;
+
+/**
+ * A {@link DataProvider} which does not depend on the Android runtime. Every modification is
+ * appended to a segment file inside a directory, while an in-memory index maps each key to the
+ * position of its latest record. Segments are rotated once they exceed a certain size and sealed
+ * segments are compacted in the background. When opened, the log is replayed to rebuild the
+ * index; a torn record at the end of a segment (e.g. after a crash) is cut off.
+ * <p>
+ * Record layout (see {@link RecordFile}): {@code length (int) | crc32 of payload (int) | payload}, where the payload is
+ * {@code op (byte) | key length (int) | key | value length (int) | value} and the value is
+ * encoded by the selected {@link RecordCodec}.
+ */
+public class LogStructuredDataProvider implements DataProvider, Closeable {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 4;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private static final char SEPARATOR = '\u0000';
+    private static final String CATEGORY_PREFIX = "c" + SEPARATOR;
+    private static final String ENTRY_PREFIX = "e" + SEPARATOR;
+    private static final char ID_MARK = '#';
+    /**
+     * Key of the record holding the highest reserved entry id
+     */
+    private static final String ID_KEY = "i" + SEPARATOR;
+    private static final long ID_BLOCK = 256;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTED_SUFFIX = ".compact";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final long maxSegmentSize;
+    private final int compactionThreshold;
+    private final boolean syncWrites;
+    private final RecordCodec codec;
+
+    /**
+     * Maps a key to the location of its latest record
+     */
+    private final Map<String, Location> index = new HashMap<>();
+    /**
+     * Maps a category's name to the keys of its entries
+     */
+    private final Map<String, Map<String, Location>> entriesByCategory = new HashMap<>();
+    /**
+     * Maps an entry's id to its key
+     */
+    private final Map<Long, String> keysById = new HashMap<>();
+    /**
+     * The next entry id and the end of the block of ids reserved by the last {@link #ID_KEY} record
+     */
+    private long nextId = 1, reservedId = 1;
+    /**
+     * Time indexes of the categories queried by {@link #getEntries(String, Date, Date)}
+     */
+    private final Map<String, EntryTimeIndex> timeIndexes = new HashMap<>();
+    /**
+     * Opened segments ordered by their id, the last one is the active segment
+     */
+    private final TreeMap<Integer, RandomAccessFile> segments = new TreeMap<>();
+
+    private RandomAccessFile active;
+    private int activeId;
+    /**
+     * Records written within a batch, which start at {@link #pendingBase} of segment {@link #pendingSegment}
+     */
+    private Buffer pending;
+    private long pendingBase;
+    private int pendingSegment;
+    /**
+     * Whether the running batch has reset the log, which takes effect on disk once the batch has finished
+     */
+    private boolean pendingReset;
+    /**
+     * Budget changes made within the running batch
+     */
+    private final List<BudgetChange> budgetChanges = new ArrayList<>();
+    private int epoch;
+    private boolean compacting;
+    private boolean closed;
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "LogStructuredDataProvider-compactor");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Opens or creates a log in the given directory using the default settings.
+     *
+     * @param directory the directory containing the segment files
+     * @throws DataProviderException if the log could not be opened or recovered
+     */
+    public LogStructuredDataProvider(File directory) throws DataProviderException {
+        this(directory, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, false, RecordCodec.JSON);
+    }
+
+    /**
+     * Opens or creates a log in the given directory, which stores records as JSON.
+     *
+     * @param directory           the directory containing the segment files
+     * @param maxSegmentSize      the size in bytes after which a new segment is started
+     * @param compactionThreshold the number of sealed segments which triggers a compaction
+     * @param syncWrites          whether every write should be forced to the storage device
+     * @throws DataProviderException if the log could not be opened or recovered
+     */
+    public LogStructuredDataProvider(File directory, long maxSegmentSize, int compactionThreshold, boolean syncWrites) throws DataProviderException {
+        this(directory, maxSegmentSize, compactionThreshold, syncWrites, RecordCodec.JSON);
+    }
+
+    /**
+     * Opens or creates a log in the given directory.
+     *
+     * @param directory           the directory containing the segment files
+     * @param maxSegmentSize      the size in bytes after which a new segment is started
+     * @param compactionThreshold the number of sealed segments which triggers a compaction
+     * @param syncWrites          whether every write should be forced to the storage device
+     * @param codec               the format new records are written in, records of any format can be read
+     * @throws DataProviderException if the log could not be opened or recovered
+     */
+    public LogStructuredDataProvider(File directory, long maxSegmentSize, int compactionThreshold, boolean syncWrites, RecordCodec codec) throws DataProviderException {
+        if (maxSegmentSize <= 0)
+            throw new IllegalArgumentException("maxSegmentSize must be greater than zero");
+        if (compactionThreshold <= 0)
+            throw new IllegalArgumentException("compactionThreshold must be greater than zero");
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.syncWrites = syncWrites;
+        if (codec == null)
+            throw new NullPointerException("codec must not be NULL");
+        this.codec = codec;
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new DataProviderException("Log could not be opened!", e);
+        }
+    }
+
+    private static class Location {
+        final int segment;
+        final long offset;
+
+        Location(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Location location = (Location) o;
+            return segment == location.segment && offset == location.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * segment + (int) (offset ^ (offset >>> 32));
+        }
+    }
+
+    /**
+     * Gives access to the buffered records without copying them
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private class BudgetChange {
+        final String category;
+        final Date time;
+        final BigDecimal from, to;
+
+        BudgetChange(String category, Date time, BigDecimal from, BigDecimal to) {
+            this.category = category;
+            this.time = time;
+            this.from = from;
+            this.to = to;
+        }
+
+        void queue() {
+            budgetChangeDispatcher.budgetChanged(category, time, from, to);
+        }
+    }
+
+    private static class Record {
+        byte op;
+        String key;
+        byte[] value;
+        long next;
+    }
+
+    // ---- Recovery ----
+
+    private void recover() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        for (File f : listFiles(TEMP_SUFFIX))
+            if (!f.delete())
+                throw new IOException("Could not delete " + f);
+        for (File compacted : listFiles(COMPACTED_SUFFIX)) {
+            int id = idOf(compacted, COMPACTED_SUFFIX);
+            for (File segment : listFiles(SEGMENT_SUFFIX))
+                if (idOf(segment, SEGMENT_SUFFIX) <= id && !segment.delete())
+                    throw new IOException("Could not delete " + segment);
+            if (!compacted.renameTo(segmentFile(id, SEGMENT_SUFFIX)))
+                throw new IOException("Could not rename " + compacted);
+        }
+        TreeMap<Integer, File> files = new TreeMap<>();
+        for (File f : listFiles(SEGMENT_SUFFIX))
+            files.put(idOf(f, SEGMENT_SUFFIX), f);
+        for (Map.Entry<Integer, File> file : files.entrySet()) {
+            RandomAccessFile raf = new RandomAccessFile(file.getValue(), "rw");
+            segments.put(file.getKey(), raf);
+            replay(file.getKey(), raf);
+        }
+        if (segments.isEmpty())
+            openSegment(1);
+        else {
+            activeId = segments.lastKey();
+            active = segments.get(activeId);
+            active.seek(active.length());
+        }
+        // ids of the last reserved block may have been handed out before the log was closed
+        nextId = Math.max(nextId, reservedId);
+        reservedId = nextId;
+    }
+
+    private void replay(final int segment, RandomAccessFile raf) throws IOException {
+        RecordFile.replay(raf, new RecordFile.Reader() {
+            @Override
+            public void read(long offset, byte[] payload) {
+                Record record = decodeRecord(payload, offset);
+                if (record.op == OP_PUT && record.key.equals(ID_KEY))
+                    reservedId = Math.max(reservedId, readLong(record.value));
+                if (record.op == OP_PUT)
+                    putIndex(record.key, new Location(segment, offset));
+                else
+                    removeIndex(record.key);
+            }
+        });
+    }
+
+    private File[] listFiles(final String suffix) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("segment-") && name.endsWith(suffix);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private static int idOf(File f, String suffix) {
+        String name = f.getName();
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - suffix.length()));
+    }
+
+    private File segmentFile(int id, String suffix) {
+        return new File(directory, String.format("segment-%06d%s", id, suffix));
+    }
+
+    // ---- Low level record access ----
+
+    /**
+     * Reads the record starting at the given offset.
+     *
+     * @return the record or {@code null} if it is incomplete or its checksum does not match
+     */
+    private static Record readRecord(RandomAccessFile raf, long offset) throws IOException {
+        byte[] payload = RecordFile.read(raf, offset);
+        return payload == null ? null : decodeRecord(payload, offset);
+    }
+
+    private static Record decodeRecord(byte[] payload, long offset) {
+        Record record = new Record();
+        record.op = payload[0];
+        int keyLength = RecordFile.readInt(payload, 1);
+        record.key = new String(payload, 5, keyLength, UTF8);
+        int valueLength = RecordFile.readInt(payload, 5 + keyLength);
+        record.value = new byte[valueLength];
+        System.arraycopy(payload, 9 + keyLength, record.value, 0, valueLength);
+        record.next = offset + RecordFile.HEADER_SIZE + payload.length;
+        return record;
+    }
+
+    private static long readLong(byte[] b) {
+        return ((long) RecordFile.readInt(b, 0) << 32) | (RecordFile.readInt(b, 4) & 0xFFFFFFFFL);
+    }
+
+    private static byte[] encodeRecord(byte op, String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF8);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(9 + keyBytes.length + value.length);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(op);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(value.length);
+        out.write(value);
+        return RecordFile.frame(payload.toByteArray());
+    }
+
+    private void openSegment(int id) throws IOException {
+        activeId = id;
+        active = new RandomAccessFile(segmentFile(id, SEGMENT_SUFFIX), "rw");
+        active.seek(active.length());
+        segments.put(id, active);
+    }
+
+    private Location append(byte op, String key, byte[] value) throws IOException {
+        if (closed)
+            throw new IOException("Log has already been closed");
+        byte[] record = encodeRecord(op, key, value);
+        if (pending != null) {
+            long offset = pendingBase + pending.size();
+            pending.write(record);
+            return new Location(pendingSegment, offset);
+        }
+        if (active.length() > 0 && active.length() + record.length > maxSegmentSize)
+            rotate();
+        long offset = active.length();
+        active.seek(offset);
+        active.write(record);
+        if (syncWrites)
+            active.getFD().sync();
+        return new Location(activeId, offset);
+    }
+
+    private void rotate() throws IOException {
+        active.getFD().sync();
+        openSegment(activeId + 1);
+        if (!compacting && segments.size() - 1 >= compactionThreshold) {
+            compacting = true;
+            final int currentEpoch = epoch;
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact(currentEpoch);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        synchronized (LogStructuredDataProvider.this) {
+                            compacting = false;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private <T> T read(Location location, Class<T> tClass) throws DataProviderException {
+        try {
+            Record record;
+            if (pending != null && location.segment == pendingSegment && location.offset >= pendingBase) {
+                byte[] payload = RecordFile.read(pending.array(), (int) (location.offset - pendingBase));
+                record = payload == null ? null : decodeRecord(payload, location.offset);
+            } else
+                record = readRecord(segments.get(location.segment), location.offset);
+            if (record == null)
+                throw new DataProviderException("Log is corrupted!");
+            long start = System.nanoTime();
+            T result = RecordCodec.decode(record.value, tClass);
+            RecordCounters.decoded(record.value.length, start);
+            return result;
+        } catch (IOException e) {
+            throw new DataProviderException("Record could not be read!", e);
+        }
+    }
+
+    private void write(String key, Object o) throws DataProviderException {
+        try {
+            byte[] value = codec.encode(o);
+            RecordCounters.written(value.length);
+            putIndex(key, append(OP_PUT, key, value));
+        } catch (IOException e) {
+            throw new DataProviderException("Record could not be written!", e);
+        }
+    }
+
+    private void delete(String key) throws DataProviderException {
+        if (!index.containsKey(key))
+            return;
+        try {
+            append(OP_DELETE, key, new byte[0]);
+            removeIndex(key);
+            String category = categoryOfEntryKey(key);
+            if (category != null && timeIndexes.containsKey(category))
+                timeIndexes.get(category).remove(key);
+        } catch (IOException e) {
+            throw new DataProviderException("Record could not be deleted!", e);
+        }
+    }
+
+    private void putIndex(String key, Location location) {
+        index.put(key, location);
+        String category = categoryOfEntryKey(key);
+        if (category != null) {
+            Map<String, Location> entries = entriesByCategory.get(category);
+            if (entries == null) {
+                entries = new LinkedHashMap<>();
+                entriesByCategory.put(category, entries);
+            }
+            entries.put(key, location);
+            long id = idOfEntryKey(key);
+            if (id != Entry.NO_ID) {
+                keysById.put(id, key);
+                nextId = Math.max(nextId, id + 1);
+            }
+        }
+    }
+
+    private void removeIndex(String key) {
+        index.remove(key);
+        String category = categoryOfEntryKey(key);
+        if (category != null) {
+            Map<String, Location> entries = entriesByCategory.get(category);
+            if (entries != null) {
+                entries.remove(key);
+                if (entries.isEmpty())
+                    entriesByCategory.remove(category);
+            }
+            long id = idOfEntryKey(key);
+            if (id != Entry.NO_ID)
+                keysById.remove(id);
+        }
+    }
+
+    private static String categoryKey(String name) {
+        return CATEGORY_PREFIX + name;
+    }
+
+    private static String entryKey(String category, long id) {
+        return ENTRY_PREFIX + category + SEPARATOR + ID_MARK + id;
+    }
+
+    /**
+     * Entries written before ids were introduced are keyed by their content's hash code.
+     */
+    private static String legacyEntryKey(Entry e) {
+        return ENTRY_PREFIX + e.getCategoryName() + SEPARATOR + Integer.toHexString(e.hashCode());
+    }
+
+    /**
+     * @return the id contained in an entry key or {@link Entry#NO_ID} for legacy keys
+     */
+    private static long idOfEntryKey(String key) {
+        int i = key.lastIndexOf(SEPARATOR) + 1;
+        if (i >= key.length() || key.charAt(i) != ID_MARK)
+            return Entry.NO_ID;
+        return Long.parseLong(key.substring(i + 1));
+    }
+
+    /**
+     * Finds the key of the stored version of an entry, by its id or, if it has none, by its content.
+     *
+     * @return the key or {@code null} if the entry is not stored
+     */
+    private String keyOf(Entry e) throws DataProviderException {
+        if (e.getId() != Entry.NO_ID)
+            return keysById.get(e.getId());
+        String legacy = legacyEntryKey(e);
+        if (index.containsKey(legacy))
+            return legacy;
+        Map<String, Location> locations = entriesByCategory.get(e.getCategoryName());
+        if (locations != null)
+            for (Map.Entry<String, Location> l : locations.entrySet())
+                if (e.equals(read(l.getValue(), Entry.class)))
+                    return l.getKey();
+        return null;
+    }
+
+    /**
+     * Hands out the given id or, if it is {@link Entry#NO_ID}, the next one. Ids are reserved
+     * in blocks, so the {@link #ID_KEY} record is only written once per block.
+     */
+    private long assignId(long requested) throws DataProviderException {
+        long id = requested == Entry.NO_ID ? nextId : requested;
+        nextId = Math.max(nextId, id + 1);
+        if (nextId > reservedId)
+            reserveIds(nextId + ID_BLOCK);
+        return id;
+    }
+
+    private void reserveIds(long until) throws DataProviderException {
+        byte[] value = new byte[8];
+        for (int i = 0; i < 8; i++)
+            value[i] = (byte) (until >>> (56 - 8 * i));
+        try {
+            putIndex(ID_KEY, append(OP_PUT, ID_KEY, value));
+        } catch (IOException e) {
+            throw new DataProviderException("Record could not be written!", e);
+        }
+        reservedId = until;
+    }
+
+    private static String categoryOfEntryKey(String key) {
+        if (!key.startsWith(ENTRY_PREFIX))
+            return null;
+        return key.substring(ENTRY_PREFIX.length(), key.lastIndexOf(SEPARATOR));
+    }
+
+    // ---- Compaction ----
+
+    /**
+     * Rewrites all sealed segments into a single one, which only contains live records.
+     * The compacted segment takes over the id of the newest sealed segment.
+     */
+    private void compact(int startEpoch) throws IOException {
+        List<Integer> sealed;
+        synchronized (this) {
+            if (closed || epoch != startEpoch)
+                return;
+            sealed = new ArrayList<>(segments.headMap(activeId).keySet());
+        }
+        if (sealed.isEmpty())
+            return;
+        int targetId = sealed.get(sealed.size() - 1);
+        File temp = segmentFile(targetId, TEMP_SUFFIX);
+        Map<String, Location[]> moved = new HashMap<>();
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            for (int id : sealed) {
+                RandomAccessFile in = new RandomAccessFile(segmentFile(id, SEGMENT_SUFFIX), "r");
+                try {
+                    long offset = 0, length = in.length();
+                    while (offset < length) {
+                        Record record = readRecord(in, offset);
+                        if (record == null)
+                            break;
+                        Location old = new Location(id, offset);
+                        boolean live;
+                        synchronized (this) {
+                            live = record.op == OP_PUT && old.equals(index.get(record.key));
+                        }
+                        if (live) {
+                            long newOffset = out.length();
+                            out.seek(newOffset);
+                            out.write(encodeRecord(OP_PUT, record.key, record.value));
+                            moved.put(record.key, new Location[]{old, new Location(targetId, newOffset)});
+                        }
+                        offset = record.next;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        File compacted = segmentFile(targetId, COMPACTED_SUFFIX);
+        synchronized (this) {
+            if (closed || epoch != startEpoch) {
+                temp.delete();
+                return;
+            }
+            if (!temp.renameTo(compacted))
+                throw new IOException("Could not rename " + temp);
+            for (int id : sealed) {
+                segments.remove(id).close();
+                if (!segmentFile(id, SEGMENT_SUFFIX).delete())
+                    throw new IOException("Could not delete segment " + id);
+            }
+            if (!compacted.renameTo(segmentFile(targetId, SEGMENT_SUFFIX)))
+                throw new IOException("Could not rename " + compacted);
+            segments.put(targetId, new RandomAccessFile(segmentFile(targetId, SEGMENT_SUFFIX), "rw"));
+            for (Map.Entry<String, Location[]> m : moved.entrySet())
+                if (m.getValue()[0].equals(index.get(m.getKey())))
+                    putIndex(m.getKey(), m.getValue()[1]);
+        }
+    }
+
+    /**
+     * Delivers pending budget changes, waits for the background compaction to stop and closes all
+     * segment files, so the directory can be opened again right away.
+     *
+     * @throws IOException if a file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        budgetChangeDispatcher.close();
+        // a running compaction needs the lock to notice that the log is closed
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            active.getFD().sync();
+            for (RandomAccessFile raf : segments.values())
+                raf.close();
+            segments.clear();
+        }
+    }
+
+    // ---- DataProvider ----
+
+    @Override
+    public synchronized List<Category> getAllCategories() throws DataProviderException {
+        List<Category> list = new ArrayList<>();
+        for (Map.Entry<String, Location> e : index.entrySet())
+            if (e.getKey().startsWith(CATEGORY_PREFIX))
+                list.add(read(e.getValue(), Category.class));
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public synchronized List<Entry> getAllEntries(String categoryName) throws DataProviderException {
+        Map<String, Location> locations = entriesByCategory.get(categoryName);
+        if (locations == null)
+            return Collections.emptyList();
+        List<Entry> entries = new ArrayList<>(locations.size());
+        for (Location location : locations.values())
+            entries.add(read(location, Entry.class));
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public synchronized List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException {
+        EntryTimeIndex timeIndex = timeIndexes.get(categoryName);
+        if (timeIndex == null) {
+            timeIndex = new EntryTimeIndex();
+            Map<String, Location> locations = entriesByCategory.get(categoryName);
+            if (locations != null)
+                for (Map.Entry<String, Location> e : locations.entrySet())
+                    timeIndex.put(e.getKey(), read(e.getValue(), Entry.class));
+            timeIndexes.put(categoryName, timeIndex);
+        }
+        return Collections.unmodifiableList(timeIndex.query(from, to));
+    }
+
+    @Override
+    public synchronized Category getCategory(String name) throws DataProviderException {
+        Location location = index.get(categoryKey(name));
+        return location == null ? null : read(location, Category.class);
+    }
+
+    @Override
+    public List<Entry> getAllEntries(Category category) throws DataProviderException {
+        return getAllEntries(category.getName());
+    }
+
+    final BudgetChangeDispatcher budgetChangeDispatcher = new BudgetChangeDispatcher();
+
+    @Override
+    public void addBudgetChangedListener(BudgetChangedListener l) {
+        budgetChangeDispatcher.addListener(l);
+    }
+
+    @Override
+    public void removeBudgetChangedListener(BudgetChangedListener l) {
+        budgetChangeDispatcher.removeListener(l);
+    }
+
+    @Override
+    public synchronized void addCategory(Category c) throws DataProviderException {
+        String key = categoryKey(c.getName());
+        if (index.containsKey(key))
+            throw new DataProviderException("A category with this name already exists!");
+        write(key, c);
+    }
+
+    @Override
+    public void removeCategory(Category c) throws DataProviderException {
+        removeCategory(c.getName());
+    }
+
+    @Override
+    public synchronized void removeCategory(String categoryName) throws DataProviderException {
+        Map<String, Location> entries = entriesByCategory.get(categoryName);
+        if (entries != null)
+            for (String key : new ArrayList<>(entries.keySet()))
+                delete(key);
+        delete(categoryKey(categoryName));
+        timeIndexes.remove(categoryName);
+    }
+
+    /**
+     * The budget change is queued after the lock has been released, as queueing blocks while the
+     * dispatcher is full and its listeners may call this provider. Within a batch, it is queued
+     * once the batch has been written.
+     */
+    @Override
+    public void updateCategory(Category c) throws DataProviderException {
+        BudgetChange change;
+        synchronized (this) {
+            Category old = getCategory(c.getName());
+            if (old == null)
+                throw new DataProviderException("Category not found!");
+            write(categoryKey(c.getName()), c);
+            change = new BudgetChange(c.getName(), new Date(System.currentTimeMillis()), old.getBudget(), c.getBudget());
+            if (pending != null) {
+                budgetChanges.add(change);
+                return;
+            }
+        }
+        change.queue();
+    }
+
+    @Override
+    public synchronized Entry getEntry(long id) throws DataProviderException {
+        String key = keysById.get(id);
+        return key == null ? null : read(index.get(key), Entry.class);
+    }
+
+    @Override
+    public synchronized Entry addEntry(Entry e) throws DataProviderException {
+        if (e.getId() != Entry.NO_ID && keysById.containsKey(e.getId()))
+            throw new DataProviderException("This entry already exists in the database");
+        Entry stored = e.setId(assignId(e.getId()));
+        String key = entryKey(stored.getCategoryName(), stored.getId());
+        write(key, stored);
+        EntryTimeIndex timeIndex = timeIndexes.get(stored.getCategoryName());
+        if (timeIndex != null)
+            timeIndex.put(key, stored);
+        return stored;
+    }
+
+    @Override
+    public synchronized void removeEntry(Entry e) throws DataProviderException {
+        if (e.getParent() != null)
+            throw new DataProviderException("Occurrences of repeating entries cannot be removed!");
+        String key = keyOf(e);
+        if (key != null)
+            delete(key);
+    }
+
+    @Override
+    public synchronized Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        if (oldEntry.getParent() != null)
+            throw new DataProviderException("Occurrences of repeating entries cannot be updated!");
+        String key = keyOf(oldEntry);
+        long id = key == null ? Entry.NO_ID : idOfEntryKey(key);
+        if (key != null)
+            delete(key);
+        return addEntry(newEntry.setId(id != Entry.NO_ID ? id : newEntry.getId()));
+    }
+
+    /**
+     * Records written within the batch are buffered and appended to the active segment by
+     * a single write once the batch has finished. A reset within the batch is deferred until then
+     * as well. If the batch fails, nothing is written and the index is rebuilt from the segments.
+     */
+    @Override
+    public void batch(Batch batch) throws DataProviderException {
+        List<BudgetChange> changes;
+        synchronized (this) {
+            if (pending != null) {
+                batch.run(this);
+                return;
+            }
+            try {
+                pendingBase = active.length();
+            } catch (IOException e) {
+                throw new DataProviderException("Batch could not be started!", e);
+            }
+            pendingSegment = activeId;
+            pendingReset = false;
+            pending = new Buffer();
+            boolean finished = false;
+            try {
+                batch.run(this);
+                finished = true;
+            } finally {
+                if (!finished)
+                    try {
+                        rollback();
+                    } catch (IOException e) {
+                        // the failure of the batch is reported instead
+                        e.printStackTrace();
+                    }
+            }
+            commit();
+            changes = new ArrayList<>(budgetChanges);
+            budgetChanges.clear();
+        }
+        for (BudgetChange change : changes)
+            change.queue();
+    }
+
+    private void commit() throws DataProviderException {
+        Buffer records = pending;
+        boolean reset = pendingReset;
+        pending = null;
+        pendingReset = false;
+        if (records.size() == 0 && !reset)
+            return;
+        try {
+            if (reset) {
+                deleteSegments();
+                openSegment(1);
+            }
+            active.seek(pendingBase);
+            active.write(records.array(), 0, records.size());
+            if (syncWrites)
+                active.getFD().sync();
+            if (active.length() > maxSegmentSize)
+                rotate();
+        } catch (IOException e) {
+            try {
+                active.setLength(pendingBase);
+                rollback();
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            throw new DataProviderException("Batch could not be written!", e);
+        }
+    }
+
+    /**
+     * Discards the records of the running batch and rebuilds the index from the segments,
+     * which have not been modified by the batch.
+     */
+    private void rollback() throws IOException {
+        pending = null;
+        pendingReset = false;
+        budgetChanges.clear();
+        epoch++;
+        for (RandomAccessFile raf : segments.values())
+            raf.close();
+        segments.clear();
+        index.clear();
+        entriesByCategory.clear();
+        keysById.clear();
+        timeIndexes.clear();
+        nextId = 1;
+        reservedId = 1;
+        recover();
+    }
+
+    private void deleteSegments() throws IOException {
+        epoch++;
+        for (Iterator<RandomAccessFile> it = segments.values().iterator(); it.hasNext(); ) {
+            it.next().close();
+            it.remove();
+        }
+        for (File f : listFiles(SEGMENT_SUFFIX))
+            if (!f.delete())
+                throw new IOException("Could not delete " + f);
+    }
+
+    @Override
+    public synchronized void reset() throws DataProviderException {
+        try {
+            if (pending != null) {
+                // obsolete records of the running batch are dropped, the segments are deleted once it has finished
+                epoch++;
+                pending.reset();
+                pendingBase = 0;
+                pendingSegment = 1;
+                pendingReset = true;
+            } else {
+                deleteSegments();
+                openSegment(1);
+            }
+            index.clear();
+            entriesByCategory.clear();
+            keysById.clear();
+            timeIndexes.clear();
+            // ids are not reused after a reset either
+            reserveIds(reservedId);
+        } catch (IOException e) {
+            throw new DataProviderException("Reset could not be performed!", e);
+        }
+    }
+
+    @Override
+    public boolean hasListeners() {
+        return budgetChangeDispatcher.hasListeners();
+    }
+}
@@ -0,0 +1,354 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entries;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+/**
+ * A decorator recording metrics of every operation of a {@link DataProvider}: the number of calls
+ * and failures, a latency histogram, the serialized bytes read and written and the number of
+ * records deserialized, including the time spent deserializing them. Comparing the latency with
+ * the deserialization time tells whether an operation is dominated by storage access or parsing.
+ * <p>
+ * Bytes and records are counted by the providers of this package on the calling thread, so work
+ * done by background threads (e.g. compaction) is not attributed to any operation.
+ */
+public class MetricsDataProvider extends ForwardingDataProvider {
+
+    /**
+     * Number of latency buckets, bucket {@code i > 0} holds latencies from {@code 2^(i-1)}
+     * up to {@code 2^i} microseconds, bucket 0 those below one microsecond
+     */
+    public static final int BUCKETS = 32;
+
+    /**
+     * The metrics of one operation
+     */
+    public static class Snapshot {
+        private final String operation;
+        private long calls, failures, totalNanos, maxNanos;
+        private long bytesRead, bytesWritten, recordsDecoded, decodeNanos;
+        private final long[] histogram = new long[BUCKETS];
+
+        Snapshot(String operation) {
+            this.operation = operation;
+        }
+
+        Snapshot(Snapshot s) {
+            this(s.operation);
+            calls = s.calls;
+            failures = s.failures;
+            totalNanos = s.totalNanos;
+            maxNanos = s.maxNanos;
+            bytesRead = s.bytesRead;
+            bytesWritten = s.bytesWritten;
+            recordsDecoded = s.recordsDecoded;
+            decodeNanos = s.decodeNanos;
+            System.arraycopy(s.histogram, 0, histogram, 0, BUCKETS);
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getRecordsDecoded() {
+            return recordsDecoded;
+        }
+
+        public long getDecodeNanos() {
+            return decodeNanos;
+        }
+
+        /**
+         * @return the number of calls per bucket, see {@link #BUCKETS}
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /**
+         * @param percentile the percentile between 0 and 100
+         * @return the upper bound in microseconds of the bucket holding the percentile
+         */
+        public long percentileMicros(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * calls), seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0)
+                    return 1L << i;
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-18s %8d calls %5d failed  avg %9.3f ms  p50 <%8d us  p99 <%8d us  max %9.3f ms  read %10d B  written %10d B  decoded %8d (%9.3f ms)",
+                    operation, calls, failures, calls == 0 ? 0 : totalNanos / 1e6 / calls, percentileMicros(50), percentileMicros(99),
+                    maxNanos / 1e6, bytesRead, bytesWritten, recordsDecoded, decodeNanos / 1e6);
+        }
+    }
+
+    /**
+     * Measures a single call
+     */
+    private class Call {
+        private final String operation;
+        private final long[] counters = RecordCounters.current();
+        private final long start = System.nanoTime();
+        private boolean failed = true;
+
+        Call(String operation) {
+            this.operation = operation;
+        }
+
+        <T> T done(T result) {
+            failed = false;
+            return result;
+        }
+
+        void end() {
+            long nanos = System.nanoTime() - start;
+            long[] now = RecordCounters.current();
+            synchronized (metrics) {
+                Snapshot s = metrics.get(operation);
+                if (s == null)
+                    metrics.put(operation, s = new Snapshot(operation));
+                s.calls++;
+                if (failed)
+                    s.failures++;
+                s.totalNanos += nanos;
+                s.maxNanos = Math.max(s.maxNanos, nanos);
+                s.histogram[bucketOf(nanos / 1000)]++;
+                s.bytesRead += now[RecordCounters.BYTES_READ] - counters[RecordCounters.BYTES_READ];
+                s.bytesWritten += now[RecordCounters.BYTES_WRITTEN] - counters[RecordCounters.BYTES_WRITTEN];
+                s.recordsDecoded += now[RecordCounters.RECORDS_DECODED] - counters[RecordCounters.RECORDS_DECODED];
+                s.decodeNanos += now[RecordCounters.DECODE_NANOS] - counters[RecordCounters.DECODE_NANOS];
+            }
+        }
+    }
+
+    private final Map<String, Snapshot> metrics = new LinkedHashMap<>();
+
+    public MetricsDataProvider(DataProvider delegate) {
+        super(delegate);
+    }
+
+    private static int bucketOf(long micros) {
+        return micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return a copy of the metrics of every operation called so far, by the name of the operation
+     */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> copy = new LinkedHashMap<>();
+        synchronized (metrics) {
+            for (Snapshot s : metrics.values())
+                copy.put(s.operation, new Snapshot(s));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Discards all metrics recorded so far.
+     */
+    public void resetMetrics() {
+        synchronized (metrics) {
+            metrics.clear();
+        }
+    }
+
+    /**
+     * @return the metrics of every operation, one line each
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Snapshot s : snapshot().values())
+            sb.append(s).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Calls {@link Entries#onceify(List, Date, Date)} and records it as operation "onceify", so the
+     * expansion of recurring entries can be told apart from loading them.
+     */
+    public List<Entry> onceify(List<Entry> entries, Date from, Date to) {
+        Call call = new Call("onceify");
+        try {
+            return call.done(Entries.onceify(entries, from, to));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public List<Category> getAllCategories() throws DataProviderException {
+        Call call = new Call("getAllCategories");
+        try {
+            return call.done(delegate.getAllCategories());
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public List<Entry> getAllEntries(String categoryName) throws DataProviderException {
+        Call call = new Call("getAllEntries");
+        try {
+            return call.done(delegate.getAllEntries(categoryName));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException {
+        Call call = new Call("getEntries");
+        try {
+            return call.done(delegate.getEntries(categoryName, from, to));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public Category getCategory(String name) throws DataProviderException {
+        Call call = new Call("getCategory");
+        try {
+            return call.done(delegate.getCategory(name));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void addCategory(Category c) throws DataProviderException {
+        Call call = new Call("addCategory");
+        try {
+            delegate.addCategory(c);
+            call.done(null);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void removeCategory(String categoryName) throws DataProviderException {
+        Call call = new Call("removeCategory");
+        try {
+            delegate.removeCategory(categoryName);
+            call.done(null);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void updateCategory(Category c) throws DataProviderException {
+        Call call = new Call("updateCategory");
+        try {
+            delegate.updateCategory(c);
+            call.done(null);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public Entry getEntry(long id) throws DataProviderException {
+        Call call = new Call("getEntry");
+        try {
+            return call.done(delegate.getEntry(id));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public Entry addEntry(Entry e) throws DataProviderException {
+        Call call = new Call("addEntry");
+        try {
+            return call.done(delegate.addEntry(e));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void removeEntry(Entry e) throws DataProviderException {
+        Call call = new Call("removeEntry");
+        try {
+            delegate.removeEntry(e);
+            call.done(null);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        Call call = new Call("updateEntry");
+        try {
+            return call.done(delegate.updateEntry(oldEntry, newEntry));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Records the batch as a whole, while the operations within it are recorded individually.
+     */
+    @Override
+    public void batch(Batch batch) throws DataProviderException {
+        Call call = new Call("batch");
+        try {
+            super.batch(batch);
+            call.done(null);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void reset() throws DataProviderException {
+        Call call = new Call("reset");
+        try {
+            delegate.reset();
+            call.done(null);
+        } finally {
+            call.end();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+/**
+ * Counts the serialized bytes and records handled by the providers on the current thread, so
+ * {@link MetricsDataProvider} can attribute them to the operation running on that thread.
+ */
+final class RecordCounters {
+
+    static final int BYTES_READ = 0;
+    static final int BYTES_WRITTEN = 1;
+    static final int RECORDS_DECODED = 2;
+    static final int DECODE_NANOS = 3;
+    static final int SIZE = 4;
+
+    private static final ThreadLocal<long[]> COUNTERS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[SIZE];
+        }
+    };
+
+    private RecordCounters() {
+    }
+
+    /**
+     * @param bytes the size of the serialized record
+     * @param start the value of {@link System#nanoTime()} before decoding the record
+     */
+    static void decoded(int bytes, long start) {
+        long[] c = COUNTERS.get();
+        c[BYTES_READ] += bytes;
+        c[RECORDS_DECODED]++;
+        c[DECODE_NANOS] += System.nanoTime() - start;
+    }
+
+    /**
+     * Counts a record read without deserialization, e.g. from a database row
+     */
+    static void decoded() {
+        COUNTERS.get()[RECORDS_DECODED]++;
+    }
+
+    static void written(int bytes) {
+        COUNTERS.get()[BYTES_WRITTEN] += bytes;
+    }
+
+    /**
+     * @return a copy of the counters of the current thread
+     */
+    static long[] current() {
+        return COUNTERS.get().clone();
+    }
+}
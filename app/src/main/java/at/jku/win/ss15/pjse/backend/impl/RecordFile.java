@@ -0,0 +1,203 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * A file of checksummed records, shared by the append-only logs of this package
+ * ({@link BudgetChangeLog}, {@link ChangeJournal} and the segments of {@link LogStructuredDataProvider}).
+ * <p>
+ * Records are appended to the end of the file. When replayed, a torn record at the end of the
+ * file (e.g. after a crash) is cut off along with everything behind it. The file is compacted by
+ * writing its new content to a temporary file, which then replaces it.
+ * <p>
+ * Record layout: {@code length (int) | crc32 of payload (int) | payload}
+ */
+class RecordFile implements Closeable {
+
+    static final int HEADER_SIZE = 8;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Receives the payloads of the records while the file is replayed
+     */
+    interface Reader {
+        /**
+         * @param offset  the position of the record within the file
+         * @param payload the payload of the record
+         * @throws IOException if the payload is malformed, which ends the replay with this exception
+         */
+        void read(long offset, byte[] payload) throws IOException;
+    }
+
+    private final File file;
+    private RandomAccessFile raf;
+
+    /**
+     * Opens the file, removing the temporary file of an interrupted compaction.
+     *
+     * @param file the file holding the records
+     * @throws IOException if the file could not be opened
+     */
+    RecordFile(File file) throws IOException {
+        this.file = file;
+        File temp = tempFile();
+        if (temp.exists() && !temp.delete())
+            throw new IOException("Could not delete " + temp);
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    private File tempFile() {
+        return new File(file.getPath() + TEMP_SUFFIX);
+    }
+
+    /**
+     * @return the payload preceded by its length and checksum
+     */
+    static byte[] frame(byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(HEADER_SIZE + payload.length);
+        DataOutputStream out = new DataOutputStream(record);
+        try {
+            out.writeInt(payload.length);
+            out.writeInt((int) crc32.getValue());
+            out.write(payload);
+        } catch (IOException cannotHappen) {
+            throw new IllegalStateException(cannotHappen);
+        }
+        return record.toByteArray();
+    }
+
+    /**
+     * Reads the payload of the record starting at the given offset.
+     *
+     * @return the payload or {@code null} if the record is incomplete or its checksum does not match
+     */
+    static byte[] read(RandomAccessFile raf, long offset) throws IOException {
+        long length = raf.length();
+        if (offset + HEADER_SIZE > length)
+            return null;
+        raf.seek(offset);
+        int payloadLength = raf.readInt();
+        int crc = raf.readInt();
+        if (payloadLength <= 0 || offset + HEADER_SIZE + payloadLength > length)
+            return null;
+        byte[] payload = new byte[payloadLength];
+        raf.readFully(payload);
+        return matches(payload, crc) ? payload : null;
+    }
+
+    /**
+     * Reads the payload of a record held in a buffer.
+     *
+     * @param buffer the buffer holding the record
+     * @param start  the position of the record within the buffer
+     * @return the payload or {@code null} if its checksum does not match
+     */
+    static byte[] read(byte[] buffer, int start) {
+        int payloadLength = readInt(buffer, start);
+        byte[] payload = new byte[payloadLength];
+        System.arraycopy(buffer, start + HEADER_SIZE, payload, 0, payloadLength);
+        return matches(payload, readInt(buffer, start + 4)) ? payload : null;
+    }
+
+    private static boolean matches(byte[] payload, int crc) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        return (int) crc32.getValue() == crc;
+    }
+
+    static int readInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    /**
+     * Passes the payload of every record to the reader, cutting off a torn or corrupted tail.
+     *
+     * @param raf    the file to be replayed
+     * @param reader the reader receiving the payloads
+     * @throws IOException if the file could not be read or the reader failed
+     */
+    static void replay(RandomAccessFile raf, Reader reader) throws IOException {
+        long offset = 0, length = raf.length();
+        byte[] payload;
+        while (offset < length && (payload = read(raf, offset)) != null) {
+            reader.read(offset, payload);
+            offset += HEADER_SIZE + payload.length;
+        }
+        if (offset < length)
+            // torn or corrupted tail, everything behind it is unusable
+            raf.setLength(offset);
+        raf.seek(offset);
+    }
+
+    /**
+     * @see #replay(RandomAccessFile, Reader)
+     */
+    void replay(Reader reader) throws IOException {
+        replay(raf, reader);
+    }
+
+    /**
+     * Appends records to the end of the file. If they could not be written completely, the file
+     * is cut back to its previous length, so a partial record cannot hide the records appended
+     * later on replay.
+     *
+     * @param records one or more records as returned by {@link #frame(byte[])}
+     * @throws IOException if the records could not be written
+     */
+    void append(byte[] records) throws IOException {
+        long length = raf.length();
+        try {
+            raf.seek(length);
+            raf.write(records);
+        } catch (IOException e) {
+            try {
+                raf.setLength(length);
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the content of the file by writing the records to a temporary file,
+     * which is renamed to the file afterwards.
+     *
+     * @param records the records as returned by {@link #frame(byte[])}
+     * @throws IOException if the file could not be rewritten
+     */
+    void rewrite(byte[] records) throws IOException {
+        File temp = tempFile();
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            out.write(records);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        raf.close();
+        boolean renamed = temp.renameTo(file);
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length());
+        if (!renamed)
+            throw new IOException("Could not rename " + temp);
+    }
+
+    /**
+     * Flushes the file to the storage device and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        raf.getFD().sync();
+        raf.close();
+    }
+}
@@ -0,0 +1,146 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import at.jku.win.ss15.pjse.backend.BudgetRollups;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+/**
+ * Maintains {@link BudgetRollups} for the entries of another {@link DataProvider}.
+ * The rollups of a category are built from its entries when they are first needed and
+ * are updated by every write afterwards, so
+ * {@link at.jku.win.ss15.pjse.backend.Entries#availableBudget} can answer whole days and
+ * months without summing up the single entries.
+ */
+public class RollupDataProvider extends ForwardingDataProvider implements BudgetRollups.Source {
+
+    public static final int DEFAULT_HORIZON_MONTHS = 24;
+
+    private final BudgetRollups rollups;
+    private final Set<String> loaded = new HashSet<>();
+
+    public RollupDataProvider(DataProvider delegate) {
+        this(delegate, DEFAULT_HORIZON_MONTHS);
+    }
+
+    /**
+     * @param delegate      the provider storing the data
+     * @param horizonMonths how many months from now on occurrences of repeating entries are materialized
+     */
+    public RollupDataProvider(DataProvider delegate, int horizonMonths) {
+        super(delegate);
+        if (horizonMonths < 0)
+            throw new IllegalArgumentException("horizonMonths must not be negative");
+        Calendar c = Calendar.getInstance();
+        c.add(Calendar.MONTH, horizonMonths);
+        rollups = new BudgetRollups(c.getTime());
+    }
+
+    /**
+     * @return the maintained rollups, which only cover the categories loaded so far
+     */
+    public BudgetRollups getRollups() {
+        return rollups;
+    }
+
+    @Override
+    public BigDecimal rolledUpSum(String categoryName, Date from, Date to) throws DataProviderException {
+        synchronized (this) {
+            if (!loaded.contains(categoryName)) {
+                rollups.clear(categoryName);
+                for (Entry e : delegate.getAllEntries(categoryName))
+                    rollups.add(e);
+                loaded.add(categoryName);
+            }
+        }
+        return rollups.sum(categoryName, from, to);
+    }
+
+    @Override
+    public synchronized void removeCategory(String categoryName) throws DataProviderException {
+        try {
+            delegate.removeCategory(categoryName);
+        } finally {
+            loaded.remove(categoryName);
+            rollups.clear(categoryName);
+        }
+    }
+
+    @Override
+    public synchronized Entry addEntry(Entry e) throws DataProviderException {
+        Entry stored = delegate.addEntry(e);
+        if (loaded.contains(stored.getCategoryName()))
+            rollups.add(stored);
+        return stored;
+    }
+
+    @Override
+    public synchronized void removeEntry(Entry e) throws DataProviderException {
+        Entry stored = stored(e);
+        delegate.removeEntry(e);
+        if (stored != null && loaded.contains(stored.getCategoryName()))
+            rollups.remove(stored);
+    }
+
+    @Override
+    public synchronized Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        Entry old = stored(oldEntry);
+        Entry updated = delegate.updateEntry(oldEntry, newEntry);
+        if (old != null && loaded.contains(old.getCategoryName()))
+            rollups.remove(old);
+        if (loaded.contains(updated.getCategoryName()))
+            rollups.add(updated);
+        return updated;
+    }
+
+    /**
+     * The rollups are updated by the modifications of the batch right away. If the batch fails,
+     * they are rebuilt when needed next, as its modifications may have been rolled back.
+     */
+    @Override
+    public void batch(Batch batch) throws DataProviderException {
+        boolean finished = false;
+        try {
+            super.batch(batch);
+            finished = true;
+        } finally {
+            if (!finished)
+                synchronized (this) {
+                    loaded.clear();
+                    rollups.clear();
+                }
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws DataProviderException {
+        try {
+            delegate.reset();
+        } finally {
+            loaded.clear();
+            rollups.clear();
+        }
+    }
+
+    /**
+     * Looks up the stored version of an entry to be removed, as removing an entry which
+     * is not stored must not change the rollups.
+     *
+     * @return the stored entry or {@code null} if it is not stored
+     */
+    private Entry stored(Entry e) throws DataProviderException {
+        if (e.getId() != Entry.NO_ID)
+            return delegate.getEntry(e.getId());
+        if (!loaded.contains(e.getCategoryName()))
+            return null;
+        List<Entry> candidates = delegate.getEntries(e.getCategoryName(), e.getStartTime(), e.getStartTime());
+        int i = candidates.indexOf(e);
+        return i < 0 ? null : candidates.get(i);
+    }
+}
@@ -0,0 +1,395 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import at.jku.win.ss15.pjse.backend.BudgetChangedListener;
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.Currency;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+/**
+ * A {@link DataProvider} storing categories and entries in a SQLite database.
+ * Entries reference their category by a foreign key and are indexed by
+ * {@code (category, startTime)}, so reading a single category does not require
+ * loading the whole data set.
+ */
+public class SQLiteDataProviderImpl implements DataProvider {
+
+    static final String DATABASE_NAME = "budget.db";
+    static final int DATABASE_VERSION = 2;
+
+    static final String TABLE_CATEGORY = "category";
+    static final String TABLE_ENTRY = "entry";
+
+    private static final String[] CATEGORY_COLUMNS = {"name", "budget", "currency"};
+    private static final String[] ENTRY_COLUMNS = {"category", "value", "purpose", "locLat", "locLng",
+            "repeatInterval", "intervalType", "startTime", "endTime", "intervalEndTime", "_id"};
+
+    private final SQLiteOpenHelper helper;
+
+    public SQLiteDataProviderImpl(Context context) {
+        helper = new Helper(context);
+    }
+
+    private static class Helper extends SQLiteOpenHelper {
+
+        Helper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            if (!db.isReadOnly())
+                db.execSQL("PRAGMA foreign_keys=ON");
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_CATEGORY + " ("
+                    + "name TEXT PRIMARY KEY NOT NULL, "
+                    + "budget TEXT, "
+                    + "currency TEXT NOT NULL)");
+            createEntryTable(db, TABLE_ENTRY);
+            db.execSQL("CREATE INDEX entry_category_start ON " + TABLE_ENTRY + " (category, startTime)");
+        }
+
+        /**
+         * Entries are identified by {@code _id}, which is exposed as {@link Entry#getId()}.
+         * AUTOINCREMENT keeps ids of removed entries from being reused.
+         */
+        private static void createEntryTable(SQLiteDatabase db, String name) {
+            db.execSQL("CREATE TABLE " + name + " ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "category TEXT NOT NULL REFERENCES " + TABLE_CATEGORY + "(name) ON DELETE CASCADE ON UPDATE CASCADE, "
+                    + "value TEXT NOT NULL, "
+                    + "purpose TEXT, "
+                    + "locLat REAL, "
+                    + "locLng REAL, "
+                    + "repeatInterval INTEGER NOT NULL, "
+                    + "intervalType TEXT NOT NULL, "
+                    + "startTime INTEGER NOT NULL, "
+                    + "endTime INTEGER, "
+                    + "intervalEndTime INTEGER)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 2) {
+                // version 1 additionally keyed entries by the hash code of their content
+                String columns = "_id, category, value, purpose, locLat, locLng, repeatInterval, intervalType, startTime, endTime, intervalEndTime";
+                createEntryTable(db, TABLE_ENTRY + "_v2");
+                db.execSQL("INSERT INTO " + TABLE_ENTRY + "_v2 (" + columns + ") SELECT " + columns + " FROM " + TABLE_ENTRY);
+                db.execSQL("DROP TABLE " + TABLE_ENTRY);
+                db.execSQL("ALTER TABLE " + TABLE_ENTRY + "_v2 RENAME TO " + TABLE_ENTRY);
+                db.execSQL("CREATE INDEX entry_category_start ON " + TABLE_ENTRY + " (category, startTime)");
+            }
+        }
+    }
+
+    @Override
+    public List<Category> getAllCategories() throws DataProviderException {
+        List<Category> list = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().query(TABLE_CATEGORY, CATEGORY_COLUMNS, null, null, null, null, null);
+            while (cursor.moveToNext())
+                list.add(readCategory(cursor));
+        } catch (SQLException e) {
+            throw new DataProviderException("Categories could not be read!", e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public List<Entry> getAllEntries(String categoryName) throws DataProviderException {
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().query(TABLE_ENTRY, ENTRY_COLUMNS, "category = ?",
+                    new String[]{categoryName}, null, null, "startTime");
+            while (cursor.moveToNext())
+                entries.add(readEntry(cursor));
+        } catch (SQLException e) {
+            throw new DataProviderException("Entries could not be read!", e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException {
+        List<Entry> entries = new ArrayList<>();
+        String f = Long.toString(from.getTime()), t = Long.toString(to.getTime());
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().query(TABLE_ENTRY, ENTRY_COLUMNS,
+                    "category = ? AND startTime <= ? AND ((intervalType = ? AND startTime >= ?)"
+                            + " OR (intervalType <> ? AND (intervalEndTime IS NULL OR intervalEndTime >= ?)))",
+                    new String[]{categoryName, t, Entry.IntervalType.Once.name(), f, Entry.IntervalType.Once.name(), f},
+                    null, null, "startTime");
+            while (cursor.moveToNext())
+                entries.add(readEntry(cursor));
+        } catch (SQLException e) {
+            throw new DataProviderException("Entries could not be read!", e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public Category getCategory(String name) throws DataProviderException {
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().query(TABLE_CATEGORY, CATEGORY_COLUMNS, "name = ?",
+                    new String[]{name}, null, null, null);
+            return cursor.moveToFirst() ? readCategory(cursor) : null;
+        } catch (SQLException e) {
+            throw new DataProviderException("Category could not be read!", e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+
+    @Override
+    public List<Entry> getAllEntries(Category category) throws DataProviderException {
+        return getAllEntries(category.getName());
+    }
+
+    final BudgetChangeDispatcher budgetChangeDispatcher = new BudgetChangeDispatcher();
+
+    @Override
+    public void addBudgetChangedListener(BudgetChangedListener l) {
+        budgetChangeDispatcher.addListener(l);
+    }
+
+    @Override
+    public void removeBudgetChangedListener(BudgetChangedListener l) {
+        budgetChangeDispatcher.removeListener(l);
+    }
+
+    @Override
+    public void addCategory(Category c) throws DataProviderException {
+        if (getCategory(c.getName()) != null)
+            throw new DataProviderException("A category with this name already exists!");
+        try {
+            helper.getWritableDatabase().insertOrThrow(TABLE_CATEGORY, null, toValues(c));
+        } catch (SQLException e) {
+            throw new DataProviderException("Category could not be added!", e);
+        }
+    }
+
+    @Override
+    public void removeCategory(Category c) throws DataProviderException {
+        removeCategory(c.getName());
+    }
+
+    @Override
+    public void removeCategory(String categoryName) throws DataProviderException {
+        try {
+            helper.getWritableDatabase().delete(TABLE_CATEGORY, "name = ?", new String[]{categoryName});
+        } catch (SQLException e) {
+            throw new DataProviderException("Category could not be removed!", e);
+        }
+    }
+
+    @Override
+    public void updateCategory(Category c) throws DataProviderException {
+        Category old = getCategory(c.getName());
+        if (old == null)
+            throw new DataProviderException("Category not found!");
+        try {
+            helper.getWritableDatabase().update(TABLE_CATEGORY, toValues(c), "name = ?", new String[]{c.getName()});
+        } catch (SQLException e) {
+            throw new DataProviderException("Update could not be performed!", e);
+        }
+        BigDecimal bo = old.getBudget(), bn = c.getBudget();
+        Date now = new Date(System.currentTimeMillis());
+        budgetChangeDispatcher.budgetChanged(c.getName(), now, bo, bn);
+    }
+
+    @Override
+    public Entry getEntry(long id) throws DataProviderException {
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().query(TABLE_ENTRY, ENTRY_COLUMNS, "_id = ?",
+                    new String[]{Long.toString(id)}, null, null, null);
+            return cursor.moveToFirst() ? readEntry(cursor) : null;
+        } catch (SQLException e) {
+            throw new DataProviderException("Entry could not be read!", e);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+
+    @Override
+    public Entry addEntry(Entry e) throws DataProviderException {
+        ContentValues values = toValues(e);
+        if (e.getId() != Entry.NO_ID)
+            values.put("_id", e.getId());
+        try {
+            return e.setId(helper.getWritableDatabase().insertOrThrow(TABLE_ENTRY, null, values));
+        } catch (SQLException e1) {
+            throw new DataProviderException("Entry could not be added!", e1);
+        }
+    }
+
+    @Override
+    public void removeEntry(Entry e) throws DataProviderException {
+        if (e.getParent() != null)
+            throw new DataProviderException("Occurrences of repeating entries cannot be removed!");
+        long id = idOf(e);
+        if (id == Entry.NO_ID)
+            return;
+        try {
+            helper.getWritableDatabase().delete(TABLE_ENTRY, "_id = ?", new String[]{Long.toString(id)});
+        } catch (SQLException e1) {
+            throw new DataProviderException("Entry could not be removed!", e1);
+        }
+    }
+
+    @Override
+    public Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        if (oldEntry.getParent() != null)
+            throw new DataProviderException("Occurrences of repeating entries cannot be updated!");
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long id = idOf(oldEntry);
+            removeEntry(oldEntry.setId(id));
+            Entry stored = addEntry(newEntry.setId(id != Entry.NO_ID ? id : newEntry.getId()));
+            db.setTransactionSuccessful();
+            return stored;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Entries without an id are looked up by their content among the entries of their category starting at the same time.
+     *
+     * @return the id of the stored entry or {@link Entry#NO_ID} if it is not stored
+     */
+    private long idOf(Entry e) throws DataProviderException {
+        if (e.getId() != Entry.NO_ID)
+            return e.getId();
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().query(TABLE_ENTRY, ENTRY_COLUMNS, "category = ? AND startTime = ?",
+                    new String[]{e.getCategoryName(), Long.toString(e.getStartTimeMillis())}, null, null, null);
+            while (cursor.moveToNext()) {
+                Entry stored = readEntry(cursor);
+                if (e.equals(stored))
+                    return stored.getId();
+            }
+            return Entry.NO_ID;
+        } catch (SQLException e1) {
+            throw new DataProviderException("Entry could not be read!", e1);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+
+    /**
+     * Runs the batch within a transaction, which is rolled back if the batch fails.
+     */
+    @Override
+    public void batch(Batch batch) throws DataProviderException {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            batch.run(this);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void reset() throws DataProviderException {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_ENTRY, null, null);
+            db.delete(TABLE_CATEGORY, null, null);
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new DataProviderException("Reset could not be performed!", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public boolean hasListeners() {
+        return budgetChangeDispatcher.hasListeners();
+    }
+
+    private static ContentValues toValues(Category c) {
+        ContentValues values = new ContentValues();
+        values.put("name", c.getName());
+        values.put("budget", c.getBudget() == null ? null : c.getBudget().toString());
+        values.put("currency", c.getCurrency().name());
+        return values;
+    }
+
+    private static ContentValues toValues(Entry e) {
+        ContentValues values = new ContentValues();
+        values.put("category", e.getCategoryName());
+        values.put("value", e.getValue().toString());
+        values.put("purpose", e.getPurpose());
+        values.put("locLat", e.getLocLat());
+        values.put("locLng", e.getLocLng());
+        values.put("repeatInterval", e.getInterval());
+        values.put("intervalType", e.getIntervalType().name());
+        values.put("startTime", e.getStartTimeMillis());
+        values.put("endTime", e.getEndTimeMillis() == Entry.NO_TIME ? null : e.getEndTimeMillis());
+        values.put("intervalEndTime", e.getIntervalEndTimeMillis() == Entry.NO_TIME ? null : e.getIntervalEndTimeMillis());
+        return values;
+    }
+
+    private static Category readCategory(Cursor cursor) {
+        RecordCounters.decoded();
+        Category c = new Category(cursor.getString(0), Currency.valueOf(cursor.getString(2)));
+        if (!cursor.isNull(1))
+            c.setBudget(new BigDecimal(cursor.getString(1)));
+        return c;
+    }
+
+    private static Entry readEntry(Cursor cursor) {
+        RecordCounters.decoded();
+        Entry.Builder b = new Entry.Builder(new BigDecimal(cursor.getString(1)), cursor.getLong(7), cursor.getString(0))
+                .setId(cursor.getLong(10));
+        if (!cursor.isNull(2))
+            b.setPurpose(cursor.getString(2));
+        if (!cursor.isNull(3) && !cursor.isNull(4))
+            b.setLngLat(cursor.getFloat(4), cursor.getFloat(3));
+        if (!cursor.isNull(8))
+            b.setEndTime(cursor.getLong(8));
+        b.setInterval(Entry.IntervalType.valueOf(cursor.getString(6)), cursor.getInt(5),
+                cursor.isNull(9) ? Entry.NO_TIME : cursor.getLong(9));
+        return b.build();
+    }
+}
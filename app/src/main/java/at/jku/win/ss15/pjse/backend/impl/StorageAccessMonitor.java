@@ -0,0 +1,321 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import android.os.Looper;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entries;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+/**
+ * A decorator for debug builds flagging every call of a {@link DataProvider} which is made on the
+ * main thread or takes longer than a threshold. Each such call is kept as a {@link Violation}
+ * with its call site and duration in a bounded report, dropping the oldest ones once it is full.
+ * <p>
+ * {@link Entries#availableBudget(Category, DataProvider, Date, Date)} is monitored by calling it
+ * through {@link #availableBudget(Category, Date, Date)}.
+ */
+public class StorageAccessMonitor extends ForwardingDataProvider {
+
+    /**
+     * The default threshold, a single frame at 60 fps
+     */
+    public static final long DEFAULT_THRESHOLD_MILLIS = 16;
+    public static final int DEFAULT_CAPACITY = 100;
+
+    /**
+     * A flagged call
+     */
+    public static class Violation {
+        private final String operation;
+        private final String threadName;
+        private final boolean mainThread;
+        private final long time;
+        private final long durationNanos;
+        private final StackTraceElement[] callSite;
+
+        Violation(String operation, boolean mainThread, long durationNanos, StackTraceElement[] callSite) {
+            this.operation = operation;
+            this.threadName = Thread.currentThread().getName();
+            this.mainThread = mainThread;
+            this.time = System.currentTimeMillis();
+            this.durationNanos = durationNanos;
+            this.callSite = callSite;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public boolean isMainThread() {
+            return mainThread;
+        }
+
+        /**
+         * @return the time the call ended in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return the stack of the caller, starting at the frame calling the monitor
+         */
+        public StackTraceElement[] getCallSite() {
+            return callSite.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US, "%s took %.3f ms on thread %s%s",
+                    operation, durationNanos / 1e6, threadName, mainThread ? " (main thread)" : ""));
+            for (StackTraceElement e : callSite)
+                sb.append("\n\tat ").append(e);
+            return sb.toString();
+        }
+    }
+
+    private final long thresholdNanos;
+    private final int capacity;
+    private final ArrayDeque<Violation> violations;
+    private long dropped = 0;
+
+    public StorageAccessMonitor(DataProvider delegate) {
+        this(delegate, DEFAULT_THRESHOLD_MILLIS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param delegate        the monitored provider
+     * @param thresholdMillis calls taking longer are flagged, even if not made on the main thread
+     * @param capacity        the maximum number of violations kept
+     */
+    public StorageAccessMonitor(DataProvider delegate, long thresholdMillis, int capacity) {
+        super(delegate);
+        if (thresholdMillis < 0)
+            throw new IllegalArgumentException("thresholdMillis must not be negative");
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.thresholdNanos = thresholdMillis * 1000000;
+        this.capacity = capacity;
+        this.violations = new ArrayDeque<>(capacity);
+    }
+
+    private static boolean isMainThread() {
+        Looper main = Looper.getMainLooper();
+        return main != null && main.getThread() == Thread.currentThread();
+    }
+
+    private void check(String operation, long start) {
+        long nanos = System.nanoTime() - start;
+        boolean main = isMainThread();
+        if (!main && nanos <= thresholdNanos)
+            return;
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        // skip this method and the monitored method
+        StackTraceElement[] callSite = new StackTraceElement[Math.max(0, stack.length - 2)];
+        System.arraycopy(stack, stack.length - callSite.length, callSite, 0, callSite.length);
+        Violation v = new Violation(operation, main, nanos, callSite);
+        synchronized (violations) {
+            if (violations.size() == capacity) {
+                violations.removeFirst();
+                dropped++;
+            }
+            violations.addLast(v);
+        }
+    }
+
+    /**
+     * @return the kept violations, oldest first
+     */
+    public List<Violation> getViolations() {
+        synchronized (violations) {
+            return new ArrayList<>(violations);
+        }
+    }
+
+    /**
+     * @return the number of violations dropped because the report was full
+     */
+    public long getDropped() {
+        synchronized (violations) {
+            return dropped;
+        }
+    }
+
+    public void clearViolations() {
+        synchronized (violations) {
+            violations.clear();
+            dropped = 0;
+        }
+    }
+
+    /**
+     * @return the kept violations with their call sites as text
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        List<Violation> list = getViolations();
+        sb.append(list.size()).append(" violations, ").append(getDropped()).append(" dropped\n");
+        for (Violation v : list)
+            sb.append(v).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Calculates the available budget like {@link Entries#availableBudget(Category, DataProvider, Date, Date)},
+     * reading the entries through this monitor.
+     */
+    public BigDecimal availableBudget(Category c, Date from, Date to) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return Entries.availableBudget(c, this, from, to);
+        } finally {
+            check("availableBudget", start);
+        }
+    }
+
+    @Override
+    public List<Category> getAllCategories() throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAllCategories();
+        } finally {
+            check("getAllCategories", start);
+        }
+    }
+
+    @Override
+    public List<Entry> getAllEntries(String categoryName) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAllEntries(categoryName);
+        } finally {
+            check("getAllEntries", start);
+        }
+    }
+
+    @Override
+    public List<Entry> getEntries(String categoryName, Date from, Date to) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getEntries(categoryName, from, to);
+        } finally {
+            check("getEntries", start);
+        }
+    }
+
+    @Override
+    public Category getCategory(String name) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getCategory(name);
+        } finally {
+            check("getCategory", start);
+        }
+    }
+
+    @Override
+    public void addCategory(Category c) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            delegate.addCategory(c);
+        } finally {
+            check("addCategory", start);
+        }
+    }
+
+    @Override
+    public void removeCategory(String categoryName) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeCategory(categoryName);
+        } finally {
+            check("removeCategory", start);
+        }
+    }
+
+    @Override
+    public void updateCategory(Category c) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            delegate.updateCategory(c);
+        } finally {
+            check("updateCategory", start);
+        }
+    }
+
+    @Override
+    public Entry getEntry(long id) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getEntry(id);
+        } finally {
+            check("getEntry", start);
+        }
+    }
+
+    @Override
+    public Entry addEntry(Entry e) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return delegate.addEntry(e);
+        } finally {
+            check("addEntry", start);
+        }
+    }
+
+    @Override
+    public void removeEntry(Entry e) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeEntry(e);
+        } finally {
+            check("removeEntry", start);
+        }
+    }
+
+    @Override
+    public Entry updateEntry(Entry oldEntry, Entry newEntry) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            return delegate.updateEntry(oldEntry, newEntry);
+        } finally {
+            check("updateEntry", start);
+        }
+    }
+
+    @Override
+    public void batch(Batch batch) throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            super.batch(batch);
+        } finally {
+            check("batch", start);
+        }
+    }
+
+    @Override
+    public void reset() throws DataProviderException {
+        long start = System.nanoTime();
+        try {
+            delegate.reset();
+        } finally {
+            check("reset", start);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package at.jku.win.ss15.pjse.backend;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import at.jku.win.ss15.pjse.backend.impl.LogStructuredDataProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BackupArchiveTest {
+
+    private static final int ENTRIES = BackupArchive.DEFAULT_CHUNK_SIZE + 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStructuredDataProvider source;
+    private LogStructuredDataProvider target;
+
+    @Before
+    public void setUp() throws Exception {
+        source = new LogStructuredDataProvider(folder.newFolder("source"));
+        Category food = new Category("Food", Currency.EUR);
+        food.setBudget(new BigDecimal("250.00"));
+        source.addCategory(food);
+        source.addCategory(new Category("Rent", Currency.USD));
+        for (int i = 0; i < ENTRIES; i++)
+            source.addEntry(new Entry(new BigDecimal(-i).movePointLeft(2), new Date(1000L * i), "Food").setPurpose(i % 2 == 0 ? "Groceries " + i : null));
+        source.addEntry(new Entry(new BigDecimal("-800"), new Date(0), "Rent").setInterval(Entry.IntervalType.Monthly, 1, null));
+
+        target = new LogStructuredDataProvider(folder.newFolder("target"));
+        target.addCategory(new Category("Old", Currency.EUR));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        source.close();
+        target.close();
+    }
+
+    private File export() throws Exception {
+        File file = folder.newFile("backup");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            BackupArchive.export(source, null, out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private void assertRejected(byte[] archive) throws Exception {
+        try {
+            BackupArchive.importInto(new ByteArrayInputStream(archive), target);
+            fail("archive was not rejected");
+        } catch (IOException expected) {
+        }
+        assertEquals(Collections.singletonList(new Category("Old", Currency.EUR)), target.getAllCategories());
+    }
+
+    @Test
+    public void importRestoresExportedData() throws Exception {
+        BackupArchive.importInto(new ByteArrayInputStream(read(export())), target);
+
+        List<Category> categories = target.getAllCategories();
+        assertEquals(source.getAllCategories(), categories);
+        assertEquals(new BigDecimal("250.00"), target.getCategory("Food").getBudget());
+        assertEquals(Currency.USD, target.getCategory("Rent").getCurrency());
+        for (Category c : categories)
+            assertEquals(source.getAllEntries(c.getName()), target.getAllEntries(c.getName()));
+    }
+
+    @Test
+    public void manifestListsChunksOfAtMostDefaultSize() throws Exception {
+        List<BackupArchive.ChunkInfo> chunks = BackupArchive.readManifest(export());
+        assertEquals(4, chunks.size());
+        assertEquals("categories", chunks.get(0).getName());
+        assertEquals(2, chunks.get(0).getRecords());
+        assertEquals("entries/Food", chunks.get(1).getName());
+        assertEquals(BackupArchive.DEFAULT_CHUNK_SIZE, chunks.get(1).getRecords());
+        assertEquals(ENTRIES - BackupArchive.DEFAULT_CHUNK_SIZE, chunks.get(2).getRecords());
+        assertEquals("entries/Rent", chunks.get(3).getName());
+        assertEquals(1, chunks.get(3).getRecords());
+        for (int i = 1; i < chunks.size(); i++)
+            assertTrue(chunks.get(i - 1).getOffset() + chunks.get(i - 1).getCompressedLength() < chunks.get(i).getOffset());
+    }
+
+    @Test
+    public void corruptedChunkIsRejected() throws Exception {
+        File file = export();
+        BackupArchive.ChunkInfo chunk = BackupArchive.readManifest(file).get(2);
+        byte[] archive = read(file);
+        // the last byte of the compressed data of the chunk before
+        archive[(int) chunk.getOffset() - 1] ^= 0x55;
+        assertRejected(archive);
+    }
+
+    private static byte[] archiveWithChunk(int records, int length, int compressedLength) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(archive);
+        out.write(BackupArchive.MAGIC);
+        out.writeByte(BackupArchive.VERSION);
+        out.writeByte(1);
+        out.writeUTF("categories");
+        out.writeInt(records);
+        out.writeInt(length);
+        out.writeInt(0);
+        out.writeInt(compressedLength);
+        out.write(new byte[compressedLength]);
+        out.flush();
+        return archive.toByteArray();
+    }
+
+    @Test
+    public void chunkLongerThanItsRecordsAllowIsRejected() throws Exception {
+        assertRejected(archiveWithChunk(1, Integer.MAX_VALUE, 16));
+        assertRejected(archiveWithChunk(1, BackupArchive.maxChunkLength(1) + 1, 16));
+    }
+
+    @Test
+    public void chunkWithTooManyRecordsIsRejected() throws Exception {
+        assertRejected(archiveWithChunk(BackupArchive.DEFAULT_CHUNK_SIZE + 1, 100, 16));
+    }
+}
@@ -0,0 +1,146 @@
+package at.jku.win.ss15.pjse.backend;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BinaryRecordCodecTest {
+
+    private static Entry fullEntry() {
+        Entry parent = new Entry.Builder(new BigDecimal("-450.00"), 1420070400000L, "Rent")
+                .setId(7)
+                .setInterval(Entry.IntervalType.Monthly, 1, 1451606400000L)
+                .build();
+        return new Entry.Builder(new BigDecimal("-450.00"), 1422748800000L, "Rent")
+                .setPurpose("Flat \u00e4\u00f6\u00fc \u20ac")
+                .setLngLat(14.2858f, 48.3069f)
+                .setEndTime(1422835200000L)
+                .setParent(parent)
+                .build();
+    }
+
+    private static BudgetChangedListener.LogItem logItem(String category, long time, BigDecimal from, BigDecimal to) {
+        BudgetChangedListener.LogItem item = new BudgetChangedListener.LogItem();
+        item.setCategoryName(category);
+        item.setDate(time < 0 ? null : new Date(time));
+        item.setPreviousBudget(from);
+        item.setBugget(to);
+        return item;
+    }
+
+    private static void assertSameEntry(Entry expected, Entry actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getEndTimeMillis(), actual.getEndTimeMillis());
+        assertEquals(expected.getIntervalEndTimeMillis(), actual.getIntervalEndTimeMillis());
+        if (expected.getParent() == null)
+            assertNull(actual.getParent());
+        else
+            assertSameEntry(expected.getParent(), actual.getParent());
+    }
+
+    @Test
+    public void singleRecordsRoundTrip() throws IOException {
+        Entry full = fullEntry();
+        assertSameEntry(full, BinaryRecordCodec.decode(BinaryRecordCodec.encode(full), Entry.class));
+        Entry minimal = new Entry(BigDecimal.ZERO, new Date(-1000), "Food");
+        assertSameEntry(minimal, BinaryRecordCodec.decode(BinaryRecordCodec.encode(minimal), Entry.class));
+
+        Category category = new Category("Food", Currency.USD);
+        category.setBudget(new BigDecimal("250.5"));
+        Category decoded = BinaryRecordCodec.decode(BinaryRecordCodec.encode(category), Category.class);
+        assertEquals(category.getName(), decoded.getName());
+        assertEquals(category.getCurrency(), decoded.getCurrency());
+        assertEquals(category.getBudget(), decoded.getBudget());
+        assertNull(BinaryRecordCodec.decode(BinaryRecordCodec.encode(new Category("Rent", Currency.EUR)), Category.class).getBudget());
+
+        BudgetChangedListener.LogItem item = logItem("Food", 1000, null, BigDecimal.TEN);
+        assertEquals(item, BinaryRecordCodec.decode(BinaryRecordCodec.encode(item), BudgetChangedListener.LogItem.class));
+    }
+
+    @Test
+    public void decimalsKeepValueAndScale() throws IOException {
+        for (String value : new String[]{"0", "-0.00", "1E+3", "123.456", "-9223372036854775808",
+                "9223372036854775808", "-123456789012345678901234567890.123456789"}) {
+            BigDecimal d = new BigDecimal(value);
+            BigDecimal decoded = BinaryRecordCodec.decode(BinaryRecordCodec.encode(new Entry(d, new Date(0), "Food")), Entry.class).getValue();
+            assertEquals(value, d.scale(), decoded.scale());
+            assertEquals(value, d, decoded);
+        }
+    }
+
+    @Test
+    public void streamRoundTrips() throws IOException {
+        List<Object> records = new ArrayList<>();
+        records.add(new Category("Food", Currency.EUR));
+        for (int i = 0; i < 100; i++)
+            records.add(new Entry.Builder(new BigDecimal(i).movePointLeft(2), 1000L * i, i % 2 == 0 ? "Food" : "Rent").setId(i + 1).build());
+        records.add(fullEntry());
+        records.add(logItem("Rent", 5000, BigDecimal.ONE, null));
+        records.add(logItem(null, -1, null, null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryRecordCodec.RecordWriter writer = new BinaryRecordCodec.RecordWriter(out);
+        for (Object record : records)
+            writer.write(record);
+
+        BinaryRecordCodec.RecordReader reader = new BinaryRecordCodec.RecordReader(new ByteArrayInputStream(out.toByteArray()));
+        for (Object record : records) {
+            Object read = reader.read();
+            if (record instanceof Entry)
+                assertSameEntry((Entry) record, (Entry) read);
+            else if (record instanceof Category)
+                assertEquals(((Category) record).getName(), ((Category) read).getName());
+            else
+                assertEquals(record, read);
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void lengthsBeyondTheLimitAreRejected() throws IOException {
+        char[] name = new char[BinaryRecordCodec.MAX_LENGTH + 1];
+        Arrays.fill(name, 'x');
+        try {
+            BinaryRecordCodec.encode(new Category(new String(name), Currency.EUR));
+            fail("oversized name was written");
+        } catch (IOException expected) {
+        }
+
+        // a category whose name claims to be 2 GB long
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(BinaryRecordCodec.VERSION);
+        data.write(BinaryRecordCodec.TYPE_CATEGORY);
+        BinaryRecordCodec.writeVarLong(data, 0);
+        BinaryRecordCodec.writeVarLong(data, 0);
+        BinaryRecordCodec.writeVarLong(data, Integer.MAX_VALUE);
+        try {
+            BinaryRecordCodec.decode(data.toByteArray(), Category.class);
+            fail("oversized length was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedRecordIsRejected() throws IOException {
+        byte[] data = BinaryRecordCodec.encode(fullEntry());
+        for (int length = 1; length < data.length; length++) {
+            try {
+                BinaryRecordCodec.decode(Arrays.copyOf(data, length), Entry.class);
+                fail("record truncated to " + length + " bytes was accepted");
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package at.jku.win.ss15.pjse.backend;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BudgetHistoryTest {
+
+    private static BudgetChangedListener.LogItem change(String category, long time, String from, String to) {
+        BudgetChangedListener.LogItem item = new BudgetChangedListener.LogItem();
+        item.setCategoryName(category);
+        item.setDate(new Date(time));
+        item.setPreviousBudget(from == null ? null : new BigDecimal(from));
+        item.setBugget(to == null ? null : new BigDecimal(to));
+        return item;
+    }
+
+    private static Category category(String name, String budget) {
+        Category c = new Category(name, Currency.EUR);
+        c.setBudget(new BigDecimal(budget));
+        return c;
+    }
+
+    @Test
+    public void budgetIsTheOneSetByTheLastChangeBefore() {
+        BudgetHistory history = new BudgetHistory(Arrays.asList(
+                change("Food", 3000, "200", "300"),
+                change("Food", 1000, "100", "200"),
+                change("Rent", 2000, null, "500")));
+        Category food = category("Food", "300");
+        assertEquals(new BigDecimal("100"), history.budgetAsOf(food, new Date(999)));
+        assertEquals(new BigDecimal("200"), history.budgetAsOf(food, new Date(1000)));
+        assertEquals(new BigDecimal("200"), history.budgetAsOf(food, new Date(2999)));
+        assertEquals(new BigDecimal("300"), history.budgetAsOf(food, new Date(3000)));
+        assertEquals(new BigDecimal("200"), history.asOf(food, new Date(2000)).getBudget());
+        assertEquals(new BigDecimal("300"), food.getBudget());
+    }
+
+    @Test
+    public void categoryHadNoBudgetBeforeItsFirstBudgetWasSet() {
+        BudgetHistory history = new BudgetHistory(Collections.singletonList(change("Rent", 2000, null, "500")));
+        Category rent = category("Rent", "500");
+        assertNull(history.budgetAsOf(rent, new Date(1999)));
+        assertEquals(new BigDecimal("500"), history.budgetAsOf(rent, new Date(2000)));
+    }
+
+    @Test
+    public void budgetRemovedByAChangeIsNull() {
+        BudgetHistory history = new BudgetHistory(Collections.singletonList(change("Rent", 2000, "500", null)));
+        Category rent = new Category("Rent", Currency.EUR);
+        assertEquals(new BigDecimal("500"), history.budgetAsOf(rent, new Date(1000)));
+        assertNull(history.budgetAsOf(rent, new Date(3000)));
+    }
+
+    @Test
+    public void categoryWithoutChangesKeepsItsCurrentBudget() {
+        BudgetChangedListener.LogItem withoutDate = change("Food", 0, "1", "2");
+        withoutDate.setDate(null);
+        BudgetHistory history = new BudgetHistory(Arrays.asList(change("Rent", 2000, null, "500"), withoutDate));
+        assertEquals(new BigDecimal("42"), history.budgetAsOf(category("Food", "42"), new Date(0)));
+    }
+}
@@ -0,0 +1,137 @@
+package at.jku.win.ss15.pjse.backend;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EntriesTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static Date date(int year, int month, int day) {
+        return new GregorianCalendar(year, month, day, 12, 0).getTime();
+    }
+
+    private static Entry repeating(Date start, Entry.IntervalType type, int interval, Date intervalEnd) {
+        return new Entry(new BigDecimal("-9.99"), start, "Rent").setInterval(type, interval, intervalEnd);
+    }
+
+    /**
+     * Steps through all occurrences from the start of the entry, as the n-th one starts
+     * {@code n * interval} days or months after it.
+     */
+    private static List<Long> expectedStartTimes(Entry e, Date from, Date to) {
+        List<Long> times = new ArrayList<>();
+        int field = e.getIntervalType() == Entry.IntervalType.Daily ? Calendar.DAY_OF_MONTH : Calendar.MONTH;
+        long last = e.getIntervalEndTimeMillis() == Entry.NO_TIME ? to.getTime() : Math.min(to.getTime(), e.getIntervalEndTimeMillis());
+        Calendar calendar = Calendar.getInstance();
+        for (int n = 0; ; n++) {
+            calendar.setTimeInMillis(e.getStartTimeMillis());
+            calendar.add(field, n * e.getInterval());
+            if (calendar.getTimeInMillis() > last)
+                return times;
+            if (calendar.getTimeInMillis() >= from.getTime())
+                times.add(calendar.getTimeInMillis());
+        }
+    }
+
+    private static List<Long> startTimes(Iterable<Entry> occurrences) {
+        List<Long> times = new ArrayList<>();
+        for (Entry occurrence : occurrences)
+            times.add(occurrence.getStartTimeMillis());
+        return times;
+    }
+
+    @Test
+    public void monthlyOccurrencesKeepTheDayOfTheStart() {
+        Entry e = repeating(date(2015, Calendar.JANUARY, 31), Entry.IntervalType.Monthly, 1, null);
+        List<Entry> occurrences = Entries.onceify(Collections.singletonList(e), date(2015, Calendar.JANUARY, 1), date(2015, Calendar.DECEMBER, 31));
+        assertEquals(12, occurrences.size());
+        assertEquals(date(2015, Calendar.FEBRUARY, 28), occurrences.get(1).getStartTime());
+        assertEquals(date(2015, Calendar.MARCH, 31), occurrences.get(2).getStartTime());
+        assertEquals(date(2015, Calendar.APRIL, 30), occurrences.get(3).getStartTime());
+    }
+
+    @Test
+    public void occurrencesAreOccurringOnceAndReferToTheirParent() {
+        Entry e = repeating(date(2015, Calendar.MARCH, 1), Entry.IntervalType.Daily, 7, date(2015, Calendar.MARCH, 29))
+                .toBuilder().setId(42).setEndTime(date(2015, Calendar.MARCH, 2)).build();
+        List<Entry> occurrences = Entries.onceify(Collections.singletonList(e), date(2015, Calendar.MARCH, 8), date(2015, Calendar.DECEMBER, 31));
+        // the 8th, 15th, 22nd and 29th, the interval end being inclusive
+        assertEquals(4, occurrences.size());
+        for (Entry occurrence : occurrences) {
+            assertEquals(Entry.IntervalType.Once, occurrence.getIntervalType());
+            assertEquals(Entry.NO_ID, occurrence.getId());
+            assertEquals(e, occurrence.getParent());
+            assertEquals(e.getValue(), occurrence.getValue());
+            assertEquals(e.getEndTimeMillis() - e.getStartTimeMillis(), occurrence.getEndTimeMillis() - occurrence.getStartTimeMillis());
+        }
+        assertEquals(date(2015, Calendar.MARCH, 8), occurrences.get(0).getStartTime());
+    }
+
+    @Test
+    public void entryOccurringOnceIsReturnedWithinItsRange() {
+        Entry e = new Entry(BigDecimal.ONE, date(2015, Calendar.MAY, 5), "Food");
+        assertEquals(Collections.singletonList(e), Entries.onceify(Collections.singletonList(e), date(2015, Calendar.MAY, 5), date(2015, Calendar.MAY, 5)));
+        assertTrue(Entries.onceify(Collections.singletonList(e), date(2015, Calendar.MAY, 6), date(2016, Calendar.MAY, 5)).isEmpty());
+    }
+
+    @Test
+    public void occurrencesFarFromTheStartMatchSteppingThroughAllOfThem() {
+        Date start = date(2000, Calendar.JANUARY, 31);
+        Date from = date(2014, Calendar.FEBRUARY, 28), to = date(2016, Calendar.MARCH, 1);
+        for (int interval = 1; interval <= 13; interval++) {
+            for (Entry.IntervalType type : new Entry.IntervalType[]{Entry.IntervalType.Daily, Entry.IntervalType.Monthly}) {
+                Entry e = repeating(start, type, interval, null);
+                assertEquals(type + " every " + interval, expectedStartTimes(e, from, to), startTimes(Entries.occurrences(e, from, to)));
+            }
+        }
+    }
+
+    @Test
+    public void countOccurrencesMatchesExpansion() {
+        Random random = new Random(4711);
+        long base = date(2010, Calendar.JANUARY, 1).getTime(), span = 8 * 365 * DAY;
+        for (int i = 0; i < 2000; i++) {
+            Date start = new Date(base + (long) (random.nextDouble() * span));
+            Entry.IntervalType type = Entry.IntervalType.values()[random.nextInt(3)];
+            Date intervalEnd = random.nextBoolean() ? null : new Date(start.getTime() + (long) (random.nextDouble() * span / 2));
+            Entry e = type == Entry.IntervalType.Once ? new Entry(BigDecimal.ONE, start, "Rent")
+                    : repeating(start, type, 1 + random.nextInt(40), intervalEnd);
+            Date from = new Date(base + (long) (random.nextDouble() * span));
+            // mostly spans of up to a year, sometimes empty ones
+            Date to = new Date(from.getTime() + (long) ((random.nextDouble() - 0.1) * 365 * DAY));
+
+            List<Long> expanded = startTimes(Entries.occurrences(e, from, to));
+            String message = e + " from " + from + " to " + to;
+            if (type != Entry.IntervalType.Once)
+                assertEquals(message, expectedStartTimes(e, from, to), expanded);
+            assertEquals(message, expanded.size(), Entries.countOccurrences(e, from, to));
+        }
+    }
+
+    @Test
+    public void sumEqualsSumOfExpandedOccurrences() {
+        Date from = date(2015, Calendar.JANUARY, 15), to = date(2015, Calendar.JULY, 14);
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(new BigDecimal("-12.50"), date(2015, Calendar.FEBRUARY, 1), "Food"));
+        entries.add(new Entry(new BigDecimal("-3.00"), date(2014, Calendar.FEBRUARY, 1), "Food"));
+        entries.add(repeating(date(2014, Calendar.DECEMBER, 31), Entry.IntervalType.Monthly, 1, null));
+        entries.add(repeating(date(2015, Calendar.JANUARY, 1), Entry.IntervalType.Daily, 3, date(2015, Calendar.MARCH, 1)));
+
+        BigDecimal expected = BigDecimal.ZERO;
+        for (Entry occurrence : Entries.onceify(entries, from, to))
+            expected = expected.add(occurrence.getValue());
+        assertEquals(expected, Entries.sum(entries, from, to));
+    }
+}
@@ -0,0 +1,106 @@
+package at.jku.win.ss15.pjse.backend;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+
+import at.jku.win.ss15.pjse.backend.impl.LogStructuredDataProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EntryColumnsTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final String[] CATEGORIES = {"Food", "Rent", "Travel"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStructuredDataProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new LogStructuredDataProvider(folder.getRoot());
+        for (String name : CATEGORIES)
+            provider.addCategory(new Category(name, Currency.EUR));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        provider.close();
+    }
+
+    private void add(String value, long start, Entry.IntervalType type, int interval) throws DataProvider.DataProviderException {
+        provider.addEntry(new Entry.Builder(new BigDecimal(value), start, "Food").setInterval(type, interval, Entry.NO_TIME).build());
+    }
+
+    @Test
+    public void sumsEqualTheSumOfTheEntries() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            BigDecimal value = BigDecimal.valueOf(random.nextInt(200000) - 100000, random.nextInt(4));
+            Entry.Builder b = new Entry.Builder(value, random.nextInt(1000) * DAY, CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            if (random.nextInt(10) == 0)
+                b.setInterval(random.nextBoolean() ? Entry.IntervalType.Daily : Entry.IntervalType.Monthly,
+                        1 + random.nextInt(30), random.nextBoolean() ? Entry.NO_TIME : (1000 + random.nextInt(500)) * DAY);
+            provider.addEntry(b.build());
+        }
+        EntryColumns columns = EntryColumns.snapshot(provider);
+        assertEquals(500, columns.size());
+
+        for (int i = 0; i < 50; i++) {
+            Date from = new Date(random.nextInt(1200) * DAY), to = new Date(from.getTime() + random.nextInt(400) * DAY);
+            Map<String, BigDecimal> byCategory = columns.sumByCategory(from, to);
+            for (String name : CATEGORIES) {
+                BigDecimal expected = Entries.sum(provider.getAllEntries(name), from, to);
+                assertEquals(name, 0, expected.compareTo(columns.sum(name, from, to)));
+                assertEquals(name, 0, expected.compareTo(byCategory.get(name)));
+            }
+        }
+    }
+
+    @Test
+    public void overflowingSumIsDetected() throws Exception {
+        // 9 * 10^18 minor units each, close to Long.MAX_VALUE
+        add("90000000000000000.00", DAY, Entry.IntervalType.Once, -1);
+        add("90000000000000000.00", 2 * DAY, Entry.IntervalType.Once, -1);
+        EntryColumns columns = EntryColumns.snapshot(provider);
+        assertEquals(new BigDecimal("90000000000000000.00"), columns.sum("Food", new Date(0), new Date(DAY)));
+        try {
+            columns.sum("Food", new Date(0), new Date(2 * DAY));
+            fail("overflow was not detected");
+        } catch (ArithmeticException expected) {
+        }
+        try {
+            columns.sumByCategory(new Date(0), new Date(2 * DAY));
+            fail("overflow was not detected");
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    @Test
+    public void overflowingRepetitionIsDetected() throws Exception {
+        add("-10000000000000000.00", DAY, Entry.IntervalType.Daily, 1);
+        EntryColumns columns = EntryColumns.snapshot(provider);
+        assertEquals(new BigDecimal("-90000000000000000.00"), columns.sum("Food", new Date(0), new Date(9 * DAY)));
+        try {
+            columns.sum("Food", new Date(0), new Date(10 * DAY));
+            fail("overflow was not detected");
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void valueOutOfRangeIsRejected() throws Exception {
+        add("100000000000000000.00", DAY, Entry.IntervalType.Once, -1);
+        EntryColumns.snapshot(provider);
+    }
+}
@@ -0,0 +1,120 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import at.jku.win.ss15.pjse.backend.BudgetChangedListener.LogItem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BudgetChangeLogTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BudgetChangeLog log;
+
+    /**
+     * Closes the log opened last and opens the file again
+     */
+    private BudgetChangeLog open(long retentionMillis) throws IOException {
+        if (log != null)
+            log.close();
+        log = new BudgetChangeLog(new File(folder.getRoot(), "budget-changes.log"), retentionMillis);
+        return log;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (log != null)
+            log.close();
+    }
+
+    @Test
+    public void changesAreOrderedByTime() throws IOException {
+        open(BudgetChangeLog.KEEP_FOREVER);
+        log.append("Food", new Date(3000), BigDecimal.ONE, BigDecimal.TEN);
+        log.append("Food", new Date(1000), null, BigDecimal.ONE);
+        log.append("Rent", new Date(2000), null, new BigDecimal(500));
+
+        List<LogItem> food = log.getChanges("Food", null, null, 10);
+        assertEquals(2, food.size());
+        assertEquals(1000L, food.get(0).getDate().getTime());
+        assertNull(food.get(0).getPreviousBudget());
+        assertEquals(BigDecimal.TEN, food.get(1).getBugget());
+
+        List<LogItem> all = log.getAllChanges();
+        assertEquals(3, all.size());
+        assertEquals("Rent", all.get(1).getCategoryName());
+        assertEquals(2, log.getChanges(null, new Date(2000), new Date(3000), 10).size());
+    }
+
+    @Test
+    public void changesAreRestoredAfterCompaction() throws IOException {
+        open(BudgetChangeLog.KEEP_FOREVER);
+        for (int i = 0; i < 100; i++)
+            log.append("C" + i % 3, new Date(1000L * i), new BigDecimal(i), new BigDecimal(i + 1));
+        log.compact();
+        log.append("C1", new Date(100000), null, BigDecimal.ZERO);
+
+        open(BudgetChangeLog.KEEP_FOREVER);
+        assertEquals(101, log.size());
+        List<LogItem> c1 = log.getChanges("C1", null, null, 100);
+        assertEquals(34, c1.size());
+        assertEquals(new BigDecimal(2), c1.get(0).getBugget());
+        assertEquals(BigDecimal.ZERO, c1.get(33).getBugget());
+    }
+
+    @Test
+    public void retentionKeepsLastChangeBeforeCutoff() throws IOException {
+        long now = System.currentTimeMillis();
+        open(BudgetChangeLog.KEEP_FOREVER);
+        for (int i = 10; i > 0; i--)
+            log.append("Food", new Date(now - i * DAY), null, new BigDecimal(i));
+
+        open(5 * DAY + DAY / 2);
+        List<LogItem> kept = log.getAllChanges();
+        // the changes of the last five days and the one in force five days ago
+        assertEquals(6, kept.size());
+        assertEquals(new BigDecimal(6), kept.get(0).getBugget());
+
+        open(BudgetChangeLog.KEEP_FOREVER);
+        assertEquals(6, log.size());
+    }
+
+    @Test
+    public void pagesDoNotSplitChangesSharingTheirTime() throws IOException {
+        open(BudgetChangeLog.KEEP_FOREVER);
+        int count = 0;
+        for (int t = 0; t < 20; t++)
+            for (String c : new String[]{"A", "B", "C"})
+                if ((t + c.charAt(0)) % 4 != 0)
+                    log.append(c, new Date(t / 3), null, new BigDecimal(count++));
+
+        for (String category : new String[]{null, "A"}) {
+            int total = log.getChanges(category, null, null, count).size(), seen = 0;
+            Date from = null;
+            while (true) {
+                List<LogItem> page = log.getChanges(category, from, null, 4);
+                if (page.isEmpty())
+                    break;
+                assertTrue(page.size() >= Math.min(4, total - seen));
+                seen += page.size();
+                from = new Date(page.get(page.size() - 1).getDate().getTime() + 1);
+            }
+            assertEquals(total, seen);
+        }
+    }
+}
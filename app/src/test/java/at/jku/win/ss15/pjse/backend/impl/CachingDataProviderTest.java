@@ -0,0 +1,54 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.Currency;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CachingDataProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void failedBatchDropsWhatItCached() throws Exception {
+        LogStructuredDataProvider log = new LogStructuredDataProvider(folder.newFolder("log"));
+        try {
+            CachingDataProvider cache = new CachingDataProvider(log);
+            cache.addCategory(new Category("Food", Currency.EUR));
+            try {
+                cache.batch(new DataProvider.Batch() {
+                    @Override
+                    public void run(DataProvider p) throws DataProvider.DataProviderException {
+                        p.addEntry(new Entry(BigDecimal.ONE, new Date(1000), "Food"));
+                        p.addCategory(new Category("X", Currency.EUR));
+                        assertEquals(1, p.getAllEntries("Food").size());
+                        assertEquals(1, p.getEntries("Food", new Date(0), new Date(2000)).size());
+                        assertEquals(2, p.getAllCategories().size());
+                        p.getCategory("X");
+                        throw new DataProvider.DataProviderException("failed");
+                    }
+                });
+                fail("exception of the batch was not thrown");
+            } catch (DataProvider.DataProviderException expected) {
+            }
+            assertEquals(0, cache.getAllEntries("Food").size());
+            assertEquals(0, cache.getEntries("Food", new Date(0), new Date(2000)).size());
+            assertNull(cache.getCategory("X"));
+            assertEquals(1, cache.getAllCategories().size());
+        } finally {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import at.jku.win.ss15.pjse.backend.DataChanges;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "changes.journal");
+    }
+
+    @Test
+    public void changesSinceReturnsLatestChangeOfEachKey() throws IOException {
+        ChangeJournal journal = new ChangeJournal(null);
+        journal.modified(Arrays.asList("Food", 1L, 2L));
+        long sequence = journal.getSequence();
+        assertEquals(3, sequence);
+        journal.modified(Arrays.asList(2L, "Rent"));
+
+        DataChanges all = journal.changesSince(0);
+        assertFalse(all.isReset());
+        assertEquals(5, all.getSequence());
+        assertEquals(Arrays.asList("Food", "Rent"), all.getCategoryNames());
+        assertEquals(Arrays.asList(1L, 2L), all.getEntryIds());
+
+        DataChanges since = journal.changesSince(sequence);
+        assertFalse(since.isReset());
+        assertEquals(Collections.singletonList("Rent"), since.getCategoryNames());
+        assertEquals(Collections.singletonList(2L), since.getEntryIds());
+
+        assertTrue(journal.changesSince(journal.getSequence()).getEntryIds().isEmpty());
+    }
+
+    @Test
+    public void resetModifiesEverything() throws IOException {
+        ChangeJournal journal = new ChangeJournal(null);
+        journal.modified(Arrays.asList("Food", 1L));
+        long beforeReset = journal.getSequence();
+        journal.reset();
+        journal.modified(Collections.singletonList(3L));
+
+        assertTrue(journal.changesSince(beforeReset).isReset());
+        DataChanges afterReset = journal.changesSince(beforeReset + 1);
+        assertFalse(afterReset.isReset());
+        assertEquals(Collections.singletonList(3L), afterReset.getEntryIds());
+    }
+
+    @Test
+    public void unknownSequenceIsReportedAsReset() throws IOException {
+        ChangeJournal journal = new ChangeJournal(null);
+        journal.modified(Arrays.asList("Food", 1L));
+        assertTrue(journal.changesSince(journal.getSequence() + 1).isReset());
+    }
+
+    @Test
+    public void reopenRestoresSequenceAndChanges() throws IOException {
+        ChangeJournal journal = new ChangeJournal(file);
+        journal.modified(Arrays.asList("Food", 1L));
+        journal.reset();
+        journal.modified(Arrays.asList(2L, "Rent"));
+        journal.close();
+
+        journal = new ChangeJournal(file);
+        assertEquals(5, journal.getSequence());
+        assertTrue(journal.changesSince(2).isReset());
+        DataChanges changes = journal.changesSince(3);
+        assertEquals(Collections.singletonList("Rent"), changes.getCategoryNames());
+        assertEquals(Collections.singletonList(2L), changes.getEntryIds());
+
+        journal.modified(Collections.singletonList(4L));
+        assertEquals(6, journal.getSequence());
+        journal.close();
+    }
+
+    @Test
+    public void endedModificationIsReportedByItsKeys() throws IOException {
+        ChangeJournal journal = new ChangeJournal(file);
+        journal.modified(Collections.singletonList("Food"));
+        long checkpoint = journal.getSequence();
+        long modification = journal.begin();
+        journal.end(modification, Collections.singletonList(7L));
+        assertEquals(Collections.singletonList(7L), journal.changesSince(checkpoint).getEntryIds());
+        journal.close();
+
+        journal = new ChangeJournal(file);
+        DataChanges changes = journal.changesSince(checkpoint);
+        assertFalse(changes.isReset());
+        assertEquals(Collections.singletonList(7L), changes.getEntryIds());
+        journal.close();
+    }
+
+    @Test
+    public void modificationNotEndedIsReportedAsResetOnce() throws IOException {
+        ChangeJournal journal = new ChangeJournal(file);
+        journal.modified(Collections.singletonList("Food"));
+        long checkpoint = journal.getSequence();
+        journal.begin();
+        // the application ends before the keys of the modification are known
+        journal.close();
+
+        journal = new ChangeJournal(file);
+        assertTrue(journal.changesSince(checkpoint).isReset());
+        long afterRestart = journal.getSequence();
+        journal.close();
+
+        journal = new ChangeJournal(file);
+        assertTrue(journal.changesSince(checkpoint).isReset());
+        assertFalse(journal.changesSince(afterRestart).isReset());
+        journal.close();
+    }
+
+    @Test
+    public void modificationWhoseKeysCannotBeWrittenIsReportedAsReset() throws IOException {
+        ChangeJournal journal = new ChangeJournal(file);
+        long checkpoint = journal.getSequence();
+        long modification = journal.begin();
+        journal.close();
+        try {
+            journal.end(modification, Collections.singletonList(1L));
+        } catch (IOException expected) {
+        }
+        assertTrue(journal.changesSince(checkpoint).isReset());
+    }
+
+    @Test
+    public void compactionKeepsLatestChangesAndSequence() throws IOException {
+        ChangeJournal journal = new ChangeJournal(file);
+        for (int round = 0; round < 20; round++) {
+            List<Object> keys = new ArrayList<>();
+            for (long id = 0; id < 100; id++)
+                keys.add(id);
+            journal.modified(keys);
+        }
+        // a modification which did not modify anything
+        journal.end(journal.begin(), Collections.emptyList());
+        long lengthBefore = file.length();
+        journal.compact();
+        assertTrue(file.length() < lengthBefore);
+        journal.close();
+
+        journal = new ChangeJournal(file);
+        assertEquals(2001, journal.getSequence());
+        assertEquals(100, journal.changesSince(0).getEntryIds().size());
+        assertEquals(Collections.singletonList(99L), journal.changesSince(1999).getEntryIds());
+        assertTrue(journal.changesSince(2001).getEntryIds().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void compactionKeepsModificationsNotEnded() throws IOException {
+        ChangeJournal journal = new ChangeJournal(file);
+        journal.modified(Arrays.asList(1L, 2L));
+        long checkpoint = journal.getSequence();
+        journal.begin();
+        journal.compact();
+        journal.close();
+
+        journal = new ChangeJournal(file);
+        assertTrue(journal.changesSince(checkpoint).isReset());
+        journal.close();
+    }
+}
@@ -0,0 +1,117 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.Currency;
+import at.jku.win.ss15.pjse.backend.DataChanges;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChangeTrackingDataProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStructuredDataProvider data;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new LogStructuredDataProvider(folder.newFolder("data"));
+        data.addCategory(new Category("Food", Currency.EUR));
+        journalFile = new File(folder.getRoot(), "changes.journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        data.close();
+    }
+
+    private static Entry entry(int i) {
+        return new Entry(new BigDecimal(i), new Date(1000L * i), "Food");
+    }
+
+    @Test
+    public void modificationsAreReportedByKey() throws Exception {
+        ChangeTrackingDataProvider provider = new ChangeTrackingDataProvider(data, new ChangeJournal(journalFile));
+        Entry kept = provider.addEntry(entry(1));
+        Entry removed = provider.addEntry(entry(2));
+        long checkpoint = provider.getSequence();
+
+        provider.addCategory(new Category("Rent", Currency.EUR));
+        Entry updated = provider.updateEntry(kept, entry(3));
+        provider.removeEntry(removed);
+        DataChanges changes = provider.changesSince(checkpoint);
+        assertFalse(changes.isReset());
+        assertEquals(Collections.singletonList("Rent"), changes.getCategoryNames());
+        assertEquals(Arrays.asList(updated.getId(), removed.getId()), changes.getEntryIds());
+        provider.close();
+    }
+
+    @Test
+    public void failedBatchIsReportedAsWell() throws Exception {
+        ChangeTrackingDataProvider provider = new ChangeTrackingDataProvider(data, new ChangeJournal(journalFile));
+        long checkpoint = provider.getSequence();
+        final Entry[] added = new Entry[1];
+        try {
+            provider.batch(new DataProvider.Batch() {
+                @Override
+                public void run(DataProvider p) throws DataProvider.DataProviderException {
+                    added[0] = p.addEntry(entry(1));
+                    throw new DataProvider.DataProviderException("failed");
+                }
+            });
+            fail("exception of the batch was not thrown");
+        } catch (DataProvider.DataProviderException expected) {
+        }
+        assertEquals(Collections.singletonList(added[0].getId()), provider.changesSince(checkpoint).getEntryIds());
+        provider.close();
+    }
+
+    @Test
+    public void modificationWhichCouldNotBeRecordedIsReportedAsReset() throws Exception {
+        final ChangeJournal journal = new ChangeJournal(journalFile);
+        // the journal fails after the entry has been written
+        ChangeTrackingDataProvider provider = new ChangeTrackingDataProvider(new ForwardingDataProvider(data) {
+            @Override
+            public Entry addEntry(Entry e) throws DataProviderException {
+                Entry stored = super.addEntry(e);
+                try {
+                    journal.close();
+                } catch (IOException e1) {
+                    throw new DataProviderException("failed", e1);
+                }
+                return stored;
+            }
+        }, journal);
+        provider.addCategory(new Category("Rent", Currency.EUR));
+        long checkpoint = provider.getSequence();
+        try {
+            provider.addEntry(entry(1));
+            fail("failure of the journal was not reported");
+        } catch (DataProvider.DataProviderException expected) {
+        }
+        assertTrue(provider.changesSince(checkpoint).isReset());
+
+        ChangeJournal reopened = new ChangeJournal(journalFile);
+        assertTrue(reopened.changesSince(checkpoint).isReset());
+        reopened.close();
+    }
+}
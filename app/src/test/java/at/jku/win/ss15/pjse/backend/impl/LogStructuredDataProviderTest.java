@@ -0,0 +1,248 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.Currency;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogStructuredDataProviderTest {
+
+    private static final String FOOD = "Food";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private LogStructuredDataProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("log");
+        provider = open();
+        provider.addCategory(new Category(FOOD, Currency.EUR));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        provider.close();
+    }
+
+    /**
+     * Opens the log with small segments, so records are spread over several of them
+     */
+    private LogStructuredDataProvider open() throws Exception {
+        return new LogStructuredDataProvider(directory, 1024, 2, false);
+    }
+
+    private void reopen() throws Exception {
+        provider.close();
+        provider = open();
+    }
+
+    private static Entry entry(int i) {
+        return new Entry(new BigDecimal(-i), new Date(1000L * i), FOOD);
+    }
+
+    private File lastSegment() {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+        Arrays.sort(segments);
+        return segments[segments.length - 1];
+    }
+
+    @Test
+    public void reopenRestoresAllRecords() throws Exception {
+        List<Entry> added = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            added.add(provider.addEntry(entry(i)));
+        for (int i = 0; i < 50; i++)
+            provider.removeEntry(added.get(i));
+        reopen();
+        assertNotNull(provider.getCategory(FOOD));
+        assertEquals(new HashSet<>(added.subList(50, 100)), new HashSet<>(provider.getAllEntries(FOOD)));
+        assertEquals(added.get(99), provider.getEntry(added.get(99).getId()));
+        assertNull(provider.getEntry(added.get(0).getId()));
+    }
+
+    @Test
+    public void reopenCutsOffTornTail() throws Exception {
+        List<Entry> added = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            added.add(provider.addEntry(entry(i)));
+        provider.close();
+        File segment = lastSegment();
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long length = raf.length();
+        raf.setLength(length - 3);
+        raf.close();
+
+        provider = open();
+        List<Entry> expected = added.subList(0, 19);
+        assertEquals(new HashSet<>(expected), new HashSet<>(provider.getAllEntries(FOOD)));
+        assertTrue("torn record was not cut off", segment.length() < length - 3);
+
+        // records appended after the cut must survive the next restart
+        Entry later = provider.addEntry(entry(100));
+        reopen();
+        assertEquals(later, provider.getEntry(later.getId()));
+        assertEquals(20, provider.getAllEntries(FOOD).size());
+    }
+
+    @Test
+    public void reopenCutsOffCorruptedRecord() throws Exception {
+        for (int i = 0; i < 5; i++)
+            provider.addEntry(entry(i));
+        provider.close();
+        File segment = lastSegment();
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(raf.length() - 1);
+        int last = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(last ^ 0xFF);
+        raf.close();
+
+        provider = open();
+        assertEquals(4, provider.getAllEntries(FOOD).size());
+    }
+
+    @Test
+    public void compactionRacingWithWritesKeepsLatestRecords() throws Exception {
+        final int threads = 4, operations = 500;
+        final Map<Long, Entry> expected = new ConcurrentHashMap<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * operations;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Entry previous = null;
+                        for (int i = 0; i < operations; i++) {
+                            Entry e = provider.addEntry(entry(offset + i));
+                            expected.put(e.getId(), e);
+                            if (previous != null && i % 3 == 0) {
+                                provider.removeEntry(previous);
+                                expected.remove(previous.getId());
+                            } else if (previous != null && i % 3 == 1) {
+                                Entry updated = provider.updateEntry(previous, entry(-offset - i));
+                                expected.put(updated.getId(), updated);
+                            }
+                            previous = e;
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : writers)
+            t.start();
+        for (Thread t : writers)
+            t.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(provider.getAllEntries(FOOD)));
+        reopen();
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(provider.getAllEntries(FOOD)));
+        for (Entry e : expected.values())
+            assertEquals(e, provider.getEntry(e.getId()));
+    }
+
+    @Test
+    public void idsAreNotReusedAfterResetOrRestart() throws Exception {
+        long highest = 0;
+        for (int i = 0; i < 10; i++)
+            highest = Math.max(highest, provider.addEntry(entry(i)).getId());
+
+        provider.reset();
+        assertTrue(provider.getAllCategories().isEmpty());
+        provider.addCategory(new Category(FOOD, Currency.EUR));
+        Entry afterReset = provider.addEntry(entry(10));
+        assertTrue("id reused after reset", afterReset.getId() > highest);
+
+        reopen();
+        Entry afterRestart = provider.addEntry(entry(11));
+        assertTrue("id reused after restart", afterRestart.getId() > afterReset.getId());
+
+        provider.reset();
+        reopen();
+        provider.addCategory(new Category(FOOD, Currency.EUR));
+        assertTrue("id reused after reset and restart", provider.addEntry(entry(12)).getId() > afterRestart.getId());
+    }
+
+    @Test
+    public void failedBatchIsRolledBack() throws Exception {
+        final Entry kept = provider.addEntry(entry(0));
+        try {
+            provider.batch(new DataProvider.Batch() {
+                @Override
+                public void run(DataProvider p) throws DataProvider.DataProviderException {
+                    for (int i = 1; i < 50; i++)
+                        p.addEntry(entry(i));
+                    p.reset();
+                    p.addCategory(new Category("Other", Currency.EUR));
+                    throw new DataProvider.DataProviderException("failed");
+                }
+            });
+            fail("exception of the batch was not thrown");
+        } catch (DataProvider.DataProviderException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(Collections.singletonList(kept), provider.getAllEntries(FOOD));
+        assertNull(provider.getCategory("Other"));
+
+        reopen();
+        assertEquals(Collections.singletonList(kept), provider.getAllEntries(FOOD));
+        assertNull(provider.getCategory("Other"));
+    }
+
+    @Test
+    public void batchIsVisibleWithinAndWrittenAfterwards() throws Exception {
+        final Map<Long, Entry> added = new HashMap<>();
+        provider.batch(new DataProvider.Batch() {
+            @Override
+            public void run(DataProvider p) throws DataProvider.DataProviderException {
+                for (int i = 0; i < 50; i++) {
+                    Entry e = p.addEntry(entry(i));
+                    added.put(e.getId(), e);
+                }
+                assertEquals(50, p.getAllEntries(FOOD).size());
+            }
+        });
+        reopen();
+        assertEquals(new HashSet<>(added.values()), new HashSet<>(provider.getAllEntries(FOOD)));
+    }
+}
@@ -0,0 +1,149 @@
+package at.jku.win.ss15.pjse.backend.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RecordFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] records(String... payloads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String payload : payloads)
+            out.write(RecordFile.frame(payload.getBytes("UTF-8")));
+        return out.toByteArray();
+    }
+
+    private static List<String> replay(File file) throws IOException {
+        final List<String> payloads = new ArrayList<>();
+        RecordFile records = new RecordFile(file);
+        try {
+            records.replay(new RecordFile.Reader() {
+                @Override
+                public void read(long offset, byte[] payload) throws IOException {
+                    payloads.add(new String(payload, "UTF-8"));
+                }
+            });
+        } finally {
+            records.close();
+        }
+        return payloads;
+    }
+
+    private static void write(File file, long position, int b) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            raf.write(b);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void appendedRecordsAreReplayedInOrder() throws IOException {
+        File file = folder.newFile("records");
+        RecordFile records = new RecordFile(file);
+        records.append(records("a", "bb"));
+        records.append(records("ccc"));
+        records.close();
+        assertEquals(Arrays.asList("a", "bb", "ccc"), replay(file));
+    }
+
+    @Test
+    public void tornTailIsCutOffOnEveryLength() throws IOException {
+        File file = folder.newFile("records");
+        byte[] data = records("first", "second");
+        int firstLength = RecordFile.HEADER_SIZE + "first".length();
+        for (int length = 0; length <= data.length; length++) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            raf.write(data, 0, length);
+            raf.close();
+
+            List<String> expected = length == data.length ? Arrays.asList("first", "second")
+                    : length >= firstLength ? Arrays.asList("first") : new ArrayList<String>();
+            assertEquals("length " + length, expected, replay(file));
+            assertEquals("length " + length, length == data.length ? data.length : length >= firstLength ? firstLength : 0, file.length());
+        }
+    }
+
+    @Test
+    public void corruptedRecordEndsTheReplay() throws IOException {
+        File file = folder.newFile("records");
+        RecordFile records = new RecordFile(file);
+        records.append(records("first", "second", "third"));
+        records.close();
+        // flip a byte of the second payload
+        write(file, 2 * RecordFile.HEADER_SIZE + "first".length() + 1, 'X');
+        assertEquals(Arrays.asList("first"), replay(file));
+    }
+
+    @Test
+    public void recordsAppendedAfterACutSurviveTheNextReplay() throws IOException {
+        File file = folder.newFile("records");
+        RecordFile records = new RecordFile(file);
+        records.append(records("first", "second"));
+        records.close();
+        truncate(file, file.length() - 1);
+
+        records = new RecordFile(file);
+        records.replay(new RecordFile.Reader() {
+            @Override
+            public void read(long offset, byte[] payload) {
+            }
+        });
+        records.append(records("third"));
+        records.close();
+        assertEquals(Arrays.asList("first", "third"), replay(file));
+    }
+
+    @Test
+    public void rewriteReplacesTheContent() throws IOException {
+        File file = folder.newFile("records");
+        RecordFile records = new RecordFile(file);
+        records.append(records("a", "b", "c"));
+        records.rewrite(records("c"));
+        records.append(records("d"));
+        records.close();
+        assertEquals(Arrays.asList("c", "d"), replay(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void leftoverOfAnInterruptedRewriteIsIgnored() throws IOException {
+        File file = folder.newFile("records");
+        RecordFile records = new RecordFile(file);
+        records.append(records("kept"));
+        records.close();
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        raf.write(records("partial"));
+        raf.close();
+
+        assertEquals(Arrays.asList("kept"), replay(file));
+        assertFalse(temp.exists());
+    }
+}
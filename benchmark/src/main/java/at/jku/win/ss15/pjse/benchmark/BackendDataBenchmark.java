@@ -0,0 +1,109 @@
+package at.jku.win.ss15.pjse.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.win.ss15.pjse.backend.BackendData;
+import at.jku.win.ss15.pjse.backend.BackupArchive;
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.RecordCodec;
+import at.jku.win.ss15.pjse.backend.impl.LogStructuredDataProvider;
+
+/**
+ * Exporting a provider's data and importing it into another provider, in JSON and binary format
+ * as well as a {@link BackupArchive}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BackendDataBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"JSON", "BINARY", "ARCHIVE"})
+    public String format;
+
+    private File sourceDirectory, targetDirectory;
+    private LogStructuredDataProvider source, target;
+    private byte[] exported;
+
+    /**
+     * Discards everything written to it, so only the export itself is measured
+     */
+    private static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DataProvider.DataProviderException {
+        List<Category> categories = Datasets.categories(EntriesBenchmark.CATEGORIES);
+        sourceDirectory = Datasets.tempDirectory("backend-data-source");
+        source = Datasets.fill(sourceDirectory, categories,
+                Datasets.entries(EntriesBenchmark.SEED, size, categories, EntriesBenchmark.YEARS));
+        targetDirectory = Datasets.tempDirectory("backend-data-target");
+        target = new LogStructuredDataProvider(targetDirectory);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export(out);
+        exported = out.toByteArray();
+    }
+
+    private void export(OutputStream out) throws IOException, DataProvider.DataProviderException {
+        if (format.equals("ARCHIVE"))
+            BackupArchive.export(source, null, out);
+        else
+            BackendData.exportBackendData(source, null, out, RecordCodec.valueOf(format));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Datasets.delete(source, sourceDirectory);
+        Datasets.delete(target, targetDirectory);
+    }
+
+    @Benchmark
+    public void export() throws IOException, DataProvider.DataProviderException {
+        export(SINK);
+    }
+
+    @Benchmark
+    public void importInto() throws IOException, DataProvider.DataProviderException {
+        BackendData.importBackendData(new ByteArrayInputStream(exported), target);
+    }
+
+    @Benchmark
+    public void roundTrip() throws IOException, DataProvider.DataProviderException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(exported.length);
+        export(out);
+        BackendData.importBackendData(new ByteArrayInputStream(out.toByteArray()), target);
+    }
+}
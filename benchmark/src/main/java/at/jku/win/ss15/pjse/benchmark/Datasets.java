@@ -0,0 +1,135 @@
+package at.jku.win.ss15.pjse.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.Currency;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entry;
+import at.jku.win.ss15.pjse.backend.impl.LogStructuredDataProvider;
+
+/**
+ * Generates repeatable datasets resembling the data of a real user: a few dozen categories with
+ * budgets and entries spread over several years, most of them occurring once, some repeating
+ * monthly (rent, subscriptions) or daily (commuting, lunch).
+ */
+public class Datasets {
+
+    /**
+     * All datasets end at this point in time, so they do not depend on the current date
+     */
+    public static final long NOW;
+    public static final long DAY = 24 * 60 * 60 * 1000L;
+
+    public static final double DAILY_SHARE = 0.05;
+    public static final double MONTHLY_SHARE = 0.10;
+    public static final double INCOME_SHARE = 0.05;
+
+    private static final String[] PURPOSES = {null, "Groceries", "Lunch", "Fuel", "Rent", "Cinema",
+            "Train ticket", "Salary", "Coffee", "Insurance", "Books", "Gift"};
+
+    static {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.clear();
+        c.set(2015, Calendar.JUNE, 1);
+        NOW = c.getTimeInMillis();
+    }
+
+    private Datasets() {
+    }
+
+    /**
+     * @param count the number of categories
+     * @return categories named {@code Category-0} to {@code Category-(count-1)}, all with a budget
+     */
+    public static List<Category> categories(int count) {
+        List<Category> categories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Category c = new Category("Category-" + i, i % 7 == 6 ? Currency.USD : Currency.EUR);
+            c.setBudget(BigDecimal.valueOf(100 + 50 * (i % 20)));
+            categories.add(c);
+        }
+        return categories;
+    }
+
+    /**
+     * @param seed       the seed of the random numbers, the same seed yields the same entries
+     * @param count      the number of entries
+     * @param categories the categories the entries are spread over, some more used than others
+     * @param years      the number of years before {@link #NOW} the entries start in
+     * @return the entries without ids
+     */
+    public static List<Entry> entries(long seed, int count, List<Category> categories, int years) {
+        Random random = new Random(seed);
+        long span = years * 365 * DAY;
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // squaring skews the distribution towards the first categories
+            double r = random.nextDouble();
+            Category c = categories.get((int) (r * r * categories.size()));
+            boolean income = random.nextDouble() < INCOME_SHARE;
+            BigDecimal value = BigDecimal.valueOf((income ? 1 : -1) * (100 + random.nextInt(income ? 300000 : 20000)), 2);
+            long start = NOW - (long) (random.nextDouble() * span);
+            Entry.Builder b = new Entry.Builder(value, start, c.getName())
+                    .setPurpose(PURPOSES[random.nextInt(PURPOSES.length)]);
+            double kind = random.nextDouble();
+            if (kind < DAILY_SHARE)
+                b.setInterval(Entry.IntervalType.Daily, 1 + random.nextInt(3),
+                        random.nextBoolean() ? start + (1 + random.nextInt(90)) * DAY : Entry.NO_TIME);
+            else if (kind < DAILY_SHARE + MONTHLY_SHARE)
+                b.setInterval(Entry.IntervalType.Monthly, 1 + random.nextInt(3) / 2,
+                        random.nextBoolean() ? start + (1 + random.nextInt(24)) * 30 * DAY : Entry.NO_TIME);
+            entries.add(b.build());
+        }
+        return entries;
+    }
+
+    /**
+     * Opens a {@link LogStructuredDataProvider} in an empty directory and fills it.
+     *
+     * @return the filled provider, to be released by {@link #delete(LogStructuredDataProvider, File)}
+     */
+    public static LogStructuredDataProvider fill(File directory, final List<Category> categories, final List<Entry> entries) throws DataProvider.DataProviderException {
+        LogStructuredDataProvider provider = new LogStructuredDataProvider(directory);
+        provider.batch(new DataProvider.Batch() {
+            @Override
+            public void run(DataProvider provider) throws DataProvider.DataProviderException {
+                for (Category c : categories)
+                    provider.addCategory(c);
+                for (Entry e : entries)
+                    provider.addEntry(e);
+            }
+        });
+        return provider;
+    }
+
+    /**
+     * @return a new, empty temporary directory
+     */
+    public static File tempDirectory(String prefix) throws IOException {
+        File f = File.createTempFile(prefix, "");
+        if (!f.delete() || !f.mkdir())
+            throw new IOException("Could not create " + f);
+        return f;
+    }
+
+    /**
+     * Closes a provider and deletes its directory.
+     */
+    public static void delete(LogStructuredDataProvider provider, File directory) throws IOException {
+        if (provider != null)
+            provider.close();
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        directory.delete();
+    }
+}
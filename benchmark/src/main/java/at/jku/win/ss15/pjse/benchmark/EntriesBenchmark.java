@@ -0,0 +1,90 @@
+package at.jku.win.ss15.pjse.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entries;
+import at.jku.win.ss15.pjse.backend.Entry;
+import at.jku.win.ss15.pjse.backend.impl.LogStructuredDataProvider;
+
+/**
+ * Expanding repeating entries and computing the available budget of a category.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntriesBenchmark {
+
+    public static final long SEED = 42;
+    public static final int CATEGORIES = 30;
+    public static final int YEARS = 3;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private List<Entry> entries;
+    private Category category;
+    private File directory;
+    private LogStructuredDataProvider provider;
+    private Date monthStart, yearStart, end;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DataProvider.DataProviderException {
+        List<Category> categories = Datasets.categories(CATEGORIES);
+        entries = Datasets.entries(SEED, size, categories, YEARS);
+        category = categories.get(0);
+        directory = Datasets.tempDirectory("entries-benchmark");
+        provider = Datasets.fill(directory, categories, entries);
+        end = new Date(Datasets.NOW);
+        monthStart = new Date(Datasets.NOW - 30 * Datasets.DAY);
+        yearStart = new Date(Datasets.NOW - 365 * Datasets.DAY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Datasets.delete(provider, directory);
+    }
+
+    @Benchmark
+    public List<Entry> onceifyMonth() {
+        return Entries.onceify(entries, monthStart, end);
+    }
+
+    @Benchmark
+    public List<Entry> onceifyYear() {
+        return Entries.onceify(entries, yearStart, end);
+    }
+
+    @Benchmark
+    public BigDecimal availableBudgetMonth() throws DataProvider.DataProviderException {
+        return Entries.availableBudget(category, provider, monthStart, end);
+    }
+
+    @Benchmark
+    public BigDecimal availableBudgetYear() throws DataProvider.DataProviderException {
+        return Entries.availableBudget(category, provider, yearStart, end);
+    }
+}
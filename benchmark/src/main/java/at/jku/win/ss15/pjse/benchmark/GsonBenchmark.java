@@ -0,0 +1,82 @@
+package at.jku.win.ss15.pjse.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.Entry;
+import at.jku.win.ss15.pjse.backend.impl.GsonHelper;
+
+/**
+ * Serializing and deserializing single records as the {@link at.jku.win.ss15.pjse.backend.DataProvider}
+ * implementations do for every read and write.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GsonBenchmark {
+
+    private Entry entry, repeatingEntry;
+    private Category category;
+    private String entryJson, repeatingEntryJson, categoryJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Category> categories = Datasets.categories(1);
+        category = categories.get(0);
+        for (Entry e : Datasets.entries(EntriesBenchmark.SEED, 100, categories, 1)) {
+            if (e.getIntervalType() == Entry.IntervalType.Once && entry == null && e.getPurpose() != null)
+                entry = e;
+            else if (e.getIntervalType() != Entry.IntervalType.Once && repeatingEntry == null)
+                repeatingEntry = e;
+        }
+        entryJson = GsonHelper.seralizeObject(entry);
+        repeatingEntryJson = GsonHelper.seralizeObject(repeatingEntry);
+        categoryJson = GsonHelper.seralizeObject(category);
+    }
+
+    @Benchmark
+    public String serializeEntry() throws IOException {
+        return GsonHelper.seralizeObject(entry);
+    }
+
+    @Benchmark
+    public String serializeRepeatingEntry() throws IOException {
+        return GsonHelper.seralizeObject(repeatingEntry);
+    }
+
+    @Benchmark
+    public String serializeCategory() throws IOException {
+        return GsonHelper.seralizeObject(category);
+    }
+
+    @Benchmark
+    public Entry deserializeEntry() throws IOException, ClassNotFoundException {
+        return GsonHelper.deseralizeObject(entryJson, Entry.class);
+    }
+
+    @Benchmark
+    public Entry deserializeRepeatingEntry() throws IOException, ClassNotFoundException {
+        return GsonHelper.deseralizeObject(repeatingEntryJson, Entry.class);
+    }
+
+    @Benchmark
+    public Category deserializeCategory() throws IOException, ClassNotFoundException {
+        return GsonHelper.deseralizeObject(categoryJson, Category.class);
+    }
+}
@@ -0,0 +1,170 @@
+package at.jku.win.ss15.pjse.benchmark;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link SharedPreferences} kept in memory, standing in for the Android implementation on a
+ * plain JVM. Like the original, an editor collects its modifications and applies them at once;
+ * the number of applied editors is counted, as each of them would be written to disk on a device.
+ */
+public class InMemorySharedPreferences implements SharedPreferences {
+
+    private final Map<String, Object> values = new HashMap<>();
+    private final List<OnSharedPreferenceChangeListener> listeners = new ArrayList<>();
+    private long writes = 0;
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<>(values);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        Object o = values.get(key);
+        return o == null ? defValue : (String) o;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+        Object o = values.get(key);
+        return o == null ? defValues : (Set<String>) o;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Object o = values.get(key);
+        return o == null ? defValue : (Integer) o;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Object o = values.get(key);
+        return o == null ? defValue : (Long) o;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        Object o = values.get(key);
+        return o == null ? defValue : (Float) o;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object o = values.get(key);
+        return o == null ? defValue : (Boolean) o;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new InMemoryEditor();
+    }
+
+    @Override
+    public synchronized void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the number of editors applied or committed so far
+     */
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    private class InMemoryEditor implements Editor {
+        private final Map<String, Object> modified = new HashMap<>();
+        private boolean clear = false;
+
+        private Editor put(String key, Object value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return put(key, values == null ? null : new HashSet<>(values));
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            // a NULL value removes the key, as in the Android implementation
+            return put(key, null);
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            List<OnSharedPreferenceChangeListener> notified;
+            synchronized (InMemorySharedPreferences.this) {
+                if (clear)
+                    values.clear();
+                for (Map.Entry<String, Object> e : modified.entrySet()) {
+                    if (e.getValue() == null)
+                        values.remove(e.getKey());
+                    else
+                        values.put(e.getKey(), e.getValue());
+                }
+                writes++;
+                notified = listeners.isEmpty() ? null : new ArrayList<>(listeners);
+            }
+            if (notified != null)
+                for (String key : modified.keySet())
+                    for (OnSharedPreferenceChangeListener l : notified)
+                        l.onSharedPreferenceChanged(InMemorySharedPreferences.this, key);
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package at.jku.win.ss15.pjse.benchmark;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Records the latencies of the operations of a scenario and reports their throughput and percentiles.
+ */
+public class Latencies {
+
+    private final String name;
+    private long[] nanos = new long[1024];
+    private int count = 0;
+    private long totalNanos = 0;
+
+    public Latencies(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param start the value of {@link System#nanoTime()} before the operation
+     */
+    public void record(long start) {
+        long latency = System.nanoTime() - start;
+        if (count == nanos.length)
+            nanos = Arrays.copyOf(nanos, count * 2);
+        nanos[count++] = latency;
+        totalNanos += latency;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return the latency in nanoseconds, which the given share of operations did not exceed
+     */
+    public long percentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * @return the operations per second, based on the time spent within the operations
+     */
+    public double opsPerSecond() {
+        return totalNanos == 0 ? 0 : count * 1e9 / totalNanos;
+    }
+
+    public void report(PrintStream out) {
+        out.printf("%-14s %8d ops %12.1f ops/s   p50 %10.3f ms   p99 %10.3f ms   max %10.3f ms%n",
+                name, count, opsPerSecond(), percentile(50) / 1e6, percentile(99) / 1e6, percentile(100) / 1e6);
+    }
+}
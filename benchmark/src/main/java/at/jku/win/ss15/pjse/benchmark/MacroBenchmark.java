@@ -0,0 +1,260 @@
+package at.jku.win.ss15.pjse.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import at.jku.win.ss15.pjse.backend.BackendData;
+import at.jku.win.ss15.pjse.backend.Category;
+import at.jku.win.ss15.pjse.backend.DataProvider;
+import at.jku.win.ss15.pjse.backend.Entries;
+import at.jku.win.ss15.pjse.backend.Entry;
+import at.jku.win.ss15.pjse.backend.impl.BudgetChangeLog;
+import at.jku.win.ss15.pjse.backend.impl.BudgetChangedListenerImpl;
+import at.jku.win.ss15.pjse.backend.impl.DataProviderImpl;
+
+/**
+ * Replays end-to-end scenarios against a {@link DataProviderImpl} backed by
+ * {@link InMemorySharedPreferences}, covering the provider, Gson and {@link Entries} at once:
+ * <ul>
+ * <li>bulk import: importing an exported dataset into an empty provider</li>
+ * <li>cold start: opening the provider and computing the budgets of the current month</li>
+ * <li>month view: loading, expanding and summing up a category's entries of one month</li>
+ * <li>mixed: month views interleaved with adding, updating and removing entries and budget edits</li>
+ * <li>export: exporting the whole dataset</li>
+ * </ul>
+ * Each scenario is warmed up before its operations are measured. Usage:
+ * <pre>
+ * ./gradlew :benchmark:macro -PmacroArgs="--entries 100000 --ops 5000"
+ * </pre>
+ * Options: {@code --seed}, {@code --categories}, {@code --entries}, {@code --years}, {@code --ops}
+ * and {@code --imports}, the number of bulk imports and cold starts.
+ */
+public class MacroBenchmark {
+
+    private long seed = 42;
+    private int categoryCount = 40;
+    private int entryCount = 50000;
+    private int years = 5;
+    private int ops = 2000;
+    private int imports = 5;
+
+    private final Random random;
+    private final List<Category> categories;
+    private final List<Entry> entries;
+    private final InMemorySharedPreferences cat = new InMemorySharedPreferences(),
+            ent = new InMemorySharedPreferences(), catEnt = new InMemorySharedPreferences();
+    private final BudgetChangeLog log;
+    private DataProvider provider;
+    private byte[] exported;
+
+    private static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private MacroBenchmark(String[] args) throws IOException {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--seed":
+                    seed = value;
+                    break;
+                case "--categories":
+                    categoryCount = value;
+                    break;
+                case "--entries":
+                    entryCount = value;
+                    break;
+                case "--years":
+                    years = value;
+                    break;
+                case "--ops":
+                    ops = value;
+                    break;
+                case "--imports":
+                    imports = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        random = new Random(seed);
+        categories = Datasets.categories(categoryCount);
+        entries = Datasets.entries(seed, entryCount, categories, years);
+        log = new BudgetChangeLog(null);
+    }
+
+    public static void main(String[] args) throws Exception {
+        MacroBenchmark benchmark = new MacroBenchmark(args);
+        System.out.printf("seed %d, %d categories, %d entries over %d years, %d ops%n",
+                benchmark.seed, benchmark.categoryCount, benchmark.entryCount, benchmark.years, benchmark.ops);
+        benchmark.populate();
+        benchmark.bulkImport().report(System.out);
+        benchmark.coldStart().report(System.out);
+        benchmark.monthView().report(System.out);
+        benchmark.mixed().report(System.out);
+        benchmark.export().report(System.out);
+        // budget changes are delivered to the log on a background thread
+        ((DataProviderImpl) benchmark.provider).flushBudgetChanges();
+        System.out.printf("%d preference writes, %d budget changes logged%n",
+                benchmark.cat.getWrites() + benchmark.ent.getWrites() + benchmark.catEnt.getWrites(), benchmark.log.size());
+    }
+
+    private DataProvider open() {
+        DataProvider p = DataProviderImpl.create(cat, ent, catEnt);
+        p.addBudgetChangedListener(new BudgetChangedListenerImpl(log));
+        return p;
+    }
+
+    /**
+     * Fills the provider with the generated dataset and edits every budget twice a year.
+     */
+    private void populate() throws DataProvider.DataProviderException, IOException {
+        provider = open();
+        provider.batch(new DataProvider.Batch() {
+            @Override
+            public void run(DataProvider provider) throws DataProvider.DataProviderException {
+                for (Category c : categories)
+                    provider.addCategory(c);
+                for (Entry e : entries)
+                    provider.addEntry(e);
+            }
+        });
+        for (int i = 0; i < 2 * years; i++)
+            for (Category c : categories)
+                editBudget(c);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackendData.exportBackendData(provider, null, out);
+        exported = out.toByteArray();
+    }
+
+    private void editBudget(Category c) throws DataProvider.DataProviderException {
+        Category edited = new Category(c.getName(), c.getCurrency());
+        edited.setBudget(BigDecimal.valueOf(50 + 10 * random.nextInt(100)));
+        provider.updateCategory(edited);
+    }
+
+    private Latencies bulkImport() throws IOException, DataProvider.DataProviderException {
+        Latencies latencies = new Latencies("bulk import");
+        for (int i = -1; i < imports; i++) {
+            DataProvider target = DataProviderImpl.create(new InMemorySharedPreferences(),
+                    new InMemorySharedPreferences(), new InMemorySharedPreferences());
+            long start = System.nanoTime();
+            BackendData.importBackendData(new ByteArrayInputStream(exported), target);
+            if (i >= 0)
+                latencies.record(start);
+        }
+        return latencies;
+    }
+
+    private Latencies coldStart() throws DataProvider.DataProviderException {
+        Latencies latencies = new Latencies("cold start");
+        Date[] month = month(Datasets.NOW);
+        for (int i = -1; i < imports; i++) {
+            long start = System.nanoTime();
+            DataProvider p = DataProviderImpl.create(cat, ent, catEnt);
+            p.getAllCategories();
+            Entries.availableBudgets(p, month[0], month[1]);
+            if (i >= 0)
+                latencies.record(start);
+        }
+        return latencies;
+    }
+
+    private Latencies monthView() throws DataProvider.DataProviderException {
+        Latencies latencies = new Latencies("month view");
+        for (int i = -ops / 5; i < ops; i++) {
+            long start = System.nanoTime();
+            viewMonth();
+            if (i >= 0)
+                latencies.record(start);
+        }
+        return latencies;
+    }
+
+    private Latencies mixed() throws DataProvider.DataProviderException {
+        Latencies latencies = new Latencies("mixed");
+        List<Entry> added = new ArrayList<>();
+        for (int i = -ops / 5; i < ops; i++) {
+            int kind = random.nextInt(100);
+            if (kind >= 92 && kind < 99 && added.isEmpty())
+                // nothing to update or remove yet
+                kind = 0;
+            long start = System.nanoTime();
+            if (kind < 80)
+                viewMonth();
+            else if (kind < 92) {
+                Category c = randomCategory();
+                added.add(provider.addEntry(new Entry.Builder(BigDecimal.valueOf(-(100 + random.nextInt(10000)), 2),
+                        randomTime(), c.getName()).setPurpose("Mixed").build()));
+            } else if (kind < 96) {
+                int index = random.nextInt(added.size());
+                Entry old = added.get(index);
+                added.set(index, provider.updateEntry(old, old.toBuilder().setValue(old.getValue().subtract(BigDecimal.ONE)).build()));
+            } else if (kind < 99)
+                provider.removeEntry(added.remove(random.nextInt(added.size())));
+            else
+                editBudget(randomCategory());
+            if (i >= 0)
+                latencies.record(start);
+        }
+        return latencies;
+    }
+
+    private Latencies export() throws IOException, DataProvider.DataProviderException {
+        Latencies latencies = new Latencies("export");
+        for (int i = -1; i < imports; i++) {
+            long start = System.nanoTime();
+            BackendData.exportBackendData(provider, null, SINK);
+            if (i >= 0)
+                latencies.record(start);
+        }
+        return latencies;
+    }
+
+    private void viewMonth() throws DataProvider.DataProviderException {
+        Category c = provider.getCategory(randomCategory().getName());
+        Date[] month = month(randomTime());
+        Entries.onceify(provider.getEntries(c.getName(), month[0], month[1]), month[0], month[1]);
+        Entries.availableBudget(c, provider, month[0], month[1]);
+    }
+
+    private Category randomCategory() {
+        double r = random.nextDouble();
+        return categories.get((int) (r * r * categories.size()));
+    }
+
+    private long randomTime() {
+        return Datasets.NOW - (long) (random.nextDouble() * years * 365 * Datasets.DAY);
+    }
+
+    /**
+     * @return the first and the last millisecond of the month containing the given time
+     */
+    private static Date[] month(long time) {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.setTimeInMillis(time);
+        c.set(Calendar.DAY_OF_MONTH, 1);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        Date from = c.getTime();
+        c.add(Calendar.MONTH, 1);
+        return new Date[]{from, new Date(c.getTimeInMillis() - 1)};
+    }
+}